@@ -6,32 +6,52 @@
  */
 
 import React, { useEffect } from 'react';
-import { StatusBar } from 'react-native';
-import { NavigationContainer } from '@react-navigation/native';
+import { DeviceEventEmitter, StatusBar } from 'react-native';
+import { NavigationContainer, createNavigationContainerRef } from '@react-navigation/native';
 import { createNativeStackNavigator } from '@react-navigation/native-stack';
 import SplashScreen from './src/screens/SplashScreen';
 import HomeScreen from './src/screens/HomeScreen';
 import NoteDetailScreen from './src/screens/NoteDetailScreen';
 import { theme } from './src/utils/theme';
+import { WIDGET_NOTE_OPENED_EVENT } from './src/utils/widgetUtils';
 
 // Create the navigator
 // Define app routes for type safety
 type RootStackParamList = {
-  Splash: undefined;
+  Splash: { widgetNoteId?: string } | undefined;
   Home: undefined;
-  NoteDetail: { noteId?: string };
+  NoteDetail: { noteId?: string; fromWidget?: boolean };
 };
 
 const Stack = createNativeStackNavigator<RootStackParamList>();
+const navigationRef = createNavigationContainerRef<RootStackParamList>();
 
-function App(): React.ReactElement {
+type AppProps = {
+  // Set natively when the app is launched by tapping a note in the widget
+  widgetNoteId?: string;
+};
+
+function App({ widgetNoteId }: AppProps): React.ReactElement {
   // Register vector icons for the entire app
   useEffect(() => {
     // Any app-level setup can go here
   }, []);
 
+  // A widget tap while the app is already running
+  useEffect(() => {
+    const subscription = DeviceEventEmitter.addListener(
+      WIDGET_NOTE_OPENED_EVENT,
+      (event: { widgetNoteId: string }) => {
+        if (navigationRef.isReady()) {
+          navigationRef.navigate('NoteDetail', { noteId: event.widgetNoteId, fromWidget: true });
+        }
+      },
+    );
+    return () => subscription.remove();
+  }, []);
+
   return (
-    <NavigationContainer>
+    <NavigationContainer ref={navigationRef}>
       <StatusBar 
         backgroundColor={theme.colors.primary}
         barStyle="light-content" 
@@ -43,7 +63,11 @@ function App(): React.ReactElement {
           contentStyle: { backgroundColor: theme.colors.white },
           animation: 'slide_from_right',
         }}>
-        <Stack.Screen name="Splash" component={SplashScreen} />
+        <Stack.Screen
+          name="Splash"
+          component={SplashScreen}
+          initialParams={{ widgetNoteId }}
+        />
         <Stack.Screen name="Home" component={HomeScreen} />
         <Stack.Screen name="NoteDetail" component={NoteDetailScreen} />
       </Stack.Navigator>
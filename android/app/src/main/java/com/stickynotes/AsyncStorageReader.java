@@ -0,0 +1,325 @@
+package com.stickynotes;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the widget's keys straight out of the SQLite database React Native's AsyncStorage
+ * writes to ({@code RKStorage}, table {@code catalystLocalStorage}). Values are stored
+ * exactly as JS passed them to {@code setItem}, so they come back as plain JSON.
+ *
+ * <p>The database is opened read-only once and the handle kept for later refreshes, along
+ * with compiled lookups. If a read fails the handle is dropped and reopened on the next
+ * call, which also covers AsyncStorage deleting and recreating its database.
+ *
+ * <p>The notes array can be many megabytes, drawings included, so {@link #openValue}
+ * reads a large value as UTF-8 byte ranges decoded as they are consumed, rather than as
+ * one string: the Java heap only holds one range, and a value larger than a CursorWindow
+ * can still be read. SQLite itself loads the whole value for each range, so ranges are
+ * large to keep the number of passes low. All ranges are read in one read transaction,
+ * so a concurrent {@code setItem} can't tear the value.
+ */
+final class AsyncStorageReader {
+    static final String NOTES_KEY = "@sticky_notes";
+    static final String WIDGET_NOTES_KEY = "@sticky_notes_widget";
+
+    private static final String DATABASE_NAME = "RKStorage";
+    private static final String TABLE = "catalystLocalStorage";
+
+    private static final String QUERY_VALUE =
+            "SELECT value FROM " + TABLE + " WHERE key = ?";
+    private static final String QUERY_BYTE_LENGTH =
+            "SELECT length(CAST(value AS BLOB)) FROM " + TABLE + " WHERE key = ?";
+    // As a blob, substr counts bytes from 1 rather than decoding characters up to the start
+    private static final String QUERY_CHUNK =
+            "SELECT substr(CAST(value AS BLOB), ?, ?) FROM " + TABLE + " WHERE key = ?";
+    // Android's beginTransaction always takes a write lock, which a read-only handle can't;
+    // a savepoint outside a transaction begins a deferred one, which only reads
+    private static final String BEGIN_READ = "SAVEPOINT async_storage_read";
+    private static final String END_READ = "RELEASE async_storage_read";
+
+    // Values up to this size are read as one string
+    static final int SINGLE_READ_BYTES = 512 * 1024;
+    // Well inside a 2MB CursorWindow
+    static final int CHUNK_BYTES = 1024 * 1024;
+
+    private static AsyncStorageReader instance;
+
+    private final File path;
+    private SQLiteDatabase db;
+    private SQLiteStatement valueStatement;
+    // Whether an openValue read transaction is open on the handle
+    private boolean reading;
+
+    static synchronized AsyncStorageReader getInstance(Context context) {
+        if (instance == null) {
+            instance = new AsyncStorageReader(context.getApplicationContext().getDatabasePath(DATABASE_NAME));
+        }
+        return instance;
+    }
+
+    private AsyncStorageReader(File path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the value stored under {@code key}, or null if there is none.
+     */
+    synchronized String get(String key) {
+        if (!open()) {
+            return null;
+        }
+        try {
+            valueStatement.bindString(1, key);
+            return valueStatement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } catch (SQLiteException e) {
+            close();
+            throw e;
+        } finally {
+            if (valueStatement != null) {
+                valueStatement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Returns a reader over the value stored under {@code key}, or null if there is none.
+     * The value is read in a read transaction that lasts until the reader is closed, so
+     * {@link #get} calls made meanwhile see the same snapshot. In rollback journal mode
+     * that transaction keeps AsyncStorage from committing, so the reader has to be closed
+     * as soon as it is consumed. Only one may be open at a time.
+     */
+    synchronized Reader openValue(String key) {
+        if (!open()) {
+            return null;
+        }
+        db.execSQL(BEGIN_READ);
+        reading = true;
+        boolean opened = false;
+        try {
+            long length = DatabaseUtils.longForQuery(db, QUERY_BYTE_LENGTH, new String[]{key});
+            Reader reader;
+            if (length <= SINGLE_READ_BYTES) {
+                String value = get(key);
+                reader = value != null ? new StringReader(value) : null;
+            } else {
+                reader = new ValueReader(key, length);
+            }
+            opened = reader != null;
+            return opened ? new TransactionReader(reader) : null;
+        } catch (SQLiteDoneException e) {
+            return null;
+        } catch (SQLiteException e) {
+            close();
+            throw e;
+        } finally {
+            if (!opened) {
+                endRead();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code length} bytes of the value from {@code start}, which counts from 1,
+     * fewer past its end, or null if the key is gone.
+     */
+    private synchronized byte[] readChunk(String key, long start, int length) {
+        if (!open()) {
+            return null;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(QUERY_CHUNK, new String[]{String.valueOf(start), String.valueOf(length), key});
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        } catch (SQLiteException e) {
+            close();
+            throw e;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private synchronized void endRead() {
+        // Closing the handle after a failed read already ended it
+        if (reading && db != null) {
+            reading = false;
+            db.execSQL(END_READ);
+        }
+    }
+
+    /**
+     * Ends the read transaction when the reader it belongs to is closed.
+     */
+    private final class TransactionReader extends Reader {
+        private final Reader in;
+        private boolean closed;
+
+        TransactionReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+            return in.read(buffer, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                endRead();
+            }
+        }
+    }
+
+    /**
+     * Decodes a value {@link #CHUNK_BYTES} at a time, holding only the current chunk. A
+     * character split between two chunks is carried over to the next.
+     */
+    private final class ValueReader extends Reader {
+        private final String key;
+        private final long length;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        private ByteBuffer bytes = ByteBuffer.allocate(0);
+        // Where the next chunk starts, in bytes from 1
+        private long next = 1;
+        private boolean flushed;
+
+        ValueReader(String key, long length) {
+            this.key = key;
+            this.length = length;
+            chars.flip();
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!chars.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int count = Math.min(len, chars.remaining());
+            chars.get(buffer, off, count);
+            return count;
+        }
+
+        /**
+         * Decodes more characters, reading chunks as needed. Returns false at the end.
+         */
+        private boolean fill() throws IOException {
+            if (flushed) {
+                return false;
+            }
+            chars.clear();
+            try {
+                while (true) {
+                    boolean endOfInput = next > length;
+                    decoder.decode(bytes, chars, endOfInput);
+                    if (endOfInput) {
+                        decoder.flush(chars);
+                        flushed = true;
+                        break;
+                    }
+                    if (chars.position() > 0) {
+                        break;
+                    }
+                    readNextChunk();
+                }
+            } finally {
+                chars.flip();
+            }
+            return chars.hasRemaining();
+        }
+
+        private void readNextChunk() throws IOException {
+            byte[] chunk;
+            try {
+                chunk = readChunk(key, next, CHUNK_BYTES);
+            } catch (SQLiteException e) {
+                throw new IOException("Could not read " + key, e);
+            }
+            if (chunk == null) {
+                throw new IOException(key + " was removed while being read");
+            }
+            next += CHUNK_BYTES;
+            if (bytes.hasRemaining()) {
+                // The start of a character cut off by the previous chunk
+                ByteBuffer joined = ByteBuffer.allocate(bytes.remaining() + chunk.length);
+                joined.put(bytes).put(chunk).flip();
+                bytes = joined;
+            } else {
+                bytes = ByteBuffer.wrap(chunk);
+            }
+        }
+
+        @Override
+        public void close() {
+            flushed = true;
+            chars.clear().flip();
+            bytes = ByteBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * Opens the database if it isn't already. Returns false if AsyncStorage hasn't
+     * created it yet.
+     */
+    private boolean open() {
+        if (db != null && db.isOpen()) {
+            return true;
+        }
+        if (!path.exists()) {
+            return false;
+        }
+        db = SQLiteDatabase.openDatabase(path.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            valueStatement = db.compileStatement(QUERY_VALUE);
+        } catch (SQLiteException e) {
+            // The table doesn't exist until AsyncStorage's first write
+            close();
+            throw e;
+        }
+        return true;
+    }
+
+    private void close() {
+        reading = false;
+        if (valueStatement != null) {
+            valueStatement.close();
+            valueStatement = null;
+        }
+        if (db != null) {
+            db.close();
+            db = null;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.stickynotes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes the tar (ustar) archives {@link NoteBackup} uses. Only plain files
+ * with names of up to 100 bytes are supported, which is all a backup contains.
+ *
+ * <p>Both sides work on a {@link FileChannel} with a fixed header buffer. File entries
+ * are copied between channels with {@link FileChannel#transferTo} and
+ * {@link FileChannel#transferFrom}, so their bytes never pass through the Java heap, and
+ * memory use doesn't depend on how large the archive or its entries are.
+ */
+final class BackupArchive {
+    static final int BLOCK_SIZE = 512;
+
+    private static final int NAME_LENGTH = 100;
+    private static final int SIZE_OFFSET = 124;
+    private static final int SIZE_LENGTH = 12;
+    private static final int MTIME_OFFSET = 136;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int TYPE_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+    private BackupArchive() {
+    }
+
+    /**
+     * Appends entries to an archive, then ends it with {@link #finish}.
+     */
+    static final class Writer {
+        private final FileChannel out;
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        private final ByteBuffer padding = ByteBuffer.allocate(2 * BLOCK_SIZE);
+        private long position;
+
+        Writer(FileChannel out) throws IOException {
+            this.out = out;
+            this.position = out.position();
+        }
+
+        void putBytes(String name, byte[] data) throws IOException {
+            writeHeader(name, data.length);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+            pad(data.length);
+        }
+
+        /**
+         * Adds the file's contents, copied by the kernel rather than through a buffer.
+         *
+         * @throws IOException if the file shrinks while it is being copied
+         */
+        void putFile(String name, File file) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                writeHeader(name, size);
+                long copied = 0;
+                while (copied < size) {
+                    long n = channel.transferTo(copied, size - copied, out.position(position));
+                    if (n <= 0) {
+                        throw new IOException("Could not copy " + file + " into the archive");
+                    }
+                    copied += n;
+                    position += n;
+                }
+                pad(size);
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Writes the end-of-archive marker and syncs the archive.
+         */
+        void finish() throws IOException {
+            padding.clear();
+            while (padding.hasRemaining()) {
+                position += out.write(padding, position);
+            }
+            out.truncate(position);
+            out.force(false);
+        }
+
+        long position() {
+            return position;
+        }
+
+        private void writeHeader(String name, long size) throws IOException {
+            byte[] nameBytes = name.getBytes(UTF_8);
+            if (nameBytes.length > NAME_LENGTH) {
+                throw new IOException("Archive entry name too long: " + name);
+            }
+            header.clear();
+            header.put(ZERO_BLOCK);
+            header.position(0);
+            header.put(nameBytes);
+            putOctal(100, 8, 0644);
+            putOctal(108, 8, 0);
+            putOctal(116, 8, 0);
+            putOctal(SIZE_OFFSET, SIZE_LENGTH, size);
+            putOctal(MTIME_OFFSET, 12, System.currentTimeMillis() / 1000);
+            header.put(TYPE_OFFSET, (byte) '0');
+            byte[] magic = "ustar\u000000".getBytes(UTF_8);
+            for (int i = 0; i < magic.length; i++) {
+                header.put(MAGIC_OFFSET + i, magic[i]);
+            }
+            // The checksum is computed with its own field read as spaces
+            for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+                header.put(CHECKSUM_OFFSET + i, (byte) ' ');
+            }
+            putOctal(CHECKSUM_OFFSET, CHECKSUM_LENGTH - 1, checksum(header));
+
+            header.clear();
+            while (header.hasRemaining()) {
+                position += out.write(header, position);
+            }
+        }
+
+        private void putOctal(int offset, int length, long value) {
+            // Zero-padded digits followed by a NUL
+            String digits = Long.toOctalString(value);
+            int width = length - 1;
+            for (int i = 0; i < width; i++) {
+                int digit = i - (width - digits.length());
+                header.put(offset + i, digit < 0 ? (byte) '0' : (byte) digits.charAt(digit));
+            }
+            header.put(offset + width, (byte) 0);
+        }
+
+        private void pad(long size) throws IOException {
+            int remainder = (int) (size % BLOCK_SIZE);
+            if (remainder == 0) {
+                return;
+            }
+            padding.clear();
+            padding.limit(BLOCK_SIZE - remainder);
+            while (padding.hasRemaining()) {
+                position += out.write(padding, position);
+            }
+        }
+    }
+
+    /**
+     * One entry of an archive being read.
+     */
+    static final class Entry {
+        final String name;
+        final long size;
+        // Where the entry's header starts, and its data
+        final long offset;
+        final long dataOffset;
+
+        Entry(String name, long size, long offset, long dataOffset) {
+            this.name = name;
+            this.size = size;
+            this.offset = offset;
+            this.dataOffset = dataOffset;
+        }
+
+        /**
+         * Where the entry after this one starts.
+         */
+        long end() {
+            return dataOffset + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * Reads entries in order. The reader can start at any entry boundary, which is how
+     * an interrupted import resumes.
+     */
+    static final class Reader {
+        private final FileChannel in;
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        private long position;
+
+        /**
+         * @param position where to start reading, 0 or the {@link Entry#end} of an entry
+         */
+        Reader(FileChannel in, long position) {
+            this.in = in;
+            this.position = position;
+        }
+
+        /**
+         * Returns the next entry, or null at the end of the archive. Skips whatever of
+         * the previous entry's data wasn't read.
+         *
+         * @throws IOException if the archive is truncated or a header is corrupt
+         */
+        Entry next() throws IOException {
+            header.clear();
+            while (header.hasRemaining()) {
+                int n = in.read(header, position + header.position());
+                if (n < 0) {
+                    if (header.position() == 0) {
+                        // Tolerate archives missing the end-of-archive marker
+                        return null;
+                    }
+                    throw new IOException("Truncated archive header at " + position);
+                }
+            }
+            if (isZero(header)) {
+                return null;
+            }
+            long expected = parseOctal(CHECKSUM_OFFSET, CHECKSUM_LENGTH);
+            for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+                header.put(CHECKSUM_OFFSET + i, (byte) ' ');
+            }
+            if (checksum(header) != expected) {
+                throw new IOException("Corrupt archive header at " + position);
+            }
+
+            int nameLength = 0;
+            while (nameLength < NAME_LENGTH && header.get(nameLength) != 0) {
+                nameLength++;
+            }
+            String name = new String(header.array(), 0, nameLength, UTF_8);
+            long size = parseOctal(SIZE_OFFSET, SIZE_LENGTH);
+            Entry entry = new Entry(name, size, position, position + BLOCK_SIZE);
+            if (entry.dataOffset + size > in.size()) {
+                throw new IOException("Truncated archive entry " + name);
+            }
+            position = entry.end();
+            return entry;
+        }
+
+        /**
+         * Reads a small entry into memory.
+         *
+         * @throws IOException if the entry is larger than {@code maxSize}
+         */
+        byte[] readBytes(Entry entry, int maxSize) throws IOException {
+            if (entry.size > maxSize) {
+                throw new IOException("Archive entry " + entry.name + " too large: " + entry.size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) entry.size);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, entry.dataOffset + buffer.position()) < 0) {
+                    throw new IOException("Truncated archive entry " + entry.name);
+                }
+            }
+            return buffer.array();
+        }
+
+        /**
+         * Copies an entry's data into {@code out}, from its current position, by the kernel.
+         */
+        void copyTo(Entry entry, FileChannel out) throws IOException {
+            long copied = 0;
+            long start = out.position();
+            in.position(entry.dataOffset);
+            while (copied < entry.size) {
+                long n = out.transferFrom(in, start + copied, entry.size - copied);
+                if (n <= 0) {
+                    throw new IOException("Truncated archive entry " + entry.name);
+                }
+                copied += n;
+            }
+        }
+
+        /**
+         * Returns whether {@code file} holds exactly the entry's data, reading both a
+         * buffer at a time.
+         */
+        boolean contentEquals(Entry entry, File file) throws IOException {
+            if (file.length() != entry.size) {
+                return false;
+            }
+            ByteBuffer expected = ByteBuffer.allocate(64 * 1024);
+            ByteBuffer actual = ByteBuffer.allocate(64 * 1024);
+            FileInputStream other = new FileInputStream(file);
+            try {
+                FileChannel channel = other.getChannel();
+                for (long position = 0; position < entry.size; position += expected.limit()) {
+                    int length = (int) Math.min(expected.capacity(), entry.size - position);
+                    expected.clear().limit(length);
+                    actual.clear().limit(length);
+                    while (expected.hasRemaining()) {
+                        if (in.read(expected, entry.dataOffset + position + expected.position()) < 0) {
+                            throw new IOException("Truncated archive entry " + entry.name);
+                        }
+                    }
+                    while (actual.hasRemaining()) {
+                        if (channel.read(actual, position + actual.position()) < 0) {
+                            return false;
+                        }
+                    }
+                    expected.flip();
+                    actual.flip();
+                    if (!expected.equals(actual)) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                other.close();
+            }
+        }
+
+        private long parseOctal(int offset, int length) throws IOException {
+            long value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                byte b = header.get(i);
+                if (b == 0 || b == ' ') {
+                    if (value > 0 || i > offset) {
+                        break;
+                    }
+                    continue;
+                }
+                if (b < '0' || b > '7') {
+                    throw new IOException("Corrupt archive header at " + position);
+                }
+                value = value * 8 + (b - '0');
+            }
+            return value;
+        }
+    }
+
+    private static long checksum(ByteBuffer header) {
+        long sum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += header.get(i) & 0xff;
+        }
+        return sum;
+    }
+
+    private static boolean isZero(ByteBuffer header) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (header.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
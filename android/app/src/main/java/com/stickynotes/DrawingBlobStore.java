@@ -0,0 +1,239 @@
+package com.stickynotes;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content-addressed files for note drawings, named by the SHA-256 of their bytes and
+ * fanned out into subdirectories by the first two hex digits.
+ *
+ * <p>A blob is written to a temporary file, synced and then renamed into place, and its
+ * directory is synced after the rename, so a blob that exists is always complete and on
+ * disk; {@link NoteStore} writes it before committing the note that refers to it.
+ * Storing the same drawing twice writes it once. Which blobs are still referenced is
+ * tracked by {@link NoteStore}, this class only deals with the files.
+ */
+final class DrawingBlobStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File dir;
+
+    DrawingBlobStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Stores {@code data} unless a blob with the same contents already exists.
+     *
+     * @return the blob's hash
+     */
+    String put(byte[] data) throws IOException {
+        String hash = hash(data);
+        File file = fileFor(hash);
+        if (file.exists()) {
+            return hash;
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory()) {
+            if (!parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            // Or a crash could lose the new directories along with the blob in them
+            syncDirectory(dir);
+            syncDirectory(dir.getParentFile());
+        }
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // A note may only refer to the blob once its bytes are on disk
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not store blob " + hash);
+        }
+        syncDirectory(parent);
+        return hash;
+    }
+
+    /**
+     * Stores the synced file {@code source} as the blob {@code hash}, moving it into place.
+     * The contents are checked against the hash a buffer at a time, so the blob is never
+     * held in memory. {@code source} is deleted if the blob already exists.
+     *
+     * @throws IOException if the contents don't match {@code hash}
+     */
+    void putFile(String hash, File source) throws IOException {
+        MessageDigest digest = sha256();
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+        if (!toHex(digest.digest()).equals(hash)) {
+            source.delete();
+            throw new IOException("Blob is corrupt: " + hash);
+        }
+
+        File file = fileFor(hash);
+        if (file.exists()) {
+            source.delete();
+            return;
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory()) {
+            if (!parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            // Or a crash could lose the new directories along with the blob in them
+            syncDirectory(dir);
+            syncDirectory(dir.getParentFile());
+        }
+        if (!source.renameTo(file)) {
+            throw new IOException("Could not store blob " + hash);
+        }
+        syncDirectory(parent);
+    }
+
+    /**
+     * Returns the blob's bytes, or null if there is no such blob.
+     *
+     * @throws IOException if the blob can't be read or its contents don't match its hash
+     */
+    byte[] read(String hash) throws IOException {
+        File file = fileFor(hash);
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Blob too large: " + hash);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            byte[] data = buffer.array();
+            if (buffer.hasRemaining() || !hash(data).equals(hash)) {
+                throw new IOException("Blob is corrupt: " + hash);
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    boolean contains(String hash) {
+        return fileFor(hash).exists();
+    }
+
+    /**
+     * Deletes the blob. Returns false if there was no such blob.
+     */
+    boolean delete(String hash) {
+        return fileFor(hash).delete();
+    }
+
+    /**
+     * Returns the hashes of every stored blob, and deletes temporary files left behind by
+     * writes that never finished.
+     */
+    List<String> list() {
+        List<String> hashes = new ArrayList<>();
+        File[] fans = dir.listFiles();
+        if (fans == null) {
+            return hashes;
+        }
+        for (File fan : fans) {
+            File[] files = fan.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                } else {
+                    hashes.add(file.getName());
+                }
+            }
+        }
+        return hashes;
+    }
+
+    File fileFor(String hash) {
+        if (hash.length() < 3) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        return new File(new File(dir, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Syncs a directory's entries, so a file renamed into it stays there after a crash.
+     */
+    private static void syncDirectory(File directory) throws IOException {
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("Could not sync " + directory, e);
+        }
+    }
+
+    static String hash(byte[] data) {
+        return toHex(sha256().digest(data));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,312 @@
+package com.stickynotes;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Downsampled drawing thumbnails for note cards and the widget.
+ *
+ * <p>Thumbnails are decoded on a background thread, at most {@code size} pixels on their
+ * longer side, and kept in two tiers: an in-memory {@link LruCache} bounded by bitmap
+ * bytes, and WebP files in the cache dir named after (note, updatedAt, size), so a note
+ * that changes simply misses and its older thumbnails are deleted. {@link #peek} only ever
+ * looks in memory, which is what the widget's binder thread uses.
+ */
+final class DrawingThumbnails {
+    private static final String CACHE_DIR = "thumbnails";
+    private static final String EXTENSION = ".webp";
+    private static final int WEBP_QUALITY = 80;
+    private static final long DISK_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final long MEMORY_CACHE_BYTES = 8L * 1024 * 1024;
+
+    /**
+     * Thumbnail size in the widget, in dp.
+     */
+    static final int WIDGET_SIZE_DP = 48;
+
+    private static DrawingThumbnails instance;
+
+    private final Context context;
+    private final File dir;
+    private final ExecutorService executor;
+    private final LruCache<String, Bitmap> memory;
+
+    static synchronized DrawingThumbnails getInstance(Context context) {
+        if (instance == null) {
+            instance = new DrawingThumbnails(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DrawingThumbnails(Context context) {
+        this.context = context;
+        this.dir = new File(context.getCacheDir(), CACHE_DIR);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StickyThumbnails");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        int maxBytes = (int) Math.min(MEMORY_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 16);
+        this.memory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the widget's thumbnail size in pixels for this screen.
+     */
+    int widgetSize() {
+        return Math.round(WIDGET_SIZE_DP * context.getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Returns the thumbnail if it is in memory, without touching the disk.
+     */
+    Bitmap peek(String noteId, long updatedAt, int size) {
+        return memory.get(key(noteId, updatedAt, size));
+    }
+
+    /**
+     * Loads the thumbnail in the background, from memory, disk or by decoding the drawing.
+     * The future yields null if the note has no drawing.
+     */
+    Future<Bitmap> load(final String noteId, final long updatedAt, final int size) {
+        return executor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws IOException {
+                return loadNow(noteId, updatedAt, size);
+            }
+        });
+    }
+
+    /**
+     * Makes sure the thumbnail is on disk and returns its file, or null if the note has
+     * no drawing. For JS, which shows it as an image URI.
+     */
+    Future<File> loadFile(final String noteId, final long updatedAt, final int size) {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                File file = fileFor(noteId, updatedAt, size);
+                if (file.exists()) {
+                    return file;
+                }
+                Bitmap thumbnail = loadNow(noteId, updatedAt, size);
+                if (thumbnail == null) {
+                    return null;
+                }
+                if (!file.exists()) {
+                    // Evicted from disk while still in memory
+                    write(file, thumbnail);
+                }
+                return file;
+            }
+        });
+    }
+
+    private Bitmap loadNow(String noteId, long updatedAt, int size) throws IOException {
+        String key = key(noteId, updatedAt, size);
+        Bitmap thumbnail = memory.get(key);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        File file = fileFor(noteId, updatedAt, size);
+        if (file.exists()) {
+            thumbnail = BitmapFactory.decodeFile(file.getPath());
+            if (thumbnail != null) {
+                // Keeps recently used files clear of trimming
+                file.setLastModified(System.currentTimeMillis());
+                memory.put(key, thumbnail);
+                return thumbnail;
+            }
+        }
+
+        NoteStore store = NoteStore.getInstance(context);
+        NoteRecord note = store.get(noteId);
+        if (note == null || note.drawingHash == null) {
+            return null;
+        }
+        String drawing = store.loadDrawing(note.drawingHash);
+        thumbnail = drawing != null ? decode(drawing, size) : null;
+        if (thumbnail == null) {
+            WidgetLog.w("Could not decode the drawing of a note updated at {}", note.updatedAt);
+            return null;
+        }
+
+        // Keyed by the stored note, which may be newer than what the caller had
+        key = key(noteId, note.updatedAt, size);
+        file = fileFor(noteId, note.updatedAt, size);
+        write(file, thumbnail);
+        deleteOlderVersions(noteId, note.updatedAt);
+        trimDisk();
+        memory.put(key, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Decodes a drawing, a PNG data URL or bare base64, to at most {@code size} pixels on
+     * its longer side. Decodes at the largest power-of-two reduction that still covers
+     * {@code size}, so the full-size image is never in memory, then scales the rest of
+     * the way.
+     */
+    static Bitmap decode(String drawing, int size) {
+        int comma = drawing.indexOf(',');
+        String base64 = drawing.startsWith("data:") && comma >= 0 ? drawing.substring(comma + 1) : drawing;
+        byte[] data;
+        try {
+            data = Base64.decode(base64, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, size);
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (decoded == null) {
+            return null;
+        }
+
+        int longer = Math.max(decoded.getWidth(), decoded.getHeight());
+        if (longer <= size) {
+            return decoded;
+        }
+        float scale = (float) size / longer;
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                Math.max(1, Math.round(decoded.getWidth() * scale)),
+                Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns the largest power of two the image can be divided by while its longer side
+     * stays at least {@code size}.
+     */
+    static int sampleSize(int width, int height, int size) {
+        int longer = Math.max(width, height);
+        int sample = 1;
+        while (longer / (sample * 2) >= size) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private void write(File file, Bitmap thumbnail) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            thumbnail.compress(Bitmap.CompressFormat.WEBP, WEBP_QUALITY, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    /**
+     * Deletes the note's thumbnails, of any size, for versions older than {@code updatedAt}.
+     * Other sizes of the same version are kept, as cards and the widget each use their own.
+     */
+    private void deleteOlderVersions(String noteId, long updatedAt) {
+        String prefix = filePrefix(noteId);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            int end = name.indexOf('-', prefix.length());
+            try {
+                if (end < 0 || Long.parseLong(name.substring(prefix.length(), end)) < updatedAt) {
+                    file.delete();
+                }
+            } catch (NumberFormatException e) {
+                // Not one of ours
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files once the cache grows past its budget.
+     */
+    private void trimDisk() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_CACHE_BYTES * 3 / 4) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private File fileFor(String noteId, long updatedAt, int size) {
+        return new File(dir, filePrefix(noteId) + updatedAt + "-" + size + EXTENSION);
+    }
+
+    /**
+     * Note ids come from JS, so file names use a hash of them rather than the id itself.
+     */
+    private static String filePrefix(String noteId) {
+        return Long.toHexString(WidgetNote.stableId(noteId)) + "-";
+    }
+
+    private static String key(String noteId, long updatedAt, int size) {
+        return noteId + ':' + updatedAt + ':' + size;
+    }
+}
@@ -0,0 +1,131 @@
+package com.stickynotes;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first page of the home screen, precomputed so it can be shown before JS has
+ * queried the store.
+ *
+ * <p>Stored in the {@link WidgetSnapshotFile} format, with note summaries as rows, and
+ * read on a background thread as soon as the process starts. It is only rewritten when
+ * the app goes to the background after notes changed, so it may be slightly stale;
+ * the home screen replaces it with a real listing as soon as it can.
+ */
+final class LaunchSnapshot {
+    /**
+     * Notes kept, matching the home screen's page size.
+     */
+    static final int SIZE = 20;
+
+    private static final String FILE_NAME = "launch.snap";
+    private static final long LOAD_TIMEOUT_MILLIS = 500;
+
+    private static FutureTask<List<NoteSummary>> preloaded;
+    private static volatile boolean stale;
+
+    private LaunchSnapshot() {
+    }
+
+    /**
+     * Starts reading the snapshot in the background. Call as early as possible.
+     */
+    static synchronized void preload(Context context) {
+        if (preloaded != null) {
+            return;
+        }
+        final File file = fileFor(context);
+        preloaded = new FutureTask<>(new Callable<List<NoteSummary>>() {
+            @Override
+            public List<NoteSummary> call() {
+                List<NoteSummary> summaries = read(file);
+                if (summaries == null) {
+                    // First run since installing or updating; write one when the app pauses
+                    stale = true;
+                }
+                return summaries;
+            }
+        });
+        new Thread(preloaded, "StickyLaunchSnapshot").start();
+    }
+
+    /**
+     * Returns the preloaded summaries, waiting briefly for them if needed, or null if
+     * there is no snapshot.
+     */
+    static List<NoteSummary> get(Context context) {
+        FutureTask<List<NoteSummary>> task;
+        synchronized (LaunchSnapshot.class) {
+            preload(context);
+            task = preloaded;
+        }
+        try {
+            return task.get(LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            WidgetLog.e("Launch snapshot not loaded", e);
+            return null;
+        }
+    }
+
+    /**
+     * Notes the snapshot no longer matches the store.
+     */
+    static void invalidate() {
+        stale = true;
+    }
+
+    static boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Rewrites the snapshot from the store's most recent notes.
+     */
+    static void write(Context context, NoteStore store) throws IOException {
+        stale = false;
+        long version = store.getJournalVersion();
+        List<WidgetNote> rows = new ArrayList<>();
+        for (NoteSummary summary : store.listSummaries(null, SIZE)) {
+            WidgetNote row = new WidgetNote();
+            row.id = summary.id;
+            row.title = summary.title;
+            row.content = summary.preview;
+            row.updatedAt = summary.updatedAt;
+            row.hasDrawing = summary.hasDrawing;
+            row.hasAudio = summary.hasAudio;
+            rows.add(row);
+        }
+        WidgetSnapshotFile.write(fileFor(context), new WidgetSnapshot(version, rows));
+    }
+
+    static List<NoteSummary> read(File file) {
+        WidgetSnapshotFile.Mapped mapped = WidgetSnapshotFile.open(file);
+        if (mapped == null) {
+            return null;
+        }
+        List<NoteSummary> summaries = new ArrayList<>(mapped.size());
+        for (int i = 0; i < mapped.size(); i++) {
+            NoteSummary summary = new NoteSummary();
+            summary.id = mapped.id(i);
+            String title = mapped.title(i);
+            summary.title = title != null ? title : "";
+            summary.preview = mapped.content(i);
+            summary.updatedAt = mapped.updatedAt(i);
+            summary.hasDrawing = mapped.hasDrawing(i);
+            summary.hasAudio = mapped.hasAudio(i);
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    private static File fileFor(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,472 @@
+package com.stickynotes;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the legacy AsyncStorage values the widget reads before the app has migrated to
+ * {@link NoteStore}. Kept free of Context and logging so the benchmarks can run it on a
+ * plain JVM.
+ *
+ * <p>The notes array is scanned by hand rather than with a JsonReader, which makes a
+ * String of every name and value it reads. Values the widget shows are decoded into one
+ * reusable char buffer and everything else is skipped in place, so a parser kept across
+ * refreshes allocates nothing per note.
+ */
+final class LegacyNotesParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_NAME_LENGTH = 16;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private Reader in;
+    private int pos;
+    private int limit;
+
+    // The note being read: its id, title and preview back to back
+    private char[] text = new char[256];
+    private int textLength;
+    private final char[] name = new char[MAX_NAME_LENGTH];
+
+    /**
+     * Streams the {@code @sticky_notes} array into {@code selector}, so only the rows the
+     * widget will show are kept in memory. Drawings and recordings are skipped without
+     * being read and content is cut down to a preview. Closes {@code in}.
+     *
+     * @return how many notes were read
+     */
+    int parseNotes(Reader in, WidgetNoteSelector selector) throws IOException {
+        this.in = in;
+        pos = 0;
+        limit = 0;
+        int count = 0;
+        try {
+            expect('[');
+            if (peek() == ']') {
+                pos++;
+                return 0;
+            }
+            while (true) {
+                if (readNote(selector)) {
+                    count++;
+                }
+                int c = next();
+                if (c == ']') {
+                    return count;
+                } else if (c != ',') {
+                    throw syntaxError("Expected , or ]");
+                }
+            }
+        } finally {
+            this.in = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Parses the {@code @sticky_notes_widget} array of pinned ids, keeping pin order.
+     */
+    static WidgetPins parsePins(String widgetNotesJson) throws JSONException {
+        if (widgetNotesJson == null) {
+            return WidgetPins.NONE;
+        }
+        JSONArray widgetNoteIds = new JSONArray(widgetNotesJson);
+        List<String> ids = new ArrayList<>(widgetNoteIds.length());
+        for (int i = 0; i < widgetNoteIds.length(); i++) {
+            ids.add(widgetNoteIds.getString(i));
+        }
+        return WidgetPins.of(ids);
+    }
+
+    /**
+     * Reads one element of the array and offers it if it is a note with an id.
+     */
+    private boolean readNote(WidgetNoteSelector selector) throws IOException {
+        if (peek() != '{') {
+            skipValue();
+            return false;
+        }
+        pos++;
+        textLength = 0;
+        int idStart = -1;
+        int idLength = 0;
+        int titleStart = 0;
+        int titleLength = -1;
+        int previewStart = 0;
+        int previewLength = 0;
+        long updatedAt = -1;
+
+        if (peek() == '}') {
+            pos++;
+            return false;
+        }
+        while (true) {
+            int nameLength = readName();
+            expect(':');
+            int c = peek();
+            if (c == 'n') {
+                skipValue();
+            } else if (isName("id", nameLength) && (c == '"' || c == '-' || (c >= '0' && c <= '9'))) {
+                // JSONObject.getString took numeric ids too
+                idStart = textLength;
+                idLength = c == '"' ? readString(Integer.MAX_VALUE) : readNumberText();
+            } else if (c == '"' && isName("title", nameLength)) {
+                titleStart = textLength;
+                titleLength = readString(Integer.MAX_VALUE);
+            } else if (c == '"' && isName("content", nameLength)) {
+                previewStart = textLength;
+                previewLength = readString(WidgetNote.PREVIEW_LENGTH);
+            } else if (isName("updatedAt", nameLength)) {
+                updatedAt = readTimestamp();
+            } else {
+                // drawingPaths, audioPath and createdAt are never displayed
+                skipValue();
+            }
+            c = next();
+            if (c == '}') {
+                break;
+            } else if (c != ',') {
+                throw syntaxError("Expected , or }");
+            }
+        }
+
+        if (idStart < 0) {
+            return false;
+        }
+        if (updatedAt < 0) {
+            updatedAt = System.currentTimeMillis();
+        }
+        selector.offer(text, idStart, idLength, titleStart, titleLength, previewStart, previewLength, updatedAt);
+        return true;
+    }
+
+    /**
+     * Reads a member name into {@link #name}, keeping at most its first
+     * {@link #MAX_NAME_LENGTH} chars, which is enough to tell the ones we read apart.
+     */
+    private int readName() throws IOException {
+        expect('"');
+        int length = 0;
+        while (true) {
+            int c = readChar();
+            if (c == '"') {
+                return length;
+            }
+            if (c == '\\') {
+                c = readEscape();
+            }
+            if (length < MAX_NAME_LENGTH) {
+                name[length] = (char) c;
+            }
+            length++;
+        }
+    }
+
+    private boolean isName(String expected, int length) {
+        if (length != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the string at the current position into {@link #text}, keeping at most
+     * {@code max} chars and skipping the rest.
+     *
+     * @return the number of chars kept
+     */
+    private int readString(int max) throws IOException {
+        expect('"');
+        int kept = 0;
+        while (true) {
+            int c = readChar();
+            if (c == '"') {
+                return kept;
+            }
+            if (c == '\\') {
+                c = readEscape();
+            }
+            if (kept < max) {
+                appendText((char) c);
+                kept++;
+            } else {
+                skipRestOfString();
+                return kept;
+            }
+        }
+    }
+
+    /**
+     * Skips to just past the closing quote of a string already opened.
+     */
+    private void skipRestOfString() throws IOException {
+        while (true) {
+            // Scan the buffer directly; this is where large drawings go by
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    return;
+                } else if (c == '\\') {
+                    readEscape();
+                }
+            }
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Reads what follows a backslash and returns the char it stands for.
+     */
+    private int readEscape() throws IOException {
+        int c = readChar();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readChar(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return value;
+            default:
+                // \", \\, \/ and anything else stand for themselves
+                return c;
+        }
+    }
+
+    private void appendText(char c) {
+        if (textLength == text.length) {
+            char[] grown = new char[text.length * 2];
+            System.arraycopy(text, 0, grown, 0, textLength);
+            text = grown;
+        }
+        text[textLength++] = c;
+    }
+
+    /**
+     * Copies the number at the current position into {@link #text} as it is written.
+     *
+     * @return the number of chars copied
+     */
+    private int readNumberText() throws IOException {
+        int length = 0;
+        while (true) {
+            int c = peekChar();
+            if (c < 0 || c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                return length;
+            }
+            appendText((char) c);
+            length++;
+            pos++;
+        }
+    }
+
+    /**
+     * Reads updatedAt, a number or a string holding one, as a long. Returns -1 for
+     * anything else, such as an ISO date, so the caller falls back to the current time
+     * the way JSONObject.optLong did.
+     */
+    private long readTimestamp() throws IOException {
+        int c = peek();
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return readLong();
+        }
+        if (c != '"') {
+            skipValue();
+            return -1;
+        }
+        int start = textLength;
+        int length = readString(Integer.MAX_VALUE);
+        // Not kept, only parsed
+        textLength = start;
+        String value = new String(text, start, length).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Fall through to a fraction or exponent
+        }
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a number as a long, the way JsonReader.nextLong does.
+     */
+    private long readLong() throws IOException {
+        boolean negative = false;
+        long value = 0;
+        int digits = 0;
+        int c = peekChar();
+        if (c == '-') {
+            negative = true;
+            pos++;
+            c = peekChar();
+        }
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            digits++;
+            pos++;
+            c = peekChar();
+        }
+        if (digits == 0) {
+            throw syntaxError("Expected a number");
+        }
+        if (c == '.' || c == 'e' || c == 'E') {
+            // Rare enough that precision past a double doesn't matter
+            double fraction = readFractionAndExponent(value);
+            value = (long) fraction;
+        }
+        return negative ? -value : value;
+    }
+
+    private double readFractionAndExponent(long integer) throws IOException {
+        double value = integer;
+        int c = peekChar();
+        if (c == '.') {
+            pos++;
+            double scale = 0.1;
+            for (c = peekChar(); c >= '0' && c <= '9'; c = peekChar()) {
+                value += (c - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+        if (c == 'e' || c == 'E') {
+            pos++;
+            c = peekChar();
+            boolean negative = c == '-';
+            if (c == '-' || c == '+') {
+                pos++;
+            }
+            int exponent = 0;
+            for (c = peekChar(); c >= '0' && c <= '9'; c = peekChar()) {
+                exponent = Math.min(exponent * 10 + (c - '0'), 400);
+                pos++;
+            }
+            value *= Math.pow(10, negative ? -exponent : exponent);
+        }
+        return value;
+    }
+
+    /**
+     * Skips the value at the current position, with whatever it nests.
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = next();
+            switch (c) {
+                case '"':
+                    skipRestOfString();
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case ',':
+                case ':':
+                    break;
+                default:
+                    // A number or literal; stop at whatever ends it
+                    while (true) {
+                        c = peekChar();
+                        if (c < 0 || c == ',' || c == '}' || c == ']' || c == ':' || isWhitespace(c)) {
+                            break;
+                        }
+                        pos++;
+                    }
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private void expect(char expected) throws IOException {
+        if (next() != expected) {
+            throw syntaxError("Expected " + expected);
+        }
+    }
+
+    /**
+     * Returns the next char that isn't whitespace without consuming it.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            int c = peekChar();
+            if (c < 0) {
+                throw syntaxError("Unexpected end of input");
+            }
+            if (!isWhitespace(c)) {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Consumes and returns the next char that isn't whitespace.
+     */
+    private int next() throws IOException {
+        int c = peek();
+        pos++;
+        return c;
+    }
+
+    private int peekChar() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private int readChar() throws IOException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " in legacy notes");
+    }
+}
@@ -1,5 +1,6 @@
 package com.stickynotes
 
+import android.os.Bundle
 import com.facebook.react.ReactActivity
 import com.facebook.react.ReactActivityDelegate
 import com.facebook.react.defaults.DefaultNewArchitectureEntryPoint.fabricEnabled
@@ -18,5 +19,15 @@ class MainActivity : ReactActivity() {
    * which allows you to enable New Architecture with a single boolean flags [fabricEnabled]
    */
   override fun createReactActivityDelegate(): ReactActivityDelegate =
-      DefaultReactActivityDelegate(this, mainComponentName, fabricEnabled)
+      object : DefaultReactActivityDelegate(this, mainComponentName, fabricEnabled) {
+        /**
+         * Passes the note tapped in the widget to the root component, so it can open the
+         * note directly. A tap while the app is running arrives as an event instead, see
+         * StickyNoteWidgetModule.onNewIntent.
+         */
+        override fun getLaunchOptions(): Bundle? {
+          val noteId = intent?.getStringExtra(WidgetNoteOpener.EXTRA_NOTE_ID) ?: return null
+          return Bundle().apply { putString(WidgetNoteOpener.KEY_NOTE_ID, noteId) }
+        }
+      }
 }
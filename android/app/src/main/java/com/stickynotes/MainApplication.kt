@@ -36,6 +36,9 @@ class MainApplication : Application(), ReactApplication {
 
   override fun onCreate() {
     super.onCreate()
+    // Read the home screen's first page while React Native is still starting up
+    LaunchSnapshot.preload(this)
+    MaintenanceJobService.schedule(this)
     SoLoader.init(this, OpenSourceMergedSoMapping)
     if (BuildConfig.IS_NEW_ARCHITECTURE_ENABLED) {
       // If you opted-in for the New Architecture, we load the native entry point for this app.
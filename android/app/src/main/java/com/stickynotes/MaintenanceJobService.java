@@ -0,0 +1,273 @@
+package com.stickynotes;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link StorageMaintenance} while the device is idle and charging: checkpoints the
+ * write log, deletes drawings, voice note sidecars and widget snapshots nothing refers
+ * to any more and recordings notes let go of, checks the database and compacts it.
+ *
+ * <p>Each run gets a short time budget. A run that doesn't finish asks to be rescheduled
+ * and the next one picks up at the task it stopped in, so a large cleanup is spread over
+ * several idle windows rather than holding the database for long. The last run's report
+ * is kept for {@code StickyNoteWidget.getMaintenanceReport}.
+ */
+public class MaintenanceJobService extends JobService {
+    static final int JOB_ID = 0x57494b31;
+    static final String KEY_LAST_RUN_AT = "last_run_at";
+    static final String KEY_DURATION_MS = "duration_ms";
+    static final String KEY_BYTES_RECLAIMED = "bytes_reclaimed";
+    static final String KEY_COMPLETED = "completed";
+    static final String KEY_FAILURES = "failures";
+    static final String KEY_COMPACTABLE = "compactable";
+
+    private static final long PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long BUDGET_NANOS = TimeUnit.SECONDS.toNanos(4);
+    // The recorder lists every recording, so one a note let go of stays offered this long
+    private static final long RELEASED_RECORDING_GRACE_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int RECORDINGS_PER_STEP = 32;
+    // Well past how long any re-encode takes, so only abandoned ones are deleted
+    private static final long STALE_TRANSCODE_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int VACUUM_PAGES_PER_STEP = 64;
+
+    private static final String PREFS_NAME = "sticky_maintenance";
+    private static final String KEY_NEXT_TASK = "next_task";
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Schedules the daily maintenance run unless it already is.
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            WidgetLog.w("Could not schedule storage maintenance");
+        }
+    }
+
+    /**
+     * Returns what the last run did.
+     */
+    static SharedPreferences report(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        cancelled.set(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean complete = false;
+                try {
+                    complete = runMaintenance(getApplicationContext());
+                } catch (Exception e) {
+                    WidgetLog.e("Storage maintenance failed", e);
+                }
+                jobFinished(params, !complete && !cancelled.get());
+            }
+        }, "StickyMaintenance").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The current step finishes, then the run stops where it is
+        cancelled.set(true);
+        return true;
+    }
+
+    /**
+     * Runs the tasks from where the last run stopped, and returns whether they all finished.
+     */
+    private boolean runMaintenance(Context context) {
+        SharedPreferences prefs = report(context);
+        List<StorageMaintenance.Task> tasks = tasks(context);
+        StorageMaintenance.Result result = StorageMaintenance.run(tasks, prefs.getInt(KEY_NEXT_TASK, 0),
+                BUDGET_NANOS, cancelled, StorageMaintenance.SYSTEM_CLOCK);
+        boolean complete = result.isComplete(tasks.size());
+        for (String failure : result.failures) {
+            WidgetLog.w("Maintenance task failed: {}", failure);
+        }
+        prefs.edit()
+                // Start over next time once everything ran
+                .putInt(KEY_NEXT_TASK, complete ? 0 : result.nextTask)
+                .putLong(KEY_LAST_RUN_AT, System.currentTimeMillis())
+                .putLong(KEY_DURATION_MS, result.durationNanos / 1000000)
+                .putLong(KEY_BYTES_RECLAIMED, result.bytesReclaimed)
+                .putBoolean(KEY_COMPLETED, complete)
+                .putInt(KEY_FAILURES, result.failures.size())
+                .putBoolean(KEY_COMPACTABLE, NoteStore.getInstance(context).canCompact())
+                .apply();
+        WidgetLog.d("Storage maintenance reclaimed {} bytes in {} ms over {} steps", result.bytesReclaimed,
+                result.durationNanos / 1000000, result.steps);
+        return complete;
+    }
+
+    /**
+     * Returns the tasks in the order they run. The order must stay stable, as runs
+     * resume by index.
+     */
+    static List<StorageMaintenance.Task> tasks(final Context context) {
+        final NoteStore store = NoteStore.getInstance(context);
+        List<StorageMaintenance.Task> tasks = new ArrayList<>();
+        tasks.add(new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "checkpoint";
+            }
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) throws Exception {
+                result.bytesReclaimed += store.checkpointAndTruncate();
+                return true;
+            }
+        });
+        tasks.add(new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "drawings";
+            }
+
+            private NoteStore.GarbageCollection collection;
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) {
+                if (collection == null) {
+                    collection = store.startGarbageCollection();
+                }
+                long before = collection.bytesFreed();
+                boolean done = collection.step(StorageMaintenance.FileSweep.BATCH_SIZE);
+                result.bytesReclaimed += collection.bytesFreed() - before;
+                return done;
+            }
+        });
+        tasks.add(recordingSweep(context, store));
+        tasks.add(transcodeSweep(context));
+        tasks.add(new StorageMaintenance.FileSweep("voiceNoteSidecars",
+                new File(context.getFilesDir(), VoiceNotes.SIDECAR_DIR),
+                new StorageMaintenance.FileSweep.Check() {
+                    @Override
+                    public boolean isOrphan(File file) {
+                        try {
+                            VoiceNoteInfo info = VoiceNoteInfo.read(file);
+                            return info == null || !new File(info.audioPath).isFile();
+                        } catch (Exception e) {
+                            // Unreadable, it would be recomputed anyway
+                            return true;
+                        }
+                    }
+                }));
+        tasks.add(new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "widgetSnapshots";
+            }
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) throws Exception {
+                result.bytesReclaimed += WidgetSnapshotBuilder.getInstance(context).sweep()
+                        .get(BUDGET_NANOS, TimeUnit.NANOSECONDS);
+                return true;
+            }
+        });
+        tasks.add(new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "indexes";
+            }
+
+            private List<String> indexes;
+            private int position;
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) {
+                if (indexes == null) {
+                    if (store.checkDatabase()) {
+                        return true;
+                    }
+                    indexes = store.indexNames();
+                    return indexes.isEmpty();
+                }
+                store.rebuildIndex(indexes.get(position++));
+                return position >= indexes.size();
+            }
+        });
+        tasks.add(new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "compact";
+            }
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) {
+                long before = store.databaseSpace()[0];
+                boolean more = store.compact(VACUUM_PAGES_PER_STEP);
+                result.bytesReclaimed += Math.max(0, before - store.databaseSpace()[0]);
+                return !more;
+            }
+        });
+        return tasks;
+    }
+
+    /**
+     * Deletes the recordings notes let go of once they are past the grace period. Skipped
+     * until the notes are migrated from AsyncStorage, as until then the store doesn't
+     * know which recordings notes use.
+     */
+    private static StorageMaintenance.Task recordingSweep(final Context context, final NoteStore store) {
+        final long cutoff = System.currentTimeMillis() - RELEASED_RECORDING_GRACE_MS;
+        return new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "recordings";
+            }
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) {
+                if (!store.isLegacyMigrated()) {
+                    return true;
+                }
+                long[] swept = store.deleteReleasedRecordings(context.getFilesDir(), cutoff, RECORDINGS_PER_STEP);
+                result.bytesReclaimed += swept[1];
+                return swept[0] < RECORDINGS_PER_STEP;
+            }
+        };
+    }
+
+    /**
+     * Deletes files left by re-encodes that never finished.
+     */
+    private static StorageMaintenance.Task transcodeSweep(Context context) {
+        final long cutoff = System.currentTimeMillis() - STALE_TRANSCODE_MS;
+        return new StorageMaintenance.FileSweep("transcodes", context.getFilesDir(),
+                new StorageMaintenance.FileSweep.Check() {
+                    @Override
+                    public boolean isOrphan(File file) {
+                        String name = file.getName();
+                        return name.startsWith(".sticky_note_") && name.endsWith(VoiceNotes.TRANSCODE_SUFFIX)
+                                && file.lastModified() < cutoff;
+                    }
+                });
+    }
+}
@@ -0,0 +1,537 @@
+package com.stickynotes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports every note, with its drawing and recording, into one {@link BackupArchive},
+ * and imports such an archive back.
+ *
+ * <p>Both directions stream: notes are read and written a page at a time, and drawing
+ * and audio files are copied between the store and the archive by the kernel, so memory
+ * use stays the same however many notes and recordings there are. An archive holds,
+ * in order:
+ * <ul>
+ * <li>{@code manifest}: format version, note count and creation time;</li>
+ * <li>per page, the {@code drawings/<hash>} and {@code audio/<name>} files its notes
+ * refer to, then {@code notes/<n>} with the notes as a {@link NoteLogEntry};</li>
+ * <li>{@code pins}: the widget pins, as a {@link NoteLogEntry}.</li>
+ * </ul>
+ *
+ * <p>An import commits a page at a time and records how far it got in its work
+ * directory, so an interrupted import resumes after the last page it committed instead
+ * of starting over. Importing a note is skipped when the store already has a version at
+ * least as recent, which also makes replaying a page harmless.
+ */
+final class NoteBackup {
+    /**
+     * What a backup reads from and imports into; implemented by {@link NoteStore}.
+     */
+    interface Store {
+        int noteCount();
+
+        /**
+         * Returns up to {@code limit} notes ordered by id, starting after {@code afterId},
+         * or from the first if it is null.
+         */
+        List<NoteRecord> notesAfter(String afterId, int limit);
+
+        WidgetPins getPins();
+
+        /**
+         * Returns the drawing's file, or null if there is no such drawing.
+         */
+        File drawingFile(String hash);
+
+        /**
+         * Keeps the drawing from being deleted as unused until {@link #importNotes} has
+         * saved the notes that refer to it, and returns whether the store has it already.
+         * Called before {@link #importDrawing}, so the drawing isn't collected between
+         * being stored and being referenced.
+         */
+        boolean reserveDrawing(String hash);
+
+        /**
+         * Stores the drawing copied into {@code file}, which it may move or delete.
+         *
+         * @throws IOException if the file's contents don't match {@code hash}
+         */
+        void importDrawing(String hash, File file) throws IOException;
+
+        /**
+         * Saves the notes that are newer than the store's own copies, durably. Of
+         * {@code copiedRecordings}, the recordings the import copied for these notes, those
+         * no saved note uses are released, as the notes that would have were skipped.
+         *
+         * @return how many were saved
+         */
+        int importNotes(List<NoteRecord> notes, Collection<String> copiedRecordings) throws IOException;
+
+        /**
+         * Pins the notes the store has and that aren't pinned yet, after the pinned ones.
+         */
+        void importPins(List<String> ids) throws IOException;
+    }
+
+    /**
+     * Told how far an export or import got, after every archive entry. {@code totalBytes}
+     * is -1 while exporting, as the archive's size isn't known until it is written.
+     */
+    interface Progress {
+        void onProgress(long bytes, long totalBytes, int notes, int totalNotes);
+    }
+
+    static final int PAGE_SIZE = 64;
+    // Keeps each page well below NoteWriteLog.MAX_RECORD_SIZE
+    static final int MAX_PAGE_BYTES = 1024 * 1024;
+
+    private static final String MANIFEST = "manifest";
+    private static final String PINS = "pins";
+    private static final String NOTES_PREFIX = "notes/";
+    private static final String DRAWINGS_PREFIX = "drawings/";
+    private static final String AUDIO_PREFIX = "audio/";
+
+    private static final int MAGIC = 0x534e424b; // "SNBK"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_NAME_LENGTH = 100;
+
+    private static final String STATE_FILE = "import.state";
+    private static final String STAGED_FILE = "staged.tmp";
+    private static final String PART_SUFFIX = ".part";
+
+    private NoteBackup() {
+    }
+
+    /**
+     * Writes every note in {@code store} to {@code archive}, replacing it. The archive
+     * only appears once it is complete. Notes saved while the export runs may or may
+     * not be included.
+     *
+     * @return how many notes were exported
+     */
+    static int export(Store store, File archive, Progress progress) throws IOException {
+        File part = new File(archive.getPath() + PART_SUFFIX);
+        int totalNotes = store.noteCount();
+        int exported = 0;
+        RandomAccessFile file = new RandomAccessFile(part, "rw");
+        try {
+            file.setLength(0);
+            BackupArchive.Writer writer = new BackupArchive.Writer(file.getChannel());
+            writer.putBytes(MANIFEST, manifest(totalNotes));
+
+            Set<String> pageFiles = new HashSet<>();
+            NoteLogEntry page = new NoteLogEntry();
+            int pages = 0;
+            String afterId = null;
+            List<NoteRecord> notes;
+            while (!(notes = store.notesAfter(afterId, PAGE_SIZE)).isEmpty()) {
+                for (NoteRecord note : notes) {
+                    afterId = note.id;
+                    putFiles(store, writer, note, pageFiles);
+                    page.upsert(note);
+                    exported++;
+                    if (page.byteSize() >= MAX_PAGE_BYTES) {
+                        writer.putBytes(NOTES_PREFIX + pages++, page.toByteArray());
+                        page = new NoteLogEntry();
+                        pageFiles.clear();
+                    }
+                    if (progress != null) {
+                        progress.onProgress(writer.position(), -1, exported, totalNotes);
+                    }
+                }
+                if (!page.isEmpty()) {
+                    writer.putBytes(NOTES_PREFIX + pages++, page.toByteArray());
+                    page = new NoteLogEntry();
+                    pageFiles.clear();
+                }
+            }
+
+            NoteLogEntry pins = new NoteLogEntry();
+            for (String id : store.getPins().ids()) {
+                pins.setPinned(id, true);
+            }
+            writer.putBytes(PINS, pins.toByteArray());
+            writer.finish();
+        } catch (IOException e) {
+            file.close();
+            part.delete();
+            throw e;
+        } finally {
+            file.close();
+        }
+        if (archive.exists() && !archive.delete()) {
+            part.delete();
+            throw new IOException("Could not replace " + archive);
+        }
+        if (!part.renameTo(archive)) {
+            part.delete();
+            throw new IOException("Could not write " + archive);
+        }
+        return exported;
+    }
+
+    /**
+     * Adds the note's drawing and recording to the archive, unless they already are in
+     * this page, and points the note at the archived copies. A drawing or recording whose
+     * file is gone is dropped from the note.
+     */
+    private static void putFiles(Store store, BackupArchive.Writer writer, NoteRecord note,
+            Set<String> pageFiles) throws IOException {
+        if (note.drawingHash != null) {
+            File drawing = store.drawingFile(note.drawingHash);
+            String name = DRAWINGS_PREFIX + note.drawingHash;
+            if (drawing == null) {
+                note.drawingHash = null;
+                note.drawingSize = 0;
+            } else if (pageFiles.add(name)) {
+                writer.putFile(name, drawing);
+            }
+        }
+        if (note.audioPath != null) {
+            File audio = audioFile(note.audioPath);
+            if (audio == null) {
+                note.audioPath = null;
+                return;
+            }
+            String name = audioEntryName(note.audioPath, audio);
+            if (pageFiles.add(name)) {
+                writer.putFile(name, audio);
+            }
+            note.audioPath = name;
+        }
+    }
+
+    private static File audioFile(String audioPath) {
+        String path = audioPath.startsWith("file://") ? audioPath.substring("file://".length()) : audioPath;
+        File file = new File(path);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Names the recording after its file, so an imported recording keeps the name the
+     * app derives its date from, falling back to a hash of its path if that is too long.
+     */
+    private static String audioEntryName(String audioPath, File audio) {
+        String name = AUDIO_PREFIX + audio.getName();
+        if (utf8Length(name) <= MAX_NAME_LENGTH) {
+            return name;
+        }
+        String fileName = audio.getName();
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot >= 0 && fileName.length() - dot <= 8 ? fileName.substring(dot) : "";
+        return AUDIO_PREFIX + "sticky_note_" + Long.toHexString(WidgetNote.stableId(audioPath)) + extension;
+    }
+
+    /**
+     * Imports {@code archive} into {@code store}, resuming an earlier import of the same
+     * archive that didn't finish. Recordings are copied into {@code audioDir};
+     * {@code workDir} holds the import's progress and files being copied, and should be
+     * on the same file system as the store and {@code audioDir}.
+     *
+     * @return how many notes were saved, over all runs of this import
+     * @throws IOException if the archive is corrupt or isn't a backup
+     */
+    static int importArchive(Store store, File archive, File audioDir, File workDir, Progress progress)
+            throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Could not create " + workDir);
+        }
+        File stateFile = new File(workDir, STATE_FILE);
+        ImportState state = ImportState.read(stateFile, archive);
+        File staged = new File(workDir, STAGED_FILE);
+
+        FileInputStream in = new FileInputStream(archive);
+        try {
+            FileChannel channel = in.getChannel();
+            long totalBytes = channel.size();
+            BackupArchive.Reader reader = new BackupArchive.Reader(channel, state.offset);
+            if (state.offset == 0) {
+                BackupArchive.Entry manifest = reader.next();
+                if (manifest == null || !MANIFEST.equals(manifest.name)) {
+                    throw new IOException("Not a notes backup: " + archive);
+                }
+                state.totalNotes = readManifest(reader.readBytes(manifest, BackupArchive.BLOCK_SIZE));
+            }
+
+            // Where this page's recordings are, by archive name, and which of them were copied
+            Map<String, String> pageAudio = new HashMap<>();
+            List<String> pageCopies = new ArrayList<>();
+            BackupArchive.Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (entry.name.startsWith(DRAWINGS_PREFIX)) {
+                    String hash = entry.name.substring(DRAWINGS_PREFIX.length());
+                    if (!isHash(hash)) {
+                        throw new IOException("Invalid archive entry " + entry.name);
+                    }
+                    if (!store.reserveDrawing(hash)) {
+                        copy(reader, entry, staged);
+                        store.importDrawing(hash, staged);
+                    }
+                } else if (entry.name.startsWith(AUDIO_PREFIX)) {
+                    File audio = importAudio(reader, entry, audioDir, staged, pageCopies);
+                    pageAudio.put(entry.name, audio.getPath());
+                } else if (entry.name.startsWith(NOTES_PREFIX)) {
+                    List<NoteRecord> notes = readNotes(reader.readBytes(entry, NoteWriteLog.MAX_RECORD_SIZE));
+                    for (NoteRecord note : notes) {
+                        if (note.audioPath != null) {
+                            note.audioPath = pageAudio.get(note.audioPath);
+                        }
+                    }
+                    state.imported += store.importNotes(notes, pageCopies);
+                    state.notes += notes.size();
+                    pageAudio.clear();
+                    pageCopies.clear();
+                    state.commit(stateFile, entry.end());
+                } else if (PINS.equals(entry.name)) {
+                    store.importPins(readPins(reader.readBytes(entry, NoteWriteLog.MAX_RECORD_SIZE)));
+                    state.commit(stateFile, entry.end());
+                }
+                // Anything else is from a newer format and skipped
+                if (progress != null) {
+                    progress.onProgress(entry.end(), totalBytes, state.notes, state.totalNotes);
+                }
+            }
+        } finally {
+            in.close();
+            staged.delete();
+        }
+        stateFile.delete();
+        return state.imported;
+    }
+
+    /**
+     * Copies a recording into {@code audioDir} under its archived name, adding its path to
+     * {@code copies}. A file already there with the same contents is this recording,
+     * imported before, and is used as it is; any other file with that name gets a
+     * numbered sibling.
+     */
+    private static File importAudio(BackupArchive.Reader reader, BackupArchive.Entry entry, File audioDir,
+            File staged, List<String> copies) throws IOException {
+        String name = entry.name.substring(AUDIO_PREFIX.length());
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.equals(".") || name.equals("..")) {
+            throw new IOException("Invalid archive entry " + entry.name);
+        }
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+
+        File target = new File(audioDir, name);
+        for (int n = 1; target.exists(); n++) {
+            if (reader.contentEquals(entry, target)) {
+                return target;
+            }
+            target = new File(audioDir, base + "-" + n + extension);
+        }
+        copy(reader, entry, staged);
+        if (!audioDir.isDirectory() && !audioDir.mkdirs()) {
+            throw new IOException("Could not create " + audioDir);
+        }
+        if (!staged.renameTo(target)) {
+            throw new IOException("Could not import " + target);
+        }
+        copies.add(target.getPath());
+        return target;
+    }
+
+    /**
+     * Copies the entry into {@code staged} and syncs it, so it can be renamed into place.
+     */
+    private static void copy(BackupArchive.Reader reader, BackupArchive.Entry entry, File staged)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(staged);
+        try {
+            reader.copyTo(entry, out.getChannel());
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] manifest(int noteCount) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(noteCount);
+            out.writeLong(System.currentTimeMillis());
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the note count from the manifest.
+     */
+    private static int readManifest(byte[] manifest) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest));
+        if (manifest.length < 12 || in.readInt() != MAGIC) {
+            throw new IOException("Not a notes backup");
+        }
+        int version = in.readInt();
+        if (version > FORMAT_VERSION) {
+            throw new IOException("Backup format " + version + " is newer than this app supports");
+        }
+        return in.readInt();
+    }
+
+    private static List<NoteRecord> readNotes(byte[] page) throws IOException {
+        final List<NoteRecord> notes = new ArrayList<>();
+        NoteLogEntry.replay(page, new NoteLogEntry.Target() {
+            @Override
+            public void upsert(NoteRecord note) {
+                notes.add(note);
+            }
+
+            @Override
+            public void delete(String id) {
+            }
+
+            @Override
+            public void setPinned(String id, boolean pinned) {
+            }
+        });
+        return notes;
+    }
+
+    private static List<String> readPins(byte[] pins) throws IOException {
+        final List<String> ids = new ArrayList<>();
+        NoteLogEntry.replay(pins, new NoteLogEntry.Target() {
+            @Override
+            public void upsert(NoteRecord note) {
+            }
+
+            @Override
+            public void delete(String id) {
+            }
+
+            @Override
+            public void setPinned(String id, boolean pinned) {
+                if (pinned) {
+                    ids.add(id);
+                }
+            }
+        });
+        return ids;
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * How far an import got: the archive it was reading, identified by path, size and
+     * modification time, and the offset of the first entry it hasn't committed.
+     */
+    private static final class ImportState {
+        private final File archive;
+        long offset;
+        int notes;
+        int imported;
+        int totalNotes;
+
+        private ImportState(File archive) {
+            this.archive = archive;
+        }
+
+        /**
+         * Returns the saved state if it is for this archive, or a fresh one.
+         */
+        static ImportState read(File stateFile, File archive) {
+            ImportState state = new ImportState(archive);
+            if (!stateFile.exists()) {
+                return state;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(stateFile));
+                try {
+                    if (in.readUTF().equals(archive.getAbsolutePath())
+                            && in.readLong() == archive.length()
+                            && in.readLong() == archive.lastModified()) {
+                        state.offset = in.readLong();
+                        state.notes = in.readInt();
+                        state.imported = in.readInt();
+                        state.totalNotes = in.readInt();
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // Unreadable, most likely torn by a crash; start over, which is harmless
+                state.offset = 0;
+                state.notes = 0;
+                state.imported = 0;
+            }
+            return state;
+        }
+
+        /**
+         * Records that everything before {@code offset} is imported. Not synced: losing
+         * it only means importing some pages again.
+         */
+        void commit(File stateFile, long offset) throws IOException {
+            this.offset = offset;
+            File temp = new File(stateFile.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeUTF(archive.getAbsolutePath());
+                out.writeLong(archive.length());
+                out.writeLong(archive.lastModified());
+                out.writeLong(offset);
+                out.writeInt(notes);
+                out.writeInt(imported);
+                out.writeInt(totalNotes);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(stateFile)) {
+                temp.delete();
+                throw new IOException("Could not save import progress");
+            }
+        }
+    }
+}
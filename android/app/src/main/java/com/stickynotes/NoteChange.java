@@ -0,0 +1,24 @@
+package com.stickynotes;
+
+/**
+ * One entry of the {@link NoteStore} change journal.
+ */
+final class NoteChange {
+    static final int OP_UPSERT = 1;
+    static final int OP_DELETE = 2;
+
+    final long version;
+    final String noteId;
+    final int op;
+
+    NoteChange(long version, String noteId, int op) {
+        this.version = version;
+        this.noteId = noteId;
+        this.op = op;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteChange{version=" + version + ", noteId='" + noteId + "', op=" + op + "}";
+    }
+}
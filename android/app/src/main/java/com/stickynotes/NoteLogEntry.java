@@ -0,0 +1,163 @@
+package com.stickynotes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The writes of one {@link NoteStore} transaction, encoded as a single
+ * {@link NoteWriteLog} record so recovery replays all of them or none.
+ *
+ * <p>Saves are logged as the row that was written, with the drawing by hash: its blob
+ * is already on disk before the note refers to it, so the log never carries drawing data.
+ * Every operation sets the full state of one note or pin, so replaying a record over a
+ * store that already has it changes nothing.
+ */
+final class NoteLogEntry {
+    /**
+     * Applies replayed operations.
+     */
+    interface Target {
+        void upsert(NoteRecord note);
+
+        void delete(String id);
+
+        void setPinned(String id, boolean pinned);
+    }
+
+    private static final byte OP_UPSERT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_PIN = 3;
+    private static final byte OP_UNPIN = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private int size;
+
+    /**
+     * Logs a note as written; call it after the write, once the drawing has a hash.
+     */
+    NoteLogEntry upsert(NoteRecord note) {
+        try {
+            out.writeByte(OP_UPSERT);
+            writeString(out, note.id);
+            writeString(out, note.title);
+            writeString(out, note.content);
+            writeString(out, note.drawingHash);
+            out.writeLong(note.drawingSize);
+            writeString(out, note.audioPath);
+            out.writeLong(note.createdAt);
+            out.writeLong(note.updatedAt);
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+        size++;
+        return this;
+    }
+
+    NoteLogEntry delete(String id) {
+        return op(OP_DELETE, id);
+    }
+
+    NoteLogEntry setPinned(String id, boolean pinned) {
+        return op(pinned ? OP_PIN : OP_UNPIN, id);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the size of the encoded entry, in bytes.
+     */
+    int byteSize() {
+        return bytes.size();
+    }
+
+    byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies the operations in a record made by {@link #toByteArray}, in order.
+     *
+     * @throws IOException if the record isn't a valid entry
+     */
+    static void replay(byte[] record, Target target) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            switch (op) {
+                case OP_UPSERT:
+                    NoteRecord note = new NoteRecord();
+                    note.id = readString(in);
+                    note.title = readString(in);
+                    note.content = readString(in);
+                    note.drawingHash = readString(in);
+                    note.drawingSize = in.readLong();
+                    note.audioPath = readString(in);
+                    note.createdAt = in.readLong();
+                    note.updatedAt = in.readLong();
+                    target.upsert(note);
+                    break;
+                case OP_DELETE:
+                    target.delete(readString(in));
+                    break;
+                case OP_PIN:
+                case OP_UNPIN:
+                    target.setPinned(readString(in), op == OP_PIN);
+                    break;
+                default:
+                    throw new IOException("Unknown log operation " + op);
+            }
+        }
+    }
+
+    private NoteLogEntry op(byte op, String id) {
+        try {
+            out.writeByte(op);
+            writeString(out, id);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        size++;
+        return this;
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string, or -1 for null. Unlike writeUTF this isn't
+     * limited to 64KB, which long note contents can exceed.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Truncated log entry");
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, UTF_8);
+    }
+}
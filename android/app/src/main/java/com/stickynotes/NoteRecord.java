@@ -0,0 +1,26 @@
+package com.stickynotes;
+
+/**
+ * One note as stored by {@link NoteStore}. Mirrors the JS {@code Note} interface in
+ * src/utils/noteUtils.ts.
+ */
+final class NoteRecord {
+    String id;
+    String title;
+    String content;
+    /**
+     * A new drawing to store on the next write. Null when reading; the stored drawing is
+     * only referenced by {@link #drawingHash} and loaded on demand.
+     */
+    String drawingPaths;
+    String drawingHash;
+    long drawingSize;
+    String audioPath;
+    long createdAt;
+    long updatedAt;
+
+    @Override
+    public String toString() {
+        return "NoteRecord{id='" + id + "', title='" + title + "', updatedAt=" + updatedAt + "}";
+    }
+}
@@ -0,0 +1,71 @@
+package com.stickynotes;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * Keeps a {@link NoteSearchIndex} in step with {@link NoteStore} by following its change
+ * journal, the same way the widget does. The index is built on the first search, so
+ * nothing is spent on it for users who never search, and after that each write only
+ * re-indexes the note it touched.
+ */
+final class NoteSearch {
+    private static NoteSearch instance;
+
+    private final NoteStore store;
+    private final NoteSearchIndex index = new NoteSearchIndex();
+    // Journal version the index reflects, or -1 before the first build
+    private long journalVersion = -1;
+
+    static synchronized NoteSearch getInstance(Context context) {
+        if (instance == null) {
+            instance = new NoteSearch(NoteStore.getInstance(context));
+        }
+        return instance;
+    }
+
+    private NoteSearch(NoteStore store) {
+        this.store = store;
+    }
+
+    synchronized NoteSearchIndex.Page search(String query, int offset, int limit) {
+        catchUp();
+        return index.search(query, offset, limit);
+    }
+
+    /**
+     * Applies the writes made since the last search, if the index has been built yet.
+     */
+    synchronized void update() {
+        if (journalVersion >= 0) {
+            catchUp();
+        }
+    }
+
+    private void catchUp() {
+        List<NoteChange> changes = journalVersion >= 0 ? store.changesSince(journalVersion) : null;
+        if (changes == null) {
+            // Read the version first: anything written during the rebuild is replayed next time
+            long version = store.getJournalVersion();
+            index.clear();
+            for (NoteRecord note : store.getAllText()) {
+                index.put(note.id, note.title, note.content, note.updatedAt);
+            }
+            journalVersion = version;
+            return;
+        }
+
+        for (NoteChange change : changes) {
+            NoteRecord note = change.op == NoteChange.OP_DELETE ? null : store.getText(change.noteId);
+            if (note != null) {
+                index.put(note.id, note.title, note.content, note.updatedAt);
+            } else {
+                index.remove(change.noteId);
+            }
+        }
+        if (!changes.isEmpty()) {
+            journalVersion = changes.get(changes.size() - 1).version;
+        }
+    }
+}
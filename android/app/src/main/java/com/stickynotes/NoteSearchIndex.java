@@ -0,0 +1,493 @@
+package com.stickynotes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over note titles and content.
+ *
+ * <p>Text is split into lowercase runs of letters and digits. Each term maps to a posting
+ * list of the notes containing it, weighted by how often it occurs, with title hits
+ * counting {@link #TITLE_WEIGHT} times. A query matches notes containing every query
+ * term, where the last term also matches as a prefix so results follow typing. Matches
+ * are ranked by BM25, then by most recent update.
+ *
+ * <p>Updates are incremental: re-indexing or removing a note only marks its old postings
+ * dead, and the postings are rewritten once dead entries outnumber live ones. Kept free
+ * of Android classes so it can be tested and benchmarked on a plain JVM.
+ */
+final class NoteSearchIndex {
+    static final float TITLE_WEIGHT = 3f;
+    // Shorter last terms only match whole words, a one-letter prefix matches almost everything
+    static final int MIN_PREFIX_LENGTH = 2;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    /**
+     * One ranked match.
+     */
+    static final class Hit {
+        final String id;
+        final float score;
+
+        Hit(String id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * One page of matches, and how many notes matched in total.
+     */
+    static final class Page {
+        static final Page EMPTY = new Page(0, Collections.<Hit>emptyList());
+
+        final int total;
+        final List<Hit> hits;
+
+        Page(int total, List<Hit> hits) {
+            this.total = total;
+            this.hits = hits;
+        }
+    }
+
+    private static final class Doc {
+        final String id;
+        final long updatedAt;
+        final String[] terms;
+        final float[] weights;
+        final float length;
+
+        Doc(String id, long updatedAt, String[] terms, float[] weights, float length) {
+            this.id = id;
+            this.updatedAt = updatedAt;
+            this.terms = terms;
+            this.weights = weights;
+            this.length = length;
+        }
+    }
+
+    private static final class Postings {
+        int[] docs = new int[4];
+        float[] weights = new float[4];
+        int size;
+        int live;
+
+        void add(int doc, float weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+            live++;
+        }
+    }
+
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+    private Doc[] docs = new Doc[64];
+    private int docCount;
+    private int deadEntries;
+    private int liveEntries;
+    private double totalLength;
+
+    // Per-query scratch, indexed by doc number; stamp says which query wrote an entry
+    private int[] stamps = new int[64];
+    private int[] matched = new int[64];
+    private float[] scores = new float[64];
+    private int query;
+
+    /**
+     * Indexes the note, replacing what was indexed for it before.
+     */
+    synchronized void put(String id, String title, String content, long updatedAt) {
+        remove(id);
+
+        Map<String, float[]> counts = new HashMap<>();
+        float length = count(title, TITLE_WEIGHT, counts) + count(content, 1f, counts);
+        String[] terms = new String[counts.size()];
+        float[] weights = new float[counts.size()];
+        int i = 0;
+        for (Map.Entry<String, float[]> entry : counts.entrySet()) {
+            terms[i] = entry.getKey();
+            weights[i] = entry.getValue()[0];
+            i++;
+        }
+        add(new Doc(id, updatedAt, terms, weights, length));
+    }
+
+    /**
+     * Drops the note from the index. Returns false if it wasn't indexed.
+     */
+    synchronized boolean remove(String id) {
+        Integer number = docNumbers.remove(id);
+        if (number == null) {
+            return false;
+        }
+        Doc doc = docs[number];
+        docs[number] = null;
+        for (String term : doc.terms) {
+            Postings list = postings.get(term);
+            if (--list.live == 0) {
+                deadEntries -= list.size - 1;
+                postings.remove(term);
+            } else {
+                deadEntries++;
+            }
+        }
+        liveEntries -= doc.terms.length;
+        totalLength -= doc.length;
+        if (deadEntries > liveEntries && deadEntries > 1024) {
+            compact();
+        }
+        return true;
+    }
+
+    synchronized void clear() {
+        postings.clear();
+        docNumbers.clear();
+        docs = new Doc[64];
+        docCount = 0;
+        deadEntries = 0;
+        liveEntries = 0;
+        totalLength = 0;
+        stamps = new int[docs.length];
+        matched = new int[docs.length];
+        scores = new float[docs.length];
+    }
+
+    synchronized int size() {
+        return docNumbers.size();
+    }
+
+    /**
+     * Returns the matches for {@code text} from {@code offset}, at most {@code limit} of
+     * them, best first.
+     */
+    synchronized Page search(String text, int offset, int limit) {
+        List<String> terms = terms(text);
+        if (terms.isEmpty() || limit <= 0 || offset < 0) {
+            return Page.EMPTY;
+        }
+
+        // Each query term expands to one or more posting lists
+        int termCount = terms.size();
+        List<List<Postings>> matches = new ArrayList<>(termCount);
+        int[] order = new int[termCount];
+        long[] sizes = new long[termCount];
+        for (int t = 0; t < termCount; t++) {
+            List<Postings> lists = lookup(terms.get(t), t == termCount - 1);
+            if (lists.isEmpty()) {
+                return Page.EMPTY;
+            }
+            matches.add(lists);
+            for (Postings list : lists) {
+                sizes[t] += list.live;
+            }
+            order[t] = t;
+        }
+        // Start from the rarest term so as few notes as possible get scored
+        sortBy(order, sizes);
+
+        if (++query == 0) {
+            Arrays.fill(stamps, 0);
+            query = 1;
+        }
+        float averageLength = (float) (totalLength / Math.max(1, docNumbers.size()));
+        int[] candidates = new int[(int) Math.min(sizes[order[0]], docCount)];
+        int candidateCount = 0;
+        for (int k = 0; k < termCount; k++) {
+            List<Postings> lists = matches.get(order[k]);
+            for (Postings list : lists) {
+                float idf = idf(list.live);
+                for (int p = 0; p < list.size; p++) {
+                    int d = list.docs[p];
+                    Doc doc = docs[d];
+                    if (doc == null) {
+                        continue;
+                    }
+                    if (k == 0 && stamps[d] != query) {
+                        stamps[d] = query;
+                        matched[d] = 0;
+                        scores[d] = 0;
+                    } else if (stamps[d] != query || matched[d] < k) {
+                        continue;
+                    }
+                    if (matched[d] == k) {
+                        matched[d] = k + 1;
+                        if (k == termCount - 1) {
+                            candidates[candidateCount++] = d;
+                        }
+                    }
+                    float w = list.weights[p];
+                    scores[d] += idf * w * (K1 + 1) / (w + K1 * (1 - B + B * doc.length / averageLength));
+                }
+            }
+        }
+
+        if (offset >= candidateCount) {
+            return new Page(candidateCount, Collections.<Hit>emptyList());
+        }
+        int wanted = (int) Math.min((long) offset + limit, candidateCount);
+        int[] top = topK(candidates, candidateCount, wanted);
+        List<Hit> hits = new ArrayList<>(wanted - offset);
+        for (int i = offset; i < wanted; i++) {
+            hits.add(new Hit(docs[top[i]].id, scores[top[i]]));
+        }
+        return new Page(candidateCount, hits);
+    }
+
+    /**
+     * Returns where the terms of {@code query} occur in {@code text}, as start and end
+     * offsets in chars, flattened into one array of pairs. At most {@code max} pairs are
+     * returned.
+     */
+    static int[] highlights(String text, String query, int max) {
+        List<String> terms = terms(query);
+        if (text == null || terms.isEmpty() || max <= 0) {
+            return new int[0];
+        }
+        String last = terms.get(terms.size() - 1);
+        boolean prefix = last.length() >= MIN_PREFIX_LENGTH;
+
+        int[] ranges = new int[Math.min(max, 16) * 2];
+        int count = 0;
+        Tokenizer tokens = new Tokenizer(text);
+        while (count < max && tokens.next()) {
+            String term = tokens.term;
+            if (terms.contains(term) || (prefix && term.startsWith(last))) {
+                if (count * 2 == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                }
+                ranges[count * 2] = tokens.start;
+                ranges[count * 2 + 1] = tokens.end;
+                count++;
+            }
+        }
+        return Arrays.copyOf(ranges, count * 2);
+    }
+
+    /**
+     * Splits a query into its distinct terms, keeping their order.
+     */
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        Tokenizer tokens = new Tokenizer(text);
+        while (tokens.next()) {
+            if (!terms.contains(tokens.term)) {
+                terms.add(tokens.term);
+            }
+        }
+        return terms;
+    }
+
+    private List<Postings> lookup(String term, boolean last) {
+        if (!last || term.length() < MIN_PREFIX_LENGTH) {
+            Postings list = postings.get(term);
+            return list != null ? Collections.singletonList(list) : Collections.<Postings>emptyList();
+        }
+        SortedMap<String, Postings> range = postings.subMap(term, term + Character.MAX_VALUE);
+        return new ArrayList<>(range.values());
+    }
+
+    private float idf(int documentFrequency) {
+        int n = docNumbers.size();
+        return (float) Math.log(1 + (n - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    /**
+     * Returns the best {@code k} of the candidates, best first, using a bounded heap
+     * whose root is the worst of those kept.
+     */
+    private int[] topK(int[] candidates, int count, int k) {
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int d = candidates[i];
+            if (size < k) {
+                heap[size] = d;
+                siftUp(heap, size++);
+            } else if (better(d, heap[0])) {
+                heap[0] = d;
+                siftDown(heap, size);
+            }
+        }
+        // Pop worst first into the back of the array
+        for (int end = size - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end);
+        }
+        return heap;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!better(heap[parent], heap[i])) {
+                return;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && better(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!better(heap[i], heap[child])) {
+                return;
+            }
+            swap(heap, i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Whether doc {@code a} ranks above doc {@code b}.
+     */
+    private boolean better(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        Doc docA = docs[a];
+        Doc docB = docs[b];
+        if (docA.updatedAt != docB.updatedAt) {
+            return docA.updatedAt > docB.updatedAt;
+        }
+        return docA.id.compareTo(docB.id) < 0;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    private static void sortBy(int[] order, long[] keys) {
+        // Queries have a handful of terms, insertion sort is plenty
+        for (int i = 1; i < order.length; i++) {
+            int value = order[i];
+            int j = i - 1;
+            while (j >= 0 && keys[order[j]] > keys[value]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = value;
+        }
+    }
+
+    private void add(Doc doc) {
+        if (docCount == docs.length) {
+            int capacity = docs.length * 2;
+            docs = Arrays.copyOf(docs, capacity);
+            stamps = Arrays.copyOf(stamps, capacity);
+            matched = Arrays.copyOf(matched, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+        }
+        int number = docCount++;
+        docs[number] = doc;
+        docNumbers.put(doc.id, number);
+        for (int i = 0; i < doc.terms.length; i++) {
+            Postings list = postings.get(doc.terms[i]);
+            if (list == null) {
+                list = new Postings();
+                postings.put(doc.terms[i], list);
+            }
+            list.add(number, doc.weights[i]);
+        }
+        liveEntries += doc.terms.length;
+        totalLength += doc.length;
+    }
+
+    /**
+     * Renumbers the live notes densely and rewrites every posting list without the dead
+     * entries.
+     */
+    private void compact() {
+        Doc[] live = new Doc[docNumbers.size()];
+        int n = 0;
+        for (int i = 0; i < docCount; i++) {
+            if (docs[i] != null) {
+                live[n++] = docs[i];
+            }
+        }
+        clear();
+        for (Doc doc : live) {
+            add(doc);
+        }
+    }
+
+    private static float count(String text, float weight, Map<String, float[]> counts) {
+        if (text == null) {
+            return 0;
+        }
+        float length = 0;
+        Tokenizer tokens = new Tokenizer(text);
+        while (tokens.next()) {
+            float[] count = counts.get(tokens.term);
+            if (count == null) {
+                counts.put(tokens.term, new float[]{weight});
+            } else {
+                count[0] += weight;
+            }
+            length += weight;
+        }
+        return length;
+    }
+
+    /**
+     * Walks the lowercase runs of letters and digits in a string.
+     */
+    private static final class Tokenizer {
+        private final String text;
+        private final StringBuilder sb = new StringBuilder(16);
+        private int position;
+        int start;
+        int end;
+        String term;
+
+        Tokenizer(String text) {
+            this.text = text;
+        }
+
+        boolean next() {
+            int length = text.length();
+            while (position < length && !Character.isLetterOrDigit(text.charAt(position))) {
+                position++;
+            }
+            if (position == length) {
+                return false;
+            }
+            start = position;
+            sb.setLength(0);
+            while (position < length && Character.isLetterOrDigit(text.charAt(position))) {
+                sb.append(Character.toLowerCase(text.charAt(position)));
+                position++;
+            }
+            end = position;
+            term = sb.toString();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,1365 @@
+package com.stickynotes;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Native note store. Keeps one row per note keyed by id, with an index on updatedAt,
+ * so saving or deleting a note touches a single row instead of rewriting the whole
+ * {@code @sticky_notes} array.
+ *
+ * <p>Every write also appends to a change journal in the same transaction, so readers
+ * such as the widget can catch up with {@link #changesSince} instead of reloading
+ * everything. Only the newest {@link #JOURNAL_RETAINED} entries are kept; a reader that
+ * falls further behind than that has to reload from scratch.
+ *
+ * <p>Drawings are kept out of the notes table in a {@link DrawingBlobStore}; a note row
+ * only holds its drawing's hash and size, and a reference count per blob lets
+ * {@link #takeReleasedDrawings} and {@link #collectGarbage} find drawings no note uses
+ * any more. A backup import stores a page's drawings before the notes that refer to
+ * them, so it reserves them until those notes are saved.
+ *
+ * <p>Recordings are the user's files, so they are never collected just because no note
+ * uses them. Instead, when a delete or a save lets go of a recording, its path is kept
+ * with the time, and {@link #deleteReleasedRecordings} only ever deletes those.
+ *
+ * <p>The notes pinned to the widget live here too, once they have been imported from
+ * {@code @sticky_notes_widget}, so a batch can pin notes in the same transaction that
+ * saves them.
+ *
+ * <p>SQLite commits don't sync; callers make a write durable by running it through
+ * {@link #runLogged}, which shares one sync between the writes of the next few
+ * milliseconds. The log is replayed when the store is opened, and emptied once a
+ * checkpoint has synced the database.
+ */
+public class NoteStore extends SQLiteOpenHelper implements WidgetNoteModel.Source, NoteBackup.Store {
+    private static final String DATABASE_NAME = "sticky_notes.db";
+    private static final int DATABASE_VERSION = 6;
+
+    static final String TABLE_NOTES = "notes";
+    static final String TABLE_META = "meta";
+    static final String TABLE_CHANGES = "note_changes";
+    static final String TABLE_PINS = "widget_pins";
+    static final String TABLE_BLOBS = "drawing_blobs";
+    static final String TABLE_RELEASED_RECORDINGS = "released_recordings";
+
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_CONTENT = "content";
+    // Inline drawings from before schema v5; always null since
+    static final String COLUMN_DRAWING_PATHS = "drawing_paths";
+    static final String COLUMN_DRAWING_HASH = "drawing_hash";
+    static final String COLUMN_DRAWING_SIZE = "drawing_size";
+    static final String COLUMN_AUDIO_PATH = "audio_path";
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_UPDATED_AT = "updated_at";
+
+    private static final String META_LEGACY_MIGRATED = "legacy_migrated";
+    private static final String META_JOURNAL_FLOOR = "journal_floor";
+    private static final String META_PINS_MIGRATED = "pins_migrated";
+
+    static final int JOURNAL_RETAINED = 256;
+    private static final int JOURNAL_COMPACT_INTERVAL = 64;
+
+    private static final String DRAWINGS_DIR = "drawings";
+    private static final String WRITE_LOG_FILE = "note_writes.log";
+    private static final long GROUP_COMMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long CHECKPOINT_SIZE = 256 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+    private static final int GARBAGE_BATCH_SIZE = 64;
+
+    // Most recent first, as idx_notes_listing and WidgetNoteModel.MOST_RECENT_FIRST order them
+    private static final String LISTING_ORDER = COLUMN_UPDATED_AT + " DESC, " + COLUMN_ID;
+
+    private static final String[] ALL_COLUMNS = {
+            COLUMN_ID, COLUMN_TITLE, COLUMN_CONTENT, COLUMN_DRAWING_HASH, COLUMN_DRAWING_SIZE,
+            COLUMN_AUDIO_PATH, COLUMN_CREATED_AT, COLUMN_UPDATED_AT
+    };
+
+    private static NoteStore instance;
+
+    public static synchronized NoteStore getInstance(Context context) {
+        if (instance == null) {
+            NoteStore store = new NoteStore(context.getApplicationContext());
+            store.recoverWrites();
+            instance = store;
+        }
+        return instance;
+    }
+
+    private final DrawingBlobStore blobs;
+    private final File writeLogFile;
+    private final NoteWriteLog writeLog;
+    // Held from a logged write's commit until its record is queued, so the log holds
+    // writes in the order they committed
+    private final Object logOrderLock = new Object();
+    // Drawings a backup import has stored or found for notes it hasn't saved yet, which
+    // garbage collection has to leave alone; also the lock for checking it and deleting
+    private final Set<String> reservedDrawings = new HashSet<>();
+
+    private NoteStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.blobs = new DrawingBlobStore(new File(context.getFilesDir(), DRAWINGS_DIR));
+        // The widget reads while the app writes, so let readers run alongside the writer
+        setWriteAheadLoggingEnabled(true);
+        this.writeLogFile = new File(context.getFilesDir(), WRITE_LOG_FILE);
+        try {
+            this.writeLog = new NoteWriteLog(writeLogFile,
+                    new NoteWriteLog.Checkpointer() {
+                        @Override
+                        public boolean checkpoint() {
+                            return checkpointDatabase();
+                        }
+                    }, GROUP_COMMIT_NANOS, CHECKPOINT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Commits only reach the OS; the write log is what makes them durable
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // Only takes on a new database, before its first table; see compact
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NOTES + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_TITLE + " TEXT NOT NULL DEFAULT '', "
+                + COLUMN_CONTENT + " TEXT NOT NULL DEFAULT '', "
+                + COLUMN_DRAWING_PATHS + " TEXT, "
+                + COLUMN_DRAWING_HASH + " TEXT, "
+                + COLUMN_DRAWING_SIZE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_AUDIO_PATH + " TEXT, "
+                + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                + COLUMN_UPDATED_AT + " INTEGER NOT NULL)");
+        createListingIndex(db);
+        db.execSQL("CREATE TABLE " + TABLE_META + " (key TEXT PRIMARY KEY NOT NULL, value TEXT)");
+        createChangesTable(db);
+        createPinsTable(db);
+        createBlobsTable(db);
+        createReleasedRecordingsTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createChangesTable(db);
+        }
+        if (oldVersion < 3) {
+            createPinsTable(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL("DROP INDEX IF EXISTS idx_notes_updated_at");
+            createListingIndex(db);
+            db.execSQL("UPDATE " + TABLE_NOTES + " SET " + COLUMN_DRAWING_PATHS + " = NULL WHERE "
+                    + COLUMN_DRAWING_PATHS + " = ''");
+            db.execSQL("UPDATE " + TABLE_NOTES + " SET " + COLUMN_AUDIO_PATH + " = NULL WHERE "
+                    + COLUMN_AUDIO_PATH + " = ''");
+        }
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_DRAWING_HASH + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_DRAWING_SIZE
+                    + " INTEGER NOT NULL DEFAULT 0");
+            createBlobsTable(db);
+            moveDrawingsToBlobs(db);
+        }
+        if (oldVersion < 6) {
+            createReleasedRecordingsTable(db);
+        }
+    }
+
+    private static void createBlobsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BLOBS + " ("
+                + "hash TEXT PRIMARY KEY NOT NULL, "
+                + "size INTEGER NOT NULL, "
+                + "refs INTEGER NOT NULL)");
+    }
+
+    private static void createReleasedRecordingsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_RELEASED_RECORDINGS + " ("
+                + "path TEXT PRIMARY KEY NOT NULL, "
+                + "released_at INTEGER NOT NULL)");
+    }
+
+    /**
+     * Moves the inline drawings of notes written before schema v5 into the blob store,
+     * one note at a time so only one drawing is in memory.
+     */
+    private void moveDrawingsToBlobs(SQLiteDatabase db) {
+        List<String> ids = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{COLUMN_ID},
+                COLUMN_DRAWING_PATHS + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String id : ids) {
+            cursor = db.query(TABLE_NOTES, new String[]{COLUMN_DRAWING_PATHS},
+                    COLUMN_ID + " = ?", new String[]{id}, null, null, null);
+            String drawing;
+            try {
+                drawing = cursor.moveToFirst() ? cursor.getString(0) : null;
+            } finally {
+                cursor.close();
+            }
+            ContentValues values = new ContentValues();
+            values.putNull(COLUMN_DRAWING_PATHS);
+            if (drawing != null && !drawing.isEmpty()) {
+                byte[] data = drawing.getBytes(UTF_8);
+                String hash = storeBlob(data);
+                retainBlob(db, hash, data.length);
+                values.put(COLUMN_DRAWING_HASH, hash);
+                values.put(COLUMN_DRAWING_SIZE, data.length);
+            }
+            db.update(TABLE_NOTES, values, COLUMN_ID + " = ?", new String[]{id});
+        }
+    }
+
+    /**
+     * Orders notes the way they are listed, most recent first with ties broken by id, so
+     * every listing page is a single index range scan.
+     */
+    private static void createListingIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_notes_listing ON " + TABLE_NOTES
+                + " (" + COLUMN_UPDATED_AT + " DESC, " + COLUMN_ID + ")");
+    }
+
+    private static void createChangesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CHANGES + " ("
+                + "version INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "note_id TEXT NOT NULL, "
+                + "op INTEGER NOT NULL)");
+    }
+
+    private static void createPinsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PINS + " ("
+                + "note_id TEXT PRIMARY KEY NOT NULL, "
+                + "position INTEGER NOT NULL)");
+    }
+
+    /**
+     * Runs {@code body} in one transaction. The writes it makes through this store join
+     * that transaction, so either all of them are committed or, if {@code body} throws,
+     * none are.
+     */
+    public void runInTransaction(Runnable body) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            body.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Runs {@code body} in one transaction, like {@link #runInTransaction}, then makes the
+     * writes it added to {@code writes} durable. {@code callback} is called on the log's
+     * thread once they are on disk; until then a crash may undo them. If {@code body}
+     * throws, or adds nothing to {@code writes}, nothing is logged and {@code callback}
+     * is never called. Must not be called inside another transaction.
+     *
+     * <p>The log is replayed on every start, so its records have to be in commit order:
+     * otherwise two saves of a note from different threads could be logged the other way
+     * round, and replaying them would put back the older one.
+     */
+    public void runLogged(Runnable body, NoteLogEntry writes, NoteWriteLog.Callback callback) {
+        synchronized (logOrderLock) {
+            runInTransaction(body);
+            if (!writes.isEmpty()) {
+                writeLog.append(writes.toByteArray(), callback);
+            }
+        }
+    }
+
+    /**
+     * Replays the writes logged by a previous run that the database may not have synced,
+     * then checkpoints so the log can start empty.
+     */
+    private void recoverWrites() {
+        final List<byte[]> records = writeLog.recover();
+        if (records.isEmpty()) {
+            return;
+        }
+        final NoteLogEntry.Target target = new NoteLogEntry.Target() {
+            @Override
+            public void upsert(NoteRecord note) {
+                NoteStore.this.upsert(note);
+            }
+
+            @Override
+            public void delete(String id) {
+                NoteStore.this.delete(id);
+            }
+
+            @Override
+            public void setPinned(String id, boolean pinned) {
+                NoteStore.this.setPinned(id, pinned);
+            }
+        };
+        runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (byte[] record : records) {
+                    try {
+                        NoteLogEntry.replay(record, target);
+                    } catch (IOException e) {
+                        // Intact on disk but not an entry we can read; the rest still apply
+                        WidgetLog.e("Skipping unreadable write log record", e);
+                    }
+                }
+            }
+        });
+        WidgetLog.d("Replayed {} write log records", records.size());
+        try {
+            writeLog.checkpoint();
+        } catch (IOException e) {
+            // Replayed again on the next start, which is harmless
+            WidgetLog.e("Could not checkpoint the write log", e);
+        }
+    }
+
+    /**
+     * Copies SQLite's own WAL into the database and syncs both. Returns false if another
+     * connection kept it from finishing.
+     */
+    private boolean checkpointDatabase() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(), "PRAGMA wal_checkpoint(FULL)", null) == 0;
+    }
+
+    /**
+     * Inserts the note or replaces the existing row with the same id.
+     */
+    public void upsert(NoteRecord note) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            write(db, note);
+            appendChange(db, note.id, NoteChange.OP_UPSERT);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the note with the given id and unpins it. Returns false if there was no
+     * such note.
+     */
+    public boolean delete(String id) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Mark success even when nothing matched: when this joins an enclosing
+            // transaction, ending it unmarked would roll that one back too
+            String[] files = filesOf(db, id);
+            boolean deleted = db.delete(TABLE_NOTES, COLUMN_ID + " = ?", new String[]{id}) > 0;
+            if (deleted) {
+                releaseBlob(db, files[0]);
+                releaseRecording(db, files[1]);
+                db.delete(TABLE_PINS, "note_id = ?", new String[]{id});
+                appendChange(db, id, NoteChange.OP_DELETE);
+            }
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Writes the note row. A new drawing in {@link NoteRecord#drawingPaths} is stored as
+     * a blob first and replaced by its hash, and the blob references are moved from the
+     * note's old drawing to its new one. A recording the note no longer uses is released.
+     */
+    private void write(SQLiteDatabase db, NoteRecord note) {
+        if (note.drawingPaths != null) {
+            if (note.drawingPaths.isEmpty()) {
+                note.drawingHash = null;
+                note.drawingSize = 0;
+            } else {
+                byte[] data = note.drawingPaths.getBytes(UTF_8);
+                note.drawingHash = storeBlob(data);
+                note.drawingSize = data.length;
+            }
+            note.drawingPaths = null;
+        }
+
+        String[] previous = filesOf(db, note.id);
+        db.insertWithOnConflict(TABLE_NOTES, null, toValues(note), SQLiteDatabase.CONFLICT_REPLACE);
+        if (note.drawingHash != null ? !note.drawingHash.equals(previous[0]) : previous[0] != null) {
+            retainBlob(db, note.drawingHash, note.drawingSize);
+            releaseBlob(db, previous[0]);
+        }
+
+        String audioPath = emptyToNull(note.audioPath);
+        if (audioPath != null) {
+            // Used again, so no longer the sweep's to delete
+            db.delete(TABLE_RELEASED_RECORDINGS, "path = ?", new String[]{audioPath});
+        }
+        if (previous[1] != null && !previous[1].equals(audioPath)) {
+            releaseRecording(db, previous[1]);
+        }
+    }
+
+    /**
+     * Returns the stored note's drawing hash and recording path, either of which is null
+     * if it has none, or if there is no such note.
+     */
+    private static String[] filesOf(SQLiteDatabase db, String id) {
+        Cursor cursor = db.query(TABLE_NOTES, new String[]{COLUMN_DRAWING_HASH, COLUMN_AUDIO_PATH},
+                COLUMN_ID + " = ?", new String[]{id}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new String[2];
+            }
+            return new String[]{
+                    cursor.isNull(0) ? null : cursor.getString(0),
+                    cursor.isNull(1) ? null : cursor.getString(1)
+            };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String storeBlob(byte[] data) {
+        try {
+            return blobs.put(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void retainBlob(SQLiteDatabase db, String hash, long size) {
+        if (hash == null) {
+            return;
+        }
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_BLOBS + " (hash, size, refs) VALUES (?, ?, 0)",
+                new Object[]{hash, size});
+        db.execSQL("UPDATE " + TABLE_BLOBS + " SET refs = refs + 1 WHERE hash = ?", new Object[]{hash});
+    }
+
+    private static void releaseBlob(SQLiteDatabase db, String hash) {
+        if (hash != null) {
+            db.execSQL("UPDATE " + TABLE_BLOBS + " SET refs = refs - 1 WHERE hash = ?", new Object[]{hash});
+        }
+    }
+
+    private static void releaseRecording(SQLiteDatabase db, String path) {
+        if (path == null) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put("path", path);
+        values.put("released_at", System.currentTimeMillis());
+        db.insertWithOnConflict(TABLE_RELEASED_RECORDINGS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Returns the drawing with the given hash, or null if there is no such drawing.
+     */
+    public String loadDrawing(String hash) throws IOException {
+        byte[] data = blobs.read(hash);
+        return data != null ? new String(data, UTF_8) : null;
+    }
+
+    /**
+     * Deletes the drawings no note refers to any more, and blob files left behind by
+     * writes whose transaction never committed.
+     *
+     * @return how many blobs were deleted
+     */
+    public int collectGarbage() {
+        GarbageCollection collection = new GarbageCollection();
+        while (!collection.step(GARBAGE_BATCH_SIZE)) {
+            // Each batch is its own transaction, so writes get in between
+        }
+        return collection.deleted;
+    }
+
+    /**
+     * Starts a {@link #collectGarbage} to be done a batch at a time.
+     */
+    public GarbageCollection startGarbageCollection() {
+        return new GarbageCollection();
+    }
+
+    /**
+     * One pass of garbage collection over the blob files. Each step is a short write
+     * transaction, so the database is only held for one batch at a time.
+     */
+    public final class GarbageCollection {
+        private List<String> hashes;
+        private int position;
+        private int deleted;
+        private long bytesFreed;
+
+        private GarbageCollection() {
+        }
+
+        /**
+         * Lists the blobs on the first step, then looks at up to {@code batchSize} of them
+         * per step.
+         *
+         * @return true once every blob has been looked at
+         */
+        public boolean step(int batchSize) {
+            SQLiteDatabase db = getWritableDatabase();
+            if (hashes == null) {
+                db.delete(TABLE_BLOBS, "refs <= 0", null);
+                // Only delete files once the writes that freed them are synced, or a crash
+                // could bring back a note that still refers to one
+                if (!checkpointDatabase()) {
+                    hashes = new ArrayList<>();
+                    return true;
+                }
+                // Listing also deletes unfinished blob writes, so none may be in flight
+                db.beginTransaction();
+                try {
+                    hashes = blobs.list();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return hashes.isEmpty();
+            }
+
+            // A write transaction, so no note can take a reference to a blob meanwhile. A
+            // blob freed since the listing still has its row, and is left for next time.
+            db.beginTransaction();
+            try {
+                int end = Math.min(hashes.size(), position + batchSize);
+                for (; position < end; position++) {
+                    String hash = hashes.get(position);
+                    if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_BLOBS
+                            + " WHERE hash = ?", new String[]{hash}) > 0) {
+                        continue;
+                    }
+                    long length = blobs.fileFor(hash).length();
+                    if (deleteUnreserved(hash)) {
+                        deleted++;
+                        bytesFreed += length;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return position >= hashes.size();
+        }
+
+        public long bytesFreed() {
+            return bytesFreed;
+        }
+    }
+
+    /**
+     * Forgets the drawings no note refers to any more and returns their hashes. Call it in
+     * the transaction that let go of them, and hand them to {@link #deleteDrawings} once its
+     * writes are durable. Cheaper than {@link #collectGarbage}, which is left to maintenance.
+     */
+    public List<String> takeReleasedDrawings() {
+        SQLiteDatabase db = getWritableDatabase();
+        List<String> hashes = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_BLOBS, new String[]{"hash"}, "refs <= 0", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                hashes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (!hashes.isEmpty()) {
+            db.delete(TABLE_BLOBS, "refs <= 0", null);
+        }
+        return hashes;
+    }
+
+    /**
+     * Deletes the drawings {@link #takeReleasedDrawings} returned, unless a note has taken
+     * one up again since. Only call it once the writes that released them are durable, or a
+     * crash could bring back a note that refers to one.
+     *
+     * @return how many blobs were deleted
+     */
+    public int deleteDrawings(List<String> hashes) {
+        SQLiteDatabase db = getWritableDatabase();
+        int deleted = 0;
+        // A write transaction, so no note can take a reference to a blob meanwhile
+        db.beginTransaction();
+        try {
+            for (String hash : hashes) {
+                // A note that took it up again gave it a new row; a later release leaves
+                // that row for the next collection
+                if (DatabaseUtils.queryNumEntries(db, TABLE_BLOBS, "hash = ?", new String[]{hash}) == 0
+                        && deleteUnreserved(hash)) {
+                    deleted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    private boolean deleteUnreserved(String hash) {
+        synchronized (reservedDrawings) {
+            return !reservedDrawings.contains(hash) && blobs.delete(hash);
+        }
+    }
+
+    /**
+     * Deletes up to {@code limit} of the recordings that notes let go of before
+     * {@code releasedBefore}, oldest first, as long as no note has taken them up again
+     * and they are files in {@code dir}. Either way they are forgotten, so each released
+     * recording is looked at once.
+     *
+     * @return how many released recordings were looked at, and how many bytes deleting
+     * them freed
+     */
+    public long[] deleteReleasedRecordings(File dir, long releasedBefore, int limit) {
+        SQLiteDatabase db = getWritableDatabase();
+        // As for drawings, the writes that released them have to be synced first
+        if (!checkpointDatabase()) {
+            return new long[]{0, 0};
+        }
+
+        // Runs as a write transaction so no note can take a recording up meanwhile
+        db.beginTransaction();
+        try {
+            List<String> paths = new ArrayList<>();
+            Cursor cursor = db.query(TABLE_RELEASED_RECORDINGS, new String[]{"path"}, "released_at < ?",
+                    new String[]{String.valueOf(releasedBefore)}, null, null, "released_at",
+                    String.valueOf(limit));
+            try {
+                while (cursor.moveToNext()) {
+                    paths.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            long freed = 0;
+            File parent = dir.getAbsoluteFile();
+            for (String path : paths) {
+                File file = VoiceNotes.audioFile(path).getAbsoluteFile();
+                if (parent.equals(file.getParentFile()) && !isRecordingUsed(db, file)) {
+                    long length = file.length();
+                    if (file.delete()) {
+                        freed += length;
+                    }
+                }
+                db.delete(TABLE_RELEASED_RECORDINGS, "path = ?", new String[]{path});
+            }
+            db.setTransactionSuccessful();
+            return new long[]{paths.size(), freed};
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns whether a note refers to the recording, by path or by file:// URI.
+     */
+    private static boolean isRecordingUsed(SQLiteDatabase db, File file) {
+        String path = file.getPath();
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_NOTES + " WHERE "
+                + COLUMN_AUDIO_PATH + " IN (?, ?)", new String[]{path, "file://" + path}) > 0;
+    }
+
+    /**
+     * Checkpoints the write log and SQLite's WAL into the database and truncates both.
+     *
+     * @return how many bytes the two files shrank by
+     */
+    public long checkpointAndTruncate() throws IOException {
+        File wal = new File(getWritableDatabase().getPath() + "-wal");
+        long before = wal.length() + writeLogFile.length();
+        writeLog.checkpoint();
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+        return Math.max(0, before - wal.length() - writeLogFile.length());
+    }
+
+    /**
+     * Checks the database, indexes included, and returns whether it is intact. This is one
+     * pass over the whole file, as the SQLite of older Android versions can't check a single
+     * table or index; the notes database is small enough for that to be one step. A failed
+     * check is repaired with {@link #rebuildIndex}, one index at a time.
+     */
+    public boolean checkDatabase() {
+        // One row per problem found, or a single "ok"
+        String check;
+        Cursor cursor = getReadableDatabase().rawQuery("PRAGMA quick_check", null);
+        try {
+            check = cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+        if ("ok".equals(check)) {
+            return true;
+        }
+        WidgetLog.w("Database check failed, rebuilding indexes: {}", check);
+        return false;
+    }
+
+    /**
+     * Returns the names of the database's indexes, for {@link #rebuildIndex}.
+     */
+    public List<String> indexNames() {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index'", null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    public void rebuildIndex(String name) {
+        getWritableDatabase().execSQL("REINDEX \"" + name.replace("\"", "\"\"") + "\"");
+    }
+
+    /**
+     * Returns the database's size, and how much of it is free pages a compaction would
+     * give back, in bytes.
+     */
+    public long[] databaseSpace() {
+        SQLiteDatabase db = getReadableDatabase();
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        return new long[]{
+                DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) * pageSize,
+                DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) * pageSize
+        };
+    }
+
+    /**
+     * Returns whether {@link #compact} can give free pages back. Databases created before
+     * incremental vacuum was turned on can't: switching them takes a full VACUUM, which
+     * rewrites the whole file in one go, so it is left undone and reported instead.
+     */
+    public boolean canCompact() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Gives up to {@code pages} free pages back to the file system, so compaction can be
+     * done a bit at a time. Does nothing unless {@link #canCompact}.
+     *
+     * @return whether there are free pages left
+     */
+    public boolean compact(int pages) {
+        if (!canCompact()) {
+            return false;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        // Frees one page per row read
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Keep stepping until the requested pages are freed
+            }
+        } finally {
+            cursor.close();
+        }
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0;
+    }
+
+    /**
+     * Pins the note to the widget after the notes already pinned, or unpins it.
+     * Returns false if it already was in that state.
+     */
+    public boolean setPinned(String id, boolean pinned) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            boolean changed;
+            if (!pinned) {
+                changed = db.delete(TABLE_PINS, "note_id = ?", new String[]{id}) > 0;
+            } else if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_PINS
+                    + " WHERE note_id = ?", new String[]{id}) > 0) {
+                changed = false;
+            } else {
+                ContentValues values = new ContentValues();
+                values.put("note_id", id);
+                values.put("position", DatabaseUtils.longForQuery(db,
+                        "SELECT COALESCE(MAX(position) + 1, 0) FROM " + TABLE_PINS, null));
+                db.insert(TABLE_PINS, null, values);
+                changed = true;
+            }
+            db.setTransactionSuccessful();
+            return changed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the notes pinned to the widget, in the order they were pinned.
+     */
+    public WidgetPins getPins() {
+        Cursor cursor = getReadableDatabase().query(TABLE_PINS, new String[]{"note_id"},
+                null, null, null, null, "position");
+        try {
+            List<String> ids = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+            return WidgetPins.of(ids);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public int noteCount() {
+        return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT COUNT(*) FROM " + TABLE_NOTES, null);
+    }
+
+    /**
+     * Returns up to {@code limit} notes in id order, starting after {@code afterId}, for
+     * walking every note a page at a time without an offset.
+     */
+    @Override
+    public List<NoteRecord> notesAfter(String afterId, int limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_NOTES, ALL_COLUMNS,
+                afterId != null ? COLUMN_ID + " > ?" : null, afterId != null ? new String[]{afterId} : null,
+                null, null, COLUMN_ID, String.valueOf(limit));
+        try {
+            List<NoteRecord> notes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                notes.add(fromCursor(cursor));
+            }
+            return notes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public File drawingFile(String hash) {
+        File file = blobs.fileFor(hash);
+        return file.exists() ? file : null;
+    }
+
+    @Override
+    public boolean reserveDrawing(String hash) {
+        // Reserved before looking, so a collection either deleted it already or won't
+        synchronized (reservedDrawings) {
+            reservedDrawings.add(hash);
+        }
+        return blobs.contains(hash);
+    }
+
+    @Override
+    public void importDrawing(String hash, File file) throws IOException {
+        blobs.putFile(hash, file);
+    }
+
+    /**
+     * Saves the imported notes that are newer than the stored ones in one transaction,
+     * and returns once they are durable. Their drawings are no longer reserved after,
+     * as the saved notes now hold references to them, and the copied recordings no saved
+     * note uses are released for {@link #deleteReleasedRecordings}.
+     */
+    @Override
+    public int importNotes(final List<NoteRecord> notes, Collection<String> copiedRecordings)
+            throws IOException {
+        final SQLiteDatabase db = getWritableDatabase();
+        final NoteLogEntry writes = new NoteLogEntry();
+        List<String> drawings = new ArrayList<>();
+        for (NoteRecord note : notes) {
+            if (note.drawingHash != null) {
+                drawings.add(note.drawingHash);
+            }
+        }
+        try {
+            saveImportedNotes(db, notes, copiedRecordings, writes);
+        } finally {
+            synchronized (reservedDrawings) {
+                reservedDrawings.removeAll(drawings);
+            }
+        }
+        return writes.size();
+    }
+
+    private void saveImportedNotes(final SQLiteDatabase db, final List<NoteRecord> notes,
+            final Collection<String> copiedRecordings, final NoteLogEntry writes) throws IOException {
+        runLoggedAndWait(new Runnable() {
+            @Override
+            public void run() {
+                Set<String> unused = new HashSet<>(copiedRecordings);
+                for (NoteRecord note : notes) {
+                    Cursor cursor = db.query(TABLE_NOTES, new String[]{COLUMN_UPDATED_AT},
+                            COLUMN_ID + " = ?", new String[]{note.id}, null, null, null);
+                    try {
+                        if (cursor.moveToFirst() && cursor.getLong(0) >= note.updatedAt) {
+                            continue;
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    if (note.drawingHash != null && !blobs.contains(note.drawingHash)) {
+                        note.drawingHash = null;
+                        note.drawingSize = 0;
+                    }
+                    write(db, note);
+                    appendChange(db, note.id, NoteChange.OP_UPSERT);
+                    writes.upsert(note);
+                    unused.remove(note.audioPath);
+                }
+                for (String path : unused) {
+                    releaseRecording(db, path);
+                }
+            }
+        }, writes);
+    }
+
+    /**
+     * Pins the imported ids of notes this store has, after the notes already pinned, and
+     * returns once that is durable.
+     */
+    @Override
+    public void importPins(final List<String> ids) throws IOException {
+        final SQLiteDatabase db = getWritableDatabase();
+        final NoteLogEntry writes = new NoteLogEntry();
+        runLoggedAndWait(new Runnable() {
+            @Override
+            public void run() {
+                for (String id : ids) {
+                    if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_NOTES
+                            + " WHERE " + COLUMN_ID + " = ?", new String[]{id}) > 0
+                            && setPinned(id, true)) {
+                        writes.setPinned(id, true);
+                    }
+                }
+            }
+        }, writes);
+    }
+
+    /**
+     * Like {@link #runLogged}, but returns once the writes are durable.
+     */
+    private void runLoggedAndWait(Runnable body, NoteLogEntry writes) throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final IOException[] failure = new IOException[1];
+        runLogged(body, writes, new NoteWriteLog.Callback() {
+            @Override
+            public void onDurable() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException error) {
+                failure[0] = error;
+                done.countDown();
+            }
+        });
+        if (writes.isEmpty()) {
+            return;
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the write log");
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    public NoteRecord get(String id) {
+        Cursor cursor = getReadableDatabase().query(TABLE_NOTES, ALL_COLUMNS,
+                COLUMN_ID + " = ?", new String[]{id}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns every note, most recently updated first.
+     */
+    public List<NoteRecord> getAll() {
+        Cursor cursor = getReadableDatabase().query(TABLE_NOTES, ALL_COLUMNS,
+                null, null, null, null, LISTING_ORDER);
+        try {
+            List<NoteRecord> notes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                notes.add(fromCursor(cursor));
+            }
+            return notes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the note's text, without its drawing and audio, or null if there is no
+     * such note.
+     */
+    public NoteRecord getText(String id) {
+        List<NoteRecord> notes = queryText(COLUMN_ID + " = ?", new String[]{id});
+        return notes.isEmpty() ? null : notes.get(0);
+    }
+
+    /**
+     * Returns the text of every note, without drawings and audio.
+     */
+    public List<NoteRecord> getAllText() {
+        return queryText(null, null);
+    }
+
+    private List<NoteRecord> queryText(String selection, String[] selectionArgs) {
+        Cursor cursor = getReadableDatabase().query(TABLE_NOTES,
+                new String[]{COLUMN_ID, COLUMN_TITLE, COLUMN_CONTENT, COLUMN_CREATED_AT, COLUMN_UPDATED_AT},
+                selection, selectionArgs, null, null, null);
+        try {
+            List<NoteRecord> notes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                NoteRecord note = new NoteRecord();
+                note.id = cursor.getString(0);
+                note.title = cursor.getString(1);
+                note.content = cursor.getString(2);
+                note.createdAt = cursor.getLong(3);
+                note.updatedAt = cursor.getLong(4);
+                notes.add(note);
+            }
+            return notes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} note summaries, most recently updated first, starting
+     * after the note {@code cursor} was taken from, or from the top if it is null.
+     *
+     * <p>The cursor is a position rather than an offset, so notes saved while paging
+     * don't shift later pages, and each page costs the same however deep it is. Only
+     * whether a note has a drawing or recording is read, never the data itself.
+     */
+    public List<NoteSummary> listSummaries(String cursor, int limit) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (cursor != null) {
+            int separator = cursor.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            String updatedAt = String.valueOf(Long.parseLong(cursor.substring(0, separator)));
+            selection = COLUMN_UPDATED_AT + " < ? OR (" + COLUMN_UPDATED_AT + " = ? AND " + COLUMN_ID + " > ?)";
+            selectionArgs = new String[]{updatedAt, updatedAt, cursor.substring(separator + 1)};
+        }
+
+        Cursor rows = getReadableDatabase().query(TABLE_NOTES,
+                new String[]{COLUMN_ID, COLUMN_TITLE,
+                        "substr(" + COLUMN_CONTENT + ", 1, " + WidgetNote.PREVIEW_LENGTH + ")",
+                        COLUMN_UPDATED_AT,
+                        COLUMN_DRAWING_HASH + " IS NOT NULL",
+                        COLUMN_AUDIO_PATH + " IS NOT NULL"},
+                selection, selectionArgs, null, null,
+                LISTING_ORDER, String.valueOf(limit));
+        try {
+            List<NoteSummary> summaries = new ArrayList<>(rows.getCount());
+            while (rows.moveToNext()) {
+                NoteSummary summary = new NoteSummary();
+                summary.id = rows.getString(0);
+                summary.title = rows.getString(1);
+                summary.preview = rows.getString(2);
+                summary.updatedAt = rows.getLong(3);
+                summary.hasDrawing = rows.getInt(4) != 0;
+                summary.hasAudio = rows.getInt(5) != 0;
+                summaries.add(summary);
+            }
+            return summaries;
+        } finally {
+            rows.close();
+        }
+    }
+
+    @Override
+    public List<WidgetNote> loadRecent(int limit) {
+        return queryWidgetNotes(null, null, String.valueOf(limit));
+    }
+
+    @Override
+    public WidgetNote load(String id) {
+        List<WidgetNote> notes = queryWidgetNotes(COLUMN_ID + " = ?", new String[]{id}, null);
+        return notes.isEmpty() ? null : notes.get(0);
+    }
+
+    /**
+     * Reads notes without their audio, and with only whether they have a drawing, since the
+     * widget shows drawings as thumbnails it loads separately. Content is already cut down
+     * to a preview.
+     */
+    private List<WidgetNote> queryWidgetNotes(String selection, String[] selectionArgs, String limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_NOTES,
+                new String[]{COLUMN_ID, COLUMN_TITLE,
+                        "substr(" + COLUMN_CONTENT + ", 1, " + WidgetNote.PREVIEW_LENGTH + ")",
+                        COLUMN_UPDATED_AT, COLUMN_DRAWING_HASH + " IS NOT NULL"},
+                selection, selectionArgs, null, null, LISTING_ORDER, limit);
+        try {
+            List<WidgetNote> notes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                WidgetNote note = new WidgetNote();
+                note.id = cursor.getString(0);
+                note.title = cursor.getString(1);
+                note.content = cursor.getString(2);
+                note.updatedAt = cursor.getLong(3);
+                note.hasDrawing = cursor.getInt(4) != 0;
+                notes.add(note);
+            }
+            return notes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the version of the newest journal entry, or 0 if nothing was ever written.
+     */
+    public long getJournalVersion() {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT seq FROM sqlite_sequence WHERE name = ?", new String[]{TABLE_CHANGES});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the journal entries newer than {@code version}, oldest first, or null if
+     * some of them have already been compacted away and the caller has to reload
+     * everything instead.
+     */
+    public List<NoteChange> changesSince(long version) {
+        List<NoteChange> changes = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_CHANGES, new String[]{"version", "note_id", "op"},
+                "version > ?", new String[]{String.valueOf(version)}, null, null, "version");
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new NoteChange(cursor.getLong(0), cursor.getString(1), cursor.getInt(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Check the floor after reading: compaction moves it in the same transaction that
+        // deletes entries, so entries lost under us always show up here
+        String floor = getMeta(db, META_JOURNAL_FLOOR);
+        if (floor != null && Long.parseLong(floor) > version) {
+            return null;
+        }
+        return changes;
+    }
+
+    private static void appendChange(SQLiteDatabase db, String noteId, int op) {
+        ContentValues values = new ContentValues();
+        values.put("note_id", noteId);
+        values.put("op", op);
+        long version = db.insert(TABLE_CHANGES, null, values);
+
+        if (version % JOURNAL_COMPACT_INTERVAL == 0 && version > JOURNAL_RETAINED) {
+            compactJournal(db, version - JOURNAL_RETAINED);
+        }
+    }
+
+    /**
+     * Drops the journal entries up to and including {@code floor}.
+     */
+    private static void compactJournal(SQLiteDatabase db, long floor) {
+        db.delete(TABLE_CHANGES, "version <= ?", new String[]{String.valueOf(floor)});
+        setMeta(db, META_JOURNAL_FLOOR, String.valueOf(floor));
+    }
+
+    public boolean isLegacyMigrated() {
+        return "1".equals(getMeta(getReadableDatabase(), META_LEGACY_MIGRATED));
+    }
+
+    /**
+     * Imports the legacy {@code @sticky_notes} AsyncStorage array. Runs at most once;
+     * later calls return 0 without touching the store.
+     *
+     * @return the number of notes imported
+     */
+    public int migrateLegacyNotes(String notesJson) throws JSONException {
+        SQLiteDatabase db = getWritableDatabase();
+        int imported = 0;
+        db.beginTransaction();
+        try {
+            if ("1".equals(getMeta(db, META_LEGACY_MIGRATED))) {
+                return 0;
+            }
+
+            if (notesJson != null && !notesJson.isEmpty()) {
+                JSONArray notes = new JSONArray(notesJson);
+                for (int i = 0; i < notes.length(); i++) {
+                    JSONObject noteJson = notes.optJSONObject(i);
+                    if (noteJson == null || noteJson.optString("id", "").isEmpty()) {
+                        continue;
+                    }
+                    write(db, fromLegacyJson(noteJson));
+                    imported++;
+                }
+            }
+
+            // Readers that were following the legacy array have to reload everything
+            ContentValues change = new ContentValues();
+            change.put("note_id", "");
+            change.put("op", NoteChange.OP_UPSERT);
+            compactJournal(db, db.insert(TABLE_CHANGES, null, change));
+
+            setMeta(db, META_LEGACY_MIGRATED, "1");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Too large to log; sync the database itself, once
+        checkpointDatabase();
+        return imported;
+    }
+
+    public boolean isPinsMigrated() {
+        return "1".equals(getMeta(getReadableDatabase(), META_PINS_MIGRATED));
+    }
+
+    /**
+     * Imports the legacy {@code @sticky_notes_widget} array of pinned ids, keeping their
+     * order. Runs at most once; later calls return 0 without touching the store.
+     *
+     * @return the number of pins imported
+     */
+    public int migrateLegacyPins(String widgetNotesJson) throws JSONException {
+        SQLiteDatabase db = getWritableDatabase();
+        List<String> ids;
+        db.beginTransaction();
+        try {
+            if ("1".equals(getMeta(db, META_PINS_MIGRATED))) {
+                return 0;
+            }
+
+            ids = LegacyNotesParser.parsePins(widgetNotesJson).ids();
+            db.delete(TABLE_PINS, null, null);
+            for (int i = 0; i < ids.size(); i++) {
+                ContentValues values = new ContentValues();
+                values.put("note_id", ids.get(i));
+                values.put("position", i);
+                db.insert(TABLE_PINS, null, values);
+            }
+
+            setMeta(db, META_PINS_MIGRATED, "1");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        checkpointDatabase();
+        return ids.size();
+    }
+
+    static NoteRecord fromLegacyJson(JSONObject noteJson) {
+        long now = System.currentTimeMillis();
+        NoteRecord note = new NoteRecord();
+        note.id = noteJson.optString("id");
+        note.title = noteJson.optString("title", "");
+        note.content = noteJson.optString("content", "");
+        note.drawingPaths = noteJson.isNull("drawingPaths") ? null : noteJson.optString("drawingPaths");
+        note.audioPath = noteJson.isNull("audioPath") ? null : noteJson.optString("audioPath");
+        note.updatedAt = noteJson.optLong("updatedAt", now);
+        note.createdAt = noteJson.optLong("createdAt", note.updatedAt);
+        return note;
+    }
+
+    private static ContentValues toValues(NoteRecord note) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, note.id);
+        values.put(COLUMN_TITLE, note.title != null ? note.title : "");
+        values.put(COLUMN_CONTENT, note.content != null ? note.content : "");
+        values.put(COLUMN_DRAWING_HASH, note.drawingHash);
+        values.put(COLUMN_DRAWING_SIZE, note.drawingHash != null ? note.drawingSize : 0);
+        // Store empty as null, so listings can tell there is no recording without reading it
+        values.put(COLUMN_AUDIO_PATH, emptyToNull(note.audioPath));
+        values.put(COLUMN_CREATED_AT, note.createdAt);
+        values.put(COLUMN_UPDATED_AT, note.updatedAt);
+        return values;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static NoteRecord fromCursor(Cursor cursor) {
+        NoteRecord note = new NoteRecord();
+        note.id = cursor.getString(0);
+        note.title = cursor.getString(1);
+        note.content = cursor.getString(2);
+        note.drawingHash = cursor.isNull(3) ? null : cursor.getString(3);
+        note.drawingSize = cursor.getLong(4);
+        note.audioPath = cursor.isNull(5) ? null : cursor.getString(5);
+        note.createdAt = cursor.getLong(6);
+        note.updatedAt = cursor.getLong(7);
+        return note;
+    }
+
+    private static String getMeta(SQLiteDatabase db, String key) {
+        Cursor cursor = db.query(TABLE_META, new String[]{"value"}, "key = ?",
+                new String[]{key}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void setMeta(SQLiteDatabase db, String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put("key", key);
+        values.put("value", value);
+        db.insertWithOnConflict(TABLE_META, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,26 @@
+package com.stickynotes;
+
+/**
+ * What the note list shows for a note: no drawing or recording, just whether there is one,
+ * and the content cut down to a preview.
+ */
+final class NoteSummary {
+    String id;
+    String title;
+    String preview;
+    long updatedAt;
+    boolean hasDrawing;
+    boolean hasAudio;
+
+    /**
+     * Returns the keyset cursor that continues a listing after this note.
+     */
+    String cursor() {
+        return updatedAt + ":" + id;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteSummary{id='" + id + "', title='" + title + "', updatedAt=" + updatedAt + "}";
+    }
+}
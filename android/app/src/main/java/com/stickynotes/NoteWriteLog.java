@@ -0,0 +1,362 @@
+package com.stickynotes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log that makes writes durable with one fsync per group of records rather
+ * than one per write.
+ *
+ * <p>Records are appended by a single committer thread. It waits up to the group commit
+ * window after the first record of a group arrives, writes every record queued by then,
+ * syncs once and only then calls each record's {@link Callback}. A record is framed as
+ * {@code [length][CRC32][payload]}, so a write torn by a crash shows up as a short or
+ * mismatching record at the tail; {@link #recover} returns the records before it and
+ * cuts it off.
+ *
+ * <p>The log only has to hold writes the main store hasn't made durable yet. Once it
+ * grows past its checkpoint size, the committer asks the {@link Checkpointer} to make
+ * everything written so far durable and empties the log. Records must therefore only be
+ * appended after their write has been applied to the main store, and, since they are
+ * written and recovered in the order they were appended, in the order those writes were
+ * applied.
+ */
+final class NoteWriteLog {
+    /**
+     * Told whether a record made it to disk. Called on the committer thread.
+     */
+    interface Callback {
+        void onDurable();
+
+        void onFailed(IOException error);
+    }
+
+    /**
+     * Makes every write already applied to the main store durable there. Returns false
+     * if it couldn't, in which case the log keeps its records and tries again later.
+     */
+    interface Checkpointer {
+        boolean checkpoint() throws IOException;
+    }
+
+    private static final int MAGIC = 0x534e574c; // "SNWL"
+    private static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final class Pending {
+        final byte[] payload;
+        final Callback callback;
+
+        Pending(byte[] payload, Callback callback) {
+            this.payload = payload;
+            this.callback = callback;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Checkpointer checkpointer;
+    private final long groupCommitNanos;
+    private final long checkpointSize;
+    private final List<byte[]> recovered;
+    private final Thread committer;
+
+    // Guards the queue; held only briefly, so appends never wait for a sync
+    private final Object lock = new Object();
+    private List<Pending> queue = new ArrayList<>();
+    private boolean closed;
+
+    // Guards the file, so a checkpoint doesn't truncate it under a group being written
+    private final Object fileLock = new Object();
+    private long length;
+    private volatile long durableLength;
+    private volatile long syncs;
+
+    /**
+     * Opens the log, creating it if needed, and reads back the records a previous run
+     * left in it; see {@link #recover}.
+     *
+     * @param groupCommitNanos how long the first record of a group waits for others
+     * @param checkpointSize   log size in bytes past which it is checkpointed
+     */
+    NoteWriteLog(File file, Checkpointer checkpointer, long groupCommitNanos, long checkpointSize)
+            throws IOException {
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.checkpointer = checkpointer;
+        this.groupCommitNanos = groupCommitNanos;
+        this.checkpointSize = checkpointSize;
+        this.recovered = readRecords();
+        this.durableLength = length;
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "StickyNoteLog");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Returns the records found in the log when it was opened, oldest first. The caller
+     * replays them into the main store and then calls {@link #checkpoint}.
+     */
+    List<byte[]> recover() {
+        return recovered;
+    }
+
+    /**
+     * Queues a record. {@code callback} is called once it is on disk, or has failed to
+     * get there.
+     */
+    void append(byte[] payload, Callback callback) {
+        if (payload.length > MAX_RECORD_SIZE) {
+            callback.onFailed(new IOException("Log record too large: " + payload.length));
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                callback.onFailed(new IOException("Log is closed"));
+                return;
+            }
+            queue.add(new Pending(payload, callback));
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Appends a record and waits until it is on disk.
+     */
+    void appendAndWait(byte[] payload) throws IOException, InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final IOException[] failure = new IOException[1];
+        append(payload, new Callback() {
+            @Override
+            public void onDurable() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException error) {
+                failure[0] = error;
+                done.countDown();
+            }
+        });
+        done.await();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Checkpoints now, on the calling thread. Safe alongside appends: a record still
+     * queued belongs to a write already applied to the main store, so the checkpoint
+     * covers it and writing it afterwards is redundant but harmless.
+     *
+     * @return whether the log was emptied
+     */
+    boolean checkpoint() throws IOException {
+        synchronized (fileLock) {
+            return checkpointLocked();
+        }
+    }
+
+    /**
+     * Size of the part of the log known to be on disk, in bytes.
+     */
+    long durableLength() {
+        return durableLength;
+    }
+
+    /**
+     * Number of syncs so far, so callers can see how well writes are being grouped.
+     */
+    long syncCount() {
+        return syncs;
+    }
+
+    /**
+     * Stops the committer after it has written what is already queued, and closes the file.
+     */
+    void close() throws IOException, InterruptedException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        committer.join();
+        channel.close();
+    }
+
+    private void commitLoop() {
+        while (true) {
+            List<Pending> group;
+            try {
+                synchronized (lock) {
+                    while (queue.isEmpty() && !closed) {
+                        lock.wait();
+                    }
+                    if (queue.isEmpty()) {
+                        return;
+                    }
+                }
+                if (groupCommitNanos > 0) {
+                    // Let the writes that follow close behind share this sync
+                    TimeUnit.NANOSECONDS.sleep(groupCommitNanos);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (lock) {
+                group = queue;
+                queue = new ArrayList<>();
+            }
+            IOException error;
+            synchronized (fileLock) {
+                error = writeGroup(group);
+                if (error == null && length > checkpointSize) {
+                    try {
+                        checkpointLocked();
+                    } catch (IOException e) {
+                        // The records stay in the log, checkpointed on a later group
+                    }
+                }
+            }
+            for (Pending pending : group) {
+                if (error == null) {
+                    pending.callback.onDurable();
+                } else {
+                    pending.callback.onFailed(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes and syncs a group of records. On failure the log is cut back to the end of
+     * the last group that made it, so a partial group can't hide later ones from recovery.
+     */
+    private IOException writeGroup(List<Pending> group) {
+        int size = 0;
+        for (Pending pending : group) {
+            size += RECORD_HEADER_SIZE + pending.payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (Pending pending : group) {
+            crc.reset();
+            crc.update(pending.payload, 0, pending.payload.length);
+            buffer.putInt(pending.payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(pending.payload);
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, length + buffer.position());
+            }
+            channel.force(false);
+            syncs++;
+            length += size;
+            durableLength = length;
+            return null;
+        } catch (IOException e) {
+            try {
+                channel.truncate(length);
+            } catch (IOException ignored) {
+                // Recovery stops at the torn group either way
+            }
+            return e;
+        }
+    }
+
+    private boolean checkpointLocked() throws IOException {
+        if (length == HEADER_SIZE) {
+            return true;
+        }
+        if (!checkpointer.checkpoint()) {
+            return false;
+        }
+        channel.truncate(HEADER_SIZE);
+        channel.force(false);
+        length = HEADER_SIZE;
+        durableLength = length;
+        return true;
+    }
+
+    /**
+     * Reads the intact records after the header, then truncates whatever follows them.
+     * Writes a fresh header if the file is new or its header is unreadable.
+     */
+    private List<byte[]> readRecords() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (size < HEADER_SIZE || readFully(header, 0) < HEADER_SIZE
+                || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            header.clear();
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+            length = HEADER_SIZE;
+            return records;
+        }
+
+        long position = HEADER_SIZE;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            recordHeader.clear();
+            if (readFully(recordHeader, position) < RECORD_HEADER_SIZE) {
+                break;
+            }
+            int recordLength = recordHeader.getInt(0);
+            int expectedCrc = recordHeader.getInt(4);
+            if (recordLength < 0 || recordLength > MAX_RECORD_SIZE
+                    || position + RECORD_HEADER_SIZE + recordLength > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(recordLength);
+            if (readFully(payload, position + RECORD_HEADER_SIZE) < recordLength) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload.array(), 0, recordLength);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            records.add(payload.array());
+            position += RECORD_HEADER_SIZE + recordLength;
+        }
+        if (position < size) {
+            // A torn or corrupt tail; nothing after it was ever acknowledged
+            channel.truncate(position);
+            channel.force(false);
+        }
+        length = position;
+        return records;
+    }
+
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
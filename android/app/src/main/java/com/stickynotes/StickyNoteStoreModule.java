@@ -0,0 +1,722 @@
+package com.stickynotes;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Exposes {@link NoteStore} to JS as {@code NativeModules.StickyNoteStore}.
+ *
+ * <p>Batches and searches run on their own thread rather than the native modules thread,
+ * so a large import or a search doesn't hold up other bridge calls. Each batch is one transaction and
+ * requests one widget refresh, and resolves with a result per item in input order:
+ * {@code {id, ok}} plus {@code note} for saves, {@code changed} for pins, or
+ * {@code error} when the item was skipped. If the transaction itself fails, nothing is
+ * written and the promise is rejected.
+ *
+ * <p>Writes resolve once they are in the store's write log, so a resolved save survives
+ * the process being killed; saves arriving close together share one sync.
+ */
+public class StickyNoteStoreModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "StickyNoteStore");
+        }
+    });
+
+    // Backups take long enough that saves must not queue behind them
+    private static final ExecutorService BACKUP_WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "StickyBackup");
+        }
+    });
+
+    private static final int MAX_HIGHLIGHTS = 32;
+    private static final String EVENT_BACKUP_PROGRESS = "backupProgress";
+    private static final long BACKUP_PROGRESS_INTERVAL_MILLIS = 250;
+    private static final String BACKUP_IMPORT_DIR = "backup_import";
+
+    private final NoteStore store;
+
+    public StickyNoteStoreModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        this.store = NoteStore.getInstance(reactContext);
+        reactContext.addLifecycleEventListener(this);
+    }
+
+    @Override
+    public String getName() {
+        return "StickyNoteStore";
+    }
+
+    @ReactMethod
+    public void saveNote(final ReadableMap noteMap, final Promise promise) {
+        try {
+            final long timestamp = System.currentTimeMillis();
+            final NoteRecord[] saved = new NoteRecord[1];
+            final NoteLogEntry writes = new NoteLogEntry();
+            // Read and written in one transaction, so a batch on the worker can't delete or
+            // save the note in between
+            runLogged(new Runnable() {
+                @Override
+                public void run() {
+                    NoteRecord note = prepareSave(noteMap, timestamp);
+                    if (note != null) {
+                        store.upsert(note);
+                        writes.upsert(note);
+                        saved[0] = note;
+                    }
+                }
+            }, writes, new NoteWriteLog.Callback() {
+                @Override
+                public void onDurable() {
+                    // Only the write has given the drawing its hash
+                    promise.resolve(toMap(saved[0]));
+                }
+
+                @Override
+                public void onFailed(IOException error) {
+                    promise.reject("ERROR", error.getMessage());
+                }
+            });
+            if (saved[0] == null) {
+                promise.reject("NOT_FOUND", "Note not found");
+                return;
+            }
+            notesChanged();
+            if (saved[0].audioPath != null) {
+                VoiceNotes.processLater(getReactApplicationContext(), saved[0].audioPath);
+            }
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the launch snapshot as {@code {notes, nextCursor}}, like a first page from
+     * {@link #listNoteSummaries}, or null if there is none. Synchronous so the home
+     * screen can render it on its first frame.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getLaunchSnapshot() {
+        List<NoteSummary> summaries = LaunchSnapshot.get(getReactApplicationContext());
+        return summaries != null ? toPage(summaries, LaunchSnapshot.SIZE) : null;
+    }
+
+    @ReactMethod
+    public void getNote(String id, Promise promise) {
+        try {
+            NoteRecord note = store.get(id);
+            promise.resolve(note != null ? toMap(note) : null);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getAllNotes(Promise promise) {
+        try {
+            WritableArray notes = Arguments.createArray();
+            for (NoteRecord note : store.getAll()) {
+                notes.pushMap(toMap(note));
+            }
+            promise.resolve(notes);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves with {@code {notes, nextCursor}}: up to {@code limit} summaries, most
+     * recent first, and the cursor to pass for the next page, or null after the last one.
+     */
+    @ReactMethod
+    public void listNoteSummaries(String cursor, int limit, Promise promise) {
+        try {
+            promise.resolve(toPage(store.listSummaries(cursor, limit), limit));
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void deleteNote(final String id, Promise promise) {
+        try {
+            final NoteLogEntry writes = new NoteLogEntry();
+            runLogged(new Runnable() {
+                @Override
+                public void run() {
+                    if (store.delete(id)) {
+                        writes.delete(id);
+                    }
+                }
+            }, writes, resolveWhenDurable(promise, true));
+            if (writes.isEmpty()) {
+                promise.resolve(false);
+                return;
+            }
+            notesChanged();
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves with the drawing stored under {@code drawingHash}, or null if there is none.
+     */
+    @ReactMethod
+    public void loadDrawing(String drawingHash, Promise promise) {
+        try {
+            promise.resolve(store.loadDrawing(drawingHash));
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves a file:// URI of the note's drawing downsampled to at most {@code size}
+     * pixels, or null if it has none. Decoded once and then served from the disk cache.
+     */
+    @ReactMethod
+    public void getDrawingThumbnail(final String noteId, final double updatedAt, final int size,
+                                    final Promise promise) {
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File file = DrawingThumbnails.getInstance(getReactApplicationContext())
+                            .loadFile(noteId, (long) updatedAt, size).get();
+                    promise.resolve(file != null ? "file://" + file.getAbsolutePath() : null);
+                } catch (Exception e) {
+                    promise.reject("ERROR", e.getMessage());
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void isLegacyMigrated(Promise promise) {
+        try {
+            promise.resolve(store.isLegacyMigrated());
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void migrateLegacyNotes(String notesJson, Promise promise) {
+        try {
+            int migrated = store.migrateLegacyNotes(notesJson);
+            // The widget reads from the store from now on
+            notesChanged();
+            promise.resolve(migrated);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void saveNotes(final ReadableArray noteMaps, final Promise promise) {
+        runBatch(promise, new Batch() {
+            @Override
+            public void apply(WritableArray results, NoteLogEntry writes) {
+                long timestamp = System.currentTimeMillis();
+                for (int i = 0; i < noteMaps.size(); i++) {
+                    if (noteMaps.getType(i) != ReadableType.Map) {
+                        results.pushMap(failure(null, "INVALID"));
+                        continue;
+                    }
+                    ReadableMap noteMap = noteMaps.getMap(i);
+                    NoteRecord note = prepareSave(noteMap, timestamp);
+                    if (note == null) {
+                        results.pushMap(failure(noteMap.getString("id"), "NOT_FOUND"));
+                        continue;
+                    }
+                    store.upsert(note);
+                    writes.upsert(note);
+                    WritableMap result = success(note.id);
+                    result.putMap("note", toMap(note));
+                    results.pushMap(result);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void deleteNotes(final ReadableArray ids, final Promise promise) {
+        runBatch(promise, new Batch() {
+            @Override
+            public void apply(WritableArray results, NoteLogEntry writes) {
+                for (int i = 0; i < ids.size(); i++) {
+                    String id = ids.getType(i) == ReadableType.String ? ids.getString(i) : null;
+                    if (id == null) {
+                        results.pushMap(failure(null, "INVALID"));
+                    } else if (store.delete(id)) {
+                        writes.delete(id);
+                        results.pushMap(success(id));
+                    } else {
+                        results.pushMap(failure(id, "NOT_FOUND"));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Pins the notes to the widget in the given order after those already pinned, or
+     * unpins them. Notes that don't exist can't be pinned.
+     */
+    @ReactMethod
+    public void setNotesPinned(final ReadableArray ids, final boolean pinned, final Promise promise) {
+        runBatch(promise, new Batch() {
+            @Override
+            public void apply(WritableArray results, NoteLogEntry writes) {
+                for (int i = 0; i < ids.size(); i++) {
+                    String id = ids.getType(i) == ReadableType.String ? ids.getString(i) : null;
+                    if (id == null) {
+                        results.pushMap(failure(null, "INVALID"));
+                    } else if (pinned && store.load(id) == null) {
+                        results.pushMap(failure(id, "NOT_FOUND"));
+                    } else {
+                        boolean pinChanged = store.setPinned(id, pinned);
+                        if (pinChanged) {
+                            writes.setPinned(id, pinned);
+                        }
+                        WritableMap result = success(id);
+                        result.putBoolean("changed", pinChanged);
+                        results.pushMap(result);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Resolves with {@code {total, hits}}, where each hit is {@code {id, score,
+     * titleHighlights, contentHighlights}} and highlights are flattened [start, end) char
+     * offset pairs. The last query word also matches as a prefix.
+     */
+    @ReactMethod
+    public void searchNotes(final String query, final int offset, final int limit, final Promise promise) {
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    NoteSearchIndex.Page page = NoteSearch.getInstance(getReactApplicationContext())
+                            .search(query, offset, limit);
+                    WritableArray hits = Arguments.createArray();
+                    for (NoteSearchIndex.Hit hit : page.hits) {
+                        NoteRecord note = store.getText(hit.id);
+                        if (note == null) {
+                            continue;
+                        }
+                        WritableMap map = Arguments.createMap();
+                        map.putString("id", hit.id);
+                        map.putDouble("score", hit.score);
+                        map.putArray("titleHighlights",
+                                toArray(NoteSearchIndex.highlights(note.title, query, MAX_HIGHLIGHTS)));
+                        map.putArray("contentHighlights",
+                                toArray(NoteSearchIndex.highlights(note.content, query, MAX_HIGHLIGHTS)));
+                        hits.pushMap(map);
+                    }
+                    WritableMap result = Arguments.createMap();
+                    result.putInt("total", page.total);
+                    result.putArray("hits", hits);
+                    promise.resolve(result);
+                } catch (Exception e) {
+                    promise.reject("ERROR", e.getMessage());
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getPinnedNoteIds(Promise promise) {
+        try {
+            WritableArray ids = Arguments.createArray();
+            for (String id : store.getPins().ids()) {
+                ids.pushString(id);
+            }
+            promise.resolve(ids);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void isPinsMigrated(Promise promise) {
+        try {
+            promise.resolve(store.isPinsMigrated());
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void migrateLegacyPins(String widgetNotesJson, Promise promise) {
+        try {
+            int migrated = store.migrateLegacyPins(widgetNotesJson);
+            notesChanged();
+            promise.resolve(migrated);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every note with its drawing and recording to one archive at {@code path},
+     * and resolves with the number of notes. Sends {@code backupProgress} events
+     * {@code {phase: 'export', bytes, totalBytes: -1, notes, totalNotes}} meanwhile.
+     */
+    @ReactMethod
+    public void exportBackup(final String path, final Promise promise) {
+        BACKUP_WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promise.resolve(NoteBackup.export(store, new File(path), backupProgress("export")));
+                } catch (Exception e) {
+                    WidgetLog.e("Backup export failed", e);
+                    promise.reject("ERROR", e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Imports the archive at {@code path}, keeping stored notes that are newer than their
+     * backed up copy, and resolves with the number of notes saved. If an earlier import of
+     * the same archive was interrupted, carries on where it stopped. Sends
+     * {@code backupProgress} events with {@code phase: 'import'} meanwhile.
+     */
+    @ReactMethod
+    public void importBackup(final String path, final Promise promise) {
+        BACKUP_WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                File filesDir = getReactApplicationContext().getFilesDir();
+                try {
+                    int imported = NoteBackup.importArchive(store, new File(path), filesDir,
+                            new File(filesDir, BACKUP_IMPORT_DIR), backupProgress("import"));
+                    promise.resolve(imported);
+                } catch (Exception e) {
+                    WidgetLog.e("Backup import failed", e);
+                    promise.reject("ERROR", e.getMessage());
+                } finally {
+                    // Pages committed before a failure are in the store too
+                    notesChanged();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forwards backup progress to JS, at most every {@link #BACKUP_PROGRESS_INTERVAL_MILLIS}
+     * plus once at the end, so a backup of many small notes doesn't flood the bridge.
+     */
+    private NoteBackup.Progress backupProgress(final String phase) {
+        return new NoteBackup.Progress() {
+            private long lastSent;
+
+            @Override
+            public void onProgress(long bytes, long totalBytes, int notes, int totalNotes) {
+                long now = System.currentTimeMillis();
+                boolean done = bytes == totalBytes || notes == totalNotes;
+                if (!done && now - lastSent < BACKUP_PROGRESS_INTERVAL_MILLIS) {
+                    return;
+                }
+                ReactApplicationContext reactContext = getReactApplicationContext();
+                if (!reactContext.hasActiveReactInstance()) {
+                    return;
+                }
+                lastSent = now;
+                WritableMap event = Arguments.createMap();
+                event.putString("phase", phase);
+                event.putDouble("bytes", bytes);
+                event.putDouble("totalBytes", totalBytes);
+                event.putInt("notes", notes);
+                event.putInt("totalNotes", totalNotes);
+                reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                        .emit(EVENT_BACKUP_PROGRESS, event);
+            }
+        };
+    }
+
+    @Override
+    public void onHostResume() {
+    }
+
+    /**
+     * Rewrites the launch snapshot when the app goes to the background, rather than on
+     * every save, so it costs one write per session.
+     */
+    @Override
+    public void onHostPause() {
+        if (!LaunchSnapshot.isStale()) {
+            return;
+        }
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LaunchSnapshot.write(getReactApplicationContext(), store);
+                } catch (Exception e) {
+                    LaunchSnapshot.invalidate();
+                    WidgetLog.e("Could not write the launch snapshot", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onHostDestroy() {
+    }
+
+    /**
+     * Refreshes the widget and brings the search index up to date after a write.
+     */
+    private void notesChanged() {
+        LaunchSnapshot.invalidate();
+        WidgetUpdateScheduler.getInstance(getReactApplicationContext()).requestUpdate();
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    NoteSearch.getInstance(getReactApplicationContext()).update();
+                } catch (Exception e) {
+                    // The next search catches up instead
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs {@code body} through {@link NoteStore#runLogged}, and once its writes are on disk
+     * deletes the drawings they let go of in the background.
+     */
+    private void runLogged(final Runnable body, final NoteLogEntry writes, final NoteWriteLog.Callback callback) {
+        final List<String> released = new ArrayList<>();
+        store.runLogged(new Runnable() {
+            @Override
+            public void run() {
+                body.run();
+                if (!writes.isEmpty()) {
+                    released.addAll(store.takeReleasedDrawings());
+                }
+            }
+        }, writes, new NoteWriteLog.Callback() {
+            @Override
+            public void onDurable() {
+                callback.onDurable();
+                if (!released.isEmpty()) {
+                    deleteDrawings(released);
+                }
+            }
+
+            @Override
+            public void onFailed(IOException error) {
+                // The drawings are left for maintenance to collect
+                callback.onFailed(error);
+            }
+        });
+    }
+
+    private void deleteDrawings(final List<String> hashes) {
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store.deleteDrawings(hashes);
+                } catch (Exception e) {
+                    // Left for maintenance to collect
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a log callback that resolves {@code promise} with {@code value} once the
+     * writes are on disk.
+     */
+    private static NoteWriteLog.Callback resolveWhenDurable(final Promise promise, final Object value) {
+        return new NoteWriteLog.Callback() {
+            @Override
+            public void onDurable() {
+                promise.resolve(value);
+            }
+
+            @Override
+            public void onFailed(IOException error) {
+                promise.reject("ERROR", error.getMessage());
+            }
+        };
+    }
+
+    private static WritableMap toPage(List<NoteSummary> summaries, int limit) {
+        WritableArray notes = Arguments.createArray();
+        for (NoteSummary summary : summaries) {
+            WritableMap map = Arguments.createMap();
+            map.putString("id", summary.id);
+            map.putString("title", summary.title);
+            map.putString("preview", summary.preview);
+            map.putDouble("updatedAt", summary.updatedAt);
+            map.putBoolean("hasDrawing", summary.hasDrawing);
+            map.putBoolean("hasAudio", summary.hasAudio);
+            notes.pushMap(map);
+        }
+        WritableMap page = Arguments.createMap();
+        page.putArray("notes", notes);
+        if (summaries.size() == limit && limit > 0) {
+            page.putString("nextCursor", summaries.get(summaries.size() - 1).cursor());
+        } else {
+            page.putNull("nextCursor");
+        }
+        return page;
+    }
+
+    private static WritableArray toArray(int[] values) {
+        WritableArray array = Arguments.createArray();
+        for (int value : values) {
+            array.pushInt(value);
+        }
+        return array;
+    }
+
+    /**
+     * The body of a batch, run inside its transaction. Pushes one result per item and
+     * adds what it wrote to {@code writes}.
+     */
+    private interface Batch {
+        void apply(WritableArray results, NoteLogEntry writes);
+    }
+
+    private void runBatch(final Promise promise, final Batch batch) {
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final WritableArray results = Arguments.createArray();
+                    final NoteLogEntry writes = new NoteLogEntry();
+                    // One record, so recovery replays the whole batch or none of it
+                    runLogged(new Runnable() {
+                        @Override
+                        public void run() {
+                            batch.apply(results, writes);
+                        }
+                    }, writes, resolveWhenDurable(promise, results));
+                    if (writes.isEmpty()) {
+                        promise.resolve(results);
+                        return;
+                    }
+                    notesChanged();
+                } catch (Exception e) {
+                    promise.reject("ERROR", e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the record to write for a save: a new note when {@code noteMap} has no id,
+     * otherwise the stored note with the given fields applied. Returns null if the note
+     * to update doesn't exist.
+     */
+    private NoteRecord prepareSave(ReadableMap noteMap, long timestamp) {
+        String id = noteMap.hasKey("id") && !noteMap.isNull("id") ? noteMap.getString("id") : null;
+
+        NoteRecord note;
+        if (id != null && !id.isEmpty()) {
+            // Update existing note
+            note = store.get(id);
+            if (note == null) {
+                return null;
+            }
+            applyMap(noteMap, note);
+        } else {
+            // Create new note
+            note = new NoteRecord();
+            applyMap(noteMap, note);
+            note.id = UUID.randomUUID().toString();
+            note.createdAt = noteMap.hasKey("createdAt") && !noteMap.isNull("createdAt")
+                    ? (long) noteMap.getDouble("createdAt") : timestamp;
+        }
+        note.updatedAt = timestamp;
+        return note;
+    }
+
+    private static WritableMap success(String id) {
+        WritableMap result = Arguments.createMap();
+        result.putString("id", id);
+        result.putBoolean("ok", true);
+        return result;
+    }
+
+    private static WritableMap failure(String id, String error) {
+        WritableMap result = Arguments.createMap();
+        if (id != null) {
+            result.putString("id", id);
+        } else {
+            result.putNull("id");
+        }
+        result.putBoolean("ok", false);
+        result.putString("error", error);
+        return result;
+    }
+
+    /**
+     * Copies the fields present in {@code map} onto {@code note}, leaving the others as
+     * they are. An explicit null clears the drawing or the voice recording.
+     */
+    private static void applyMap(ReadableMap map, NoteRecord note) {
+        if (map.hasKey("title")) {
+            note.title = map.isNull("title") ? "" : map.getString("title");
+        }
+        if (map.hasKey("content")) {
+            note.content = map.isNull("content") ? "" : map.getString("content");
+        }
+        if (map.hasKey("drawingPaths")) {
+            // An empty drawing clears the stored one when the note is written
+            note.drawingPaths = map.isNull("drawingPaths") ? "" : map.getString("drawingPaths");
+        }
+        if (map.hasKey("audioPath")) {
+            note.audioPath = map.isNull("audioPath") ? null : map.getString("audioPath");
+        }
+    }
+
+    static WritableMap toMap(NoteRecord note) {
+        WritableMap map = Arguments.createMap();
+        map.putString("id", note.id);
+        map.putString("title", note.title);
+        map.putString("content", note.content);
+        if (note.drawingHash != null) {
+            map.putString("drawingHash", note.drawingHash);
+            map.putDouble("drawingSize", note.drawingSize);
+        }
+        if (note.audioPath != null) {
+            map.putString("audioPath", note.audioPath);
+        }
+        map.putDouble("createdAt", note.createdAt);
+        map.putDouble("updatedAt", note.updatedAt);
+        return map;
+    }
+}
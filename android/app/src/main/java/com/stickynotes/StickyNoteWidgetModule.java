@@ -5,18 +5,25 @@ import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 
+import com.facebook.react.bridge.ActivityEventListener;
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
-public class StickyNoteWidgetModule extends ReactContextBaseJavaModule {
+public class StickyNoteWidgetModule extends ReactContextBaseJavaModule implements ActivityEventListener {
     private final ReactApplicationContext reactContext;
 
     public StickyNoteWidgetModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        reactContext.addActivityEventListener(this);
     }
 
     @Override
@@ -26,21 +33,156 @@ public class StickyNoteWidgetModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void updateWidget(Promise promise) {
+        try {
+            // Bursts of calls are coalesced into a single refresh of every widget
+            WidgetUpdateScheduler.getInstance(reactContext).requestUpdate();
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void configureWidgetUpdates(double debounceMs, double maxLatencyMs, Promise promise) {
+        try {
+            WidgetUpdateScheduler.getInstance(reactContext).configure((long) debounceMs, (long) maxLatencyMs);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getWidgetUpdateStats(Promise promise) {
+        try {
+            WidgetUpdateScheduler scheduler = WidgetUpdateScheduler.getInstance(reactContext);
+            WritableMap stats = Arguments.createMap();
+            stats.putDouble("requested", scheduler.getRequestedCount());
+            stats.putDouble("executed", scheduler.getExecutedCount());
+            promise.resolve(stats);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns refresh latencies (count, mean, p50, p99 and max in milliseconds) for each
+     * pipeline stage, plus the pipeline's counters.
+     */
+    @ReactMethod
+    public void getWidgetMetrics(Promise promise) {
+        try {
+            WritableMap latencies = Arguments.createMap();
+            latencies.putMap("storageRead", toMap(WidgetMetrics.STORAGE_READ));
+            latencies.putMap("parse", toMap(WidgetMetrics.PARSE));
+            latencies.putMap("select", toMap(WidgetMetrics.SELECT));
+            latencies.putMap("bind", toMap(WidgetMetrics.BIND));
+            latencies.putMap("updateToRender", toMap(WidgetMetrics.UPDATE_TO_RENDER));
+
+            WidgetUpdateScheduler scheduler = WidgetUpdateScheduler.getInstance(reactContext);
+            WritableMap counters = Arguments.createMap();
+            counters.putDouble("refreshesRequested", scheduler.getRequestedCount());
+            counters.putDouble("refreshesExecuted", scheduler.getExecutedCount());
+            counters.putDouble("snapshotsBuilt", WidgetMetrics.SNAPSHOTS_BUILT.get());
+            counters.putDouble("snapshotsWritten", WidgetMetrics.SNAPSHOTS_WRITTEN.get());
+            counters.putDouble("rowsRendered", WidgetMetrics.ROWS_RENDERED.get());
+            counters.putDouble("rowsReused", WidgetMetrics.ROWS_REUSED.get());
+
+            WritableMap metrics = Arguments.createMap();
+            metrics.putMap("latencies", latencies);
+            metrics.putMap("counters", counters);
+            promise.resolve(metrics);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void resetWidgetMetrics(Promise promise) {
+        try {
+            WidgetMetrics.reset();
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns what the last background storage maintenance run did, or null if none ran
+     * yet. {@code completed} is false when it ran out of time and will resume later, and
+     * {@code compactable} is false for a database too old to be compacted a bit at a time.
+     */
+    @ReactMethod
+    public void getMaintenanceReport(Promise promise) {
+        try {
+            SharedPreferences prefs = MaintenanceJobService.report(reactContext);
+            if (!prefs.contains(MaintenanceJobService.KEY_LAST_RUN_AT)) {
+                promise.resolve(null);
+                return;
+            }
+            WritableMap report = Arguments.createMap();
+            report.putDouble("lastRunAt", prefs.getLong(MaintenanceJobService.KEY_LAST_RUN_AT, 0));
+            report.putDouble("durationMs", prefs.getLong(MaintenanceJobService.KEY_DURATION_MS, 0));
+            report.putDouble("bytesReclaimed", prefs.getLong(MaintenanceJobService.KEY_BYTES_RECLAIMED, 0));
+            report.putBoolean("completed", prefs.getBoolean(MaintenanceJobService.KEY_COMPLETED, false));
+            report.putInt("failures", prefs.getInt(MaintenanceJobService.KEY_FAILURES, 0));
+            report.putBoolean("compactable", prefs.getBoolean(MaintenanceJobService.KEY_COMPACTABLE, true));
+            promise.resolve(report);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    private static WritableMap toMap(LatencyHistogram histogram) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("meanMs", histogram.getMean() / 1000.0);
+        map.putDouble("p50Ms", histogram.getPercentile(50) / 1000.0);
+        map.putDouble("p99Ms", histogram.getPercentile(99) / 1000.0);
+        map.putDouble("maxMs", histogram.getMax() / 1000.0);
+        return map;
+    }
+
+    @ReactMethod
+    public void getWidgetIds(Promise promise) {
+        try {
+            Context context = reactContext.getApplicationContext();
+            int[] appWidgetIds = AppWidgetManager.getInstance(context)
+                    .getAppWidgetIds(new ComponentName(context, StickyNoteWidgetProvider.class));
+            WritableArray ids = Arguments.createArray();
+            for (int appWidgetId : appWidgetIds) {
+                ids.pushInt(appWidgetId);
+            }
+            promise.resolve(ids);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void setWidgetSlotCount(int appWidgetId, int slotCount, Promise promise) {
+        try {
+            Context context = reactContext.getApplicationContext();
+            WidgetSettings.setSlotCount(context, appWidgetId, slotCount);
+            WidgetSnapshotBuilder.getInstance(context).configChanged();
+            AppWidgetManager.getInstance(context).notifyAppWidgetViewDataChanged(appWidgetId, R.id.widget_list);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Sets where a widget's rows come from: "pinnedAndRecent", "pinned", "recent" or
+     * "search", with {@code query} used by the last one.
+     */
+    @ReactMethod
+    public void setWidgetConfig(int appWidgetId, String source, int slotCount, String query, Promise promise) {
         try {
             Context context = reactContext.getApplicationContext();
-            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-            ComponentName thisWidget = new ComponentName(context, StickyNoteWidgetProvider.class);
-            int[] appWidgetIds = appWidgetManager.getAppWidgetIds(thisWidget);
-            
-            // Update all widgets
-            Intent intent = new Intent(context, StickyNoteWidgetProvider.class);
-            intent.setAction(StickyNoteWidgetProvider.ACTION_WIDGET_UPDATE);
-            intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, appWidgetIds);
-            context.sendBroadcast(intent);
-            
-            // Notify data changed
-            appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetIds, R.id.widget_list);
-            
+            WidgetSettings.setConfig(context, appWidgetId, WidgetConfig.of(source, slotCount, query));
+            WidgetSnapshotBuilder.getInstance(context).configChanged();
+            AppWidgetManager.getInstance(context).notifyAppWidgetViewDataChanged(appWidgetId, R.id.widget_list);
             promise.resolve(true);
         } catch (Exception e) {
             promise.reject("ERROR", e.getMessage());
@@ -48,18 +190,61 @@ public class StickyNoteWidgetModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void openNoteFromWidget(String noteId, Promise promise) {
+    public void getWidgetConfig(int appWidgetId, Promise promise) {
         try {
-            Activity currentActivity = getCurrentActivity();
-            if (currentActivity != null) {
-                // Handle opening a specific note from the widget
-                // This would typically navigate to the note detail screen
-                promise.resolve(true);
+            WidgetConfig config = WidgetSettings.getConfig(reactContext.getApplicationContext(), appWidgetId);
+            WritableMap map = Arguments.createMap();
+            map.putString("source", config.source);
+            map.putInt("slotCount", config.slots);
+            if (config.query != null) {
+                map.putString("query", config.query);
             } else {
-                promise.reject("ERROR", "No activity available");
+                map.putNull("query");
             }
+            promise.resolve(map);
         } catch (Exception e) {
             promise.reject("ERROR", e.getMessage());
         }
     }
+
+    /**
+     * Resolves with the note tapped in the widget, usually already loaded by the time JS
+     * asks, or null if it no longer exists.
+     */
+    @ReactMethod
+    public void openNoteFromWidget(String noteId, final Promise promise) {
+        // May wait for the prefetch, so not on the module thread
+        WidgetNoteOpener.takeInBackground(reactContext, noteId, new WidgetNoteOpener.Callback() {
+            @Override
+            public void onTaken(NoteRecord note) {
+                promise.resolve(note != null ? StickyNoteStoreModule.toMap(note) : null);
+            }
+
+            @Override
+            public void onFailed(Exception error) {
+                promise.reject("ERROR", error.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+        // The widget never starts activities for a result
+    }
+
+    /**
+     * A widget tap while the app is running brings MainActivity back with a new intent
+     * rather than restarting it, so tell JS which note to open.
+     */
+    @Override
+    public void onNewIntent(Intent intent) {
+        String noteId = intent.getStringExtra(WidgetNoteOpener.EXTRA_NOTE_ID);
+        if (noteId == null || !reactContext.hasActiveReactInstance()) {
+            return;
+        }
+        WritableMap event = Arguments.createMap();
+        event.putString(WidgetNoteOpener.KEY_NOTE_ID, noteId);
+        reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(WidgetNoteOpener.EVENT_NOTE_OPENED, event);
+    }
 }
@@ -19,6 +19,8 @@ public class StickyNoteWidgetPackage implements ReactPackage {
     public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
         List<NativeModule> modules = new ArrayList<>();
         modules.add(new StickyNoteWidgetModule(reactContext));
+        modules.add(new StickyNoteStoreModule(reactContext));
+        modules.add(new StickyVoiceNoteModule(reactContext));
         return modules;
     }
 }
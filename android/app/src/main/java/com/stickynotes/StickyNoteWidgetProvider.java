@@ -23,8 +23,6 @@ public class StickyNoteWidgetProvider extends AppWidgetProvider {
 
     static void updateAppWidget(Context context, AppWidgetManager appWidgetManager,
                                 int appWidgetId) {
-        android.util.Log.d("StickyWidget", "Updating widget with ID: " + appWidgetId);
-
         // Construct the RemoteViews object
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.sticky_note_widget);
 
@@ -58,17 +56,14 @@ public class StickyNoteWidgetProvider extends AppWidgetProvider {
                 refreshIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
         views.setOnClickPendingIntent(R.id.widget_title, refreshPendingIntent);
 
-        // Instruct the widget manager to update the widget
+        // Instruct the widget manager to update the widget. Callers notify the list's
+        // data change once for all widgets, see WidgetUpdateScheduler
         appWidgetManager.updateAppWidget(appWidgetId, views);
-        
-        // Immediately notify the widget that data might have changed
-        appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetId, R.id.widget_list);
-        android.util.Log.d("StickyWidget", "Widget update completed and data change notified");
     }
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        android.util.Log.d("StickyWidget", "onUpdate called for " + appWidgetIds.length + " widgets");
+        WidgetLog.d("onUpdate called for {} widgets", appWidgetIds.length);
         // There may be multiple widgets active, so update all of them
         for (int appWidgetId : appWidgetIds) {
             updateAppWidget(context, appWidgetManager, appWidgetId);
@@ -79,39 +74,29 @@ public class StickyNoteWidgetProvider extends AppWidgetProvider {
     public void onReceive(Context context, Intent intent) {
         super.onReceive(context, intent);
 
-        android.util.Log.d("StickyWidget", "onReceive action: " + intent.getAction());
+        WidgetLog.d("onReceive action: {}", intent.getAction());
 
         if (ACTION_WIDGET_UPDATE.equals(intent.getAction())) {
-            // Update all widgets
-            android.util.Log.d("StickyWidget", "Processing widget update action");
-            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-            int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
-                    intent.getComponent());
-            android.util.Log.d("StickyWidget", "Found " + appWidgetIds.length + " widgets to update");
-            
-            // Force data reload in widget service
-            for (int appWidgetId : appWidgetIds) {
-                updateAppWidget(context, appWidgetManager, appWidgetId);
-            }
-            
-            appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetIds, R.id.widget_list);
+            // Update all widgets, folded in with any refresh already pending
+            WidgetUpdateScheduler.getInstance(context).requestUpdate();
         } else if (ACTION_WIDGET_CLICK.equals(intent.getAction())) {
             // Handle note click - launch the app with the specific note
-            android.util.Log.d("StickyWidget", "Processing widget click action");
             String noteId = intent.getStringExtra(EXTRA_NOTE_ID);
             if (noteId != null) {
-                android.util.Log.d("StickyWidget", "Opening note with ID: " + noteId);
-                
+                WidgetLog.d("Opening note with ID: {}", noteId);
+                // Load the note while the app starts, so JS doesn't have to query for it
+                WidgetNoteOpener.prefetch(context, noteId);
+
                 // Launch the main activity with the note ID and edit flag
                 Intent launchIntent = new Intent(context, MainActivity.class);
-                launchIntent.putExtra("note_id", noteId);
+                launchIntent.putExtra(WidgetNoteOpener.EXTRA_NOTE_ID, noteId);
                 launchIntent.putExtra("edit_mode", true); // Add flag to open note in edit mode
                 launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
                 
                 // Start the activity directly - we can't use animations from a non-activity context
                 context.startActivity(launchIntent);
             } else {
-                android.util.Log.w("StickyWidget", "Note click received but no note ID found");
+                WidgetLog.w("Note click received but no note ID found");
                 
                 // If no note ID, just open the app
                 Intent launchIntent = new Intent(context, MainActivity.class);
@@ -123,13 +108,21 @@ public class StickyNoteWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onEnabled(Context context) {
-        android.util.Log.d("StickyWidget", "Widget enabled for the first time");
+        WidgetLog.d("Widget enabled for the first time");
         // Trigger an update when widget is first enabled
         Intent updateIntent = new Intent(context, StickyNoteWidgetProvider.class);
         updateIntent.setAction(ACTION_WIDGET_UPDATE);
         context.sendBroadcast(updateIntent);
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            WidgetSettings.remove(context, appWidgetId);
+            WidgetSnapshotBuilder.getInstance(context).forget(appWidgetId);
+        }
+    }
+
     @Override
     public void onDisabled(Context context) {
         // Enter relevant functionality for when the last widget is disabled
@@ -0,0 +1,78 @@
+package com.stickynotes;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Exposes {@link VoiceNotes} to JS as {@code NativeModules.StickyVoiceNotes}. Info is
+ * resolved as {@code {durationMs, peaks}}, with peaks from 0 to 255 spread evenly over
+ * the recording.
+ */
+public class StickyVoiceNoteModule extends ReactContextBaseJavaModule {
+    public StickyVoiceNoteModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+    }
+
+    @Override
+    public String getName() {
+        return "StickyVoiceNotes";
+    }
+
+    /**
+     * Resolves with the info of the note's recording from its sidecar, or null if the
+     * note has no recording or it hasn't been processed yet, in which case processing
+     * is queued. Never decodes the recording itself.
+     */
+    @ReactMethod
+    public void getVoiceNoteInfo(String noteId, Promise promise) {
+        try {
+            NoteRecord note = NoteStore.getInstance(getReactApplicationContext()).get(noteId);
+            if (note == null || note.audioPath == null) {
+                promise.resolve(null);
+                return;
+            }
+            VoiceNoteInfo info = VoiceNotes.getInfo(getReactApplicationContext(), note.audioPath);
+            if (info == null && VoiceNotes.audioFile(note.audioPath).isFile()) {
+                VoiceNotes.processLater(getReactApplicationContext(), note.audioPath);
+            }
+            promise.resolve(info != null ? toMap(info) : null);
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * Re-encodes the recording and computes its info in the background if that hasn't
+     * been done yet, and resolves with the info.
+     */
+    @ReactMethod
+    public void processVoiceNote(String audioPath, final Promise promise) {
+        VoiceNotes.processInBackground(getReactApplicationContext(), audioPath, new VoiceNotes.Callback() {
+            @Override
+            public void onProcessed(VoiceNoteInfo info) {
+                promise.resolve(toMap(info));
+            }
+
+            @Override
+            public void onFailed(Exception error) {
+                promise.reject("ERROR", error.getMessage());
+            }
+        });
+    }
+
+    private static WritableMap toMap(VoiceNoteInfo info) {
+        WritableArray peaks = Arguments.createArray();
+        for (byte peak : info.peaks) {
+            peaks.pushInt(peak & 0xff);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putDouble("durationMs", info.durationMs);
+        map.putArray("peaks", peaks);
+        return map;
+    }
+}
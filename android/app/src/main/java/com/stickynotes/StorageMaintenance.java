@@ -0,0 +1,153 @@
+package com.stickynotes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs storage maintenance tasks in order, a small step at a time, within a time budget.
+ *
+ * <p>Between steps the runner checks whether it was cancelled or ran out of time, and
+ * if so stops and reports which task it was in, so the next run starts there instead of
+ * from the beginning. Each step has to be short and leave storage consistent, as the
+ * process may be told to stop at any point between two steps.
+ */
+final class StorageMaintenance {
+    /**
+     * One kind of maintenance, done in steps. A task may be started over by a later run,
+     * so repeating steps it already did must be harmless.
+     */
+    interface Task {
+        String name();
+
+        /**
+         * Does one short step of the task, adding what it freed to {@code result}.
+         *
+         * @return true once the task is done
+         */
+        boolean step(Result result) throws Exception;
+    }
+
+    /**
+     * What one run did.
+     */
+    static final class Result {
+        long bytesReclaimed;
+        int steps;
+        // Index of the first task not finished, or the task count once all are
+        int nextTask;
+        boolean cancelled;
+        long durationNanos;
+        // Tasks that threw, with the error, for the caller to log
+        final List<String> failures = new ArrayList<>();
+
+        boolean isComplete(int taskCount) {
+            return nextTask >= taskCount;
+        }
+    }
+
+    /**
+     * Reads the time; swapped out by tests.
+     */
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private StorageMaintenance() {
+    }
+
+    /**
+     * Deletes the files in a directory that {@link Check} finds orphaned, looking at
+     * {@link #BATCH_SIZE} files per step.
+     */
+    static final class FileSweep implements Task {
+        static final int BATCH_SIZE = 32;
+
+        /**
+         * Decides whether a file is no longer needed.
+         */
+        interface Check {
+            boolean isOrphan(File file) throws Exception;
+        }
+
+        private final String name;
+        private final File dir;
+        private final Check check;
+        private File[] files;
+        private int position;
+        int deleted;
+
+        FileSweep(String name, File dir, Check check) {
+            this.name = name;
+            this.dir = dir;
+            this.check = check;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean step(Result result) throws Exception {
+            if (files == null) {
+                File[] listed = dir.listFiles();
+                files = listed != null ? listed : new File[0];
+                return files.length == 0;
+            }
+            int end = Math.min(files.length, position + BATCH_SIZE);
+            for (; position < end; position++) {
+                File file = files[position];
+                if (!file.isFile() || !check.isOrphan(file)) {
+                    continue;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    result.bytesReclaimed += length;
+                    deleted++;
+                }
+            }
+            return position >= files.length;
+        }
+    }
+
+    /**
+     * Runs {@code tasks} from {@code firstTask} until all are done, {@code cancelled} is
+     * set, or {@code budgetNanos} have passed. A task whose step throws is skipped, so
+     * one broken task doesn't keep the others from ever running.
+     */
+    static Result run(List<Task> tasks, int firstTask, long budgetNanos, AtomicBoolean cancelled, Clock clock) {
+        Result result = new Result();
+        long start = clock.nanoTime();
+        int index = Math.max(0, Math.min(firstTask, tasks.size()));
+        while (index < tasks.size()) {
+            if (cancelled.get() || clock.nanoTime() - start >= budgetNanos) {
+                result.cancelled = cancelled.get();
+                break;
+            }
+            Task task = tasks.get(index);
+            boolean done;
+            try {
+                done = task.step(result);
+            } catch (Exception e) {
+                result.failures.add(task.name() + ": " + e);
+                done = true;
+            }
+            result.steps++;
+            if (done) {
+                index++;
+            }
+        }
+        result.nextTask = index;
+        result.durationNanos = clock.nanoTime() - start;
+        return result;
+    }
+}
@@ -0,0 +1,102 @@
+package com.stickynotes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * What the app shows for a voice note without decoding it: its duration and waveform
+ * peaks, kept in a small sidecar file next to the other voice note data.
+ *
+ * <p>The sidecar records which file it describes, and that file's size and modification
+ * time, so a recording that was replaced or deleted afterwards can be told apart from
+ * the one it was computed for.
+ */
+final class VoiceNoteInfo {
+    private static final int MAGIC = 0x534e564e; // "SNVN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_PEAKS = 4096;
+
+    final String audioPath;
+    final long audioLength;
+    final long audioModified;
+    final long durationMs;
+    /**
+     * Peaks from 0 to 255 as unsigned bytes, evenly spread over the recording.
+     */
+    final byte[] peaks;
+
+    VoiceNoteInfo(String audioPath, long audioLength, long audioModified, long durationMs, byte[] peaks) {
+        this.audioPath = audioPath;
+        this.audioLength = audioLength;
+        this.audioModified = audioModified;
+        this.durationMs = durationMs;
+        this.peaks = peaks;
+    }
+
+    /**
+     * Whether this still describes {@code audio} as it is on disk.
+     */
+    boolean isCurrentFor(File audio) {
+        return audio.getPath().equals(audioPath) && audio.length() == audioLength
+                && audio.lastModified() == audioModified;
+    }
+
+    /**
+     * Writes the sidecar to a temporary file and renames it into place, so a reader
+     * never sees half of one.
+     */
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(audioPath);
+            out.writeLong(audioLength);
+            out.writeLong(audioModified);
+            out.writeLong(durationMs);
+            out.writeInt(peaks.length);
+            out.write(peaks);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    /**
+     * Returns the sidecar in {@code file}, or null if there is none.
+     *
+     * @throws IOException if the file isn't a sidecar this version can read
+     */
+    static VoiceNoteInfo read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a voice note sidecar: " + file);
+            }
+            String audioPath = in.readUTF();
+            long audioLength = in.readLong();
+            long audioModified = in.readLong();
+            long durationMs = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_PEAKS) {
+                throw new IOException("Corrupt voice note sidecar: " + file);
+            }
+            byte[] peaks = new byte[count];
+            in.readFully(peaks);
+            return new VoiceNoteInfo(audioPath, audioLength, audioModified, durationMs, peaks);
+        } finally {
+            in.close();
+        }
+    }
+}
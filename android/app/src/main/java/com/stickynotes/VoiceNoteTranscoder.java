@@ -0,0 +1,273 @@
+package com.stickynotes;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes a recording with {@link MediaCodec}, feeding its PCM to {@link WaveformPeaks}
+ * and, when given a target, re-encoding it as mono AAC-LC at {@link #BIT_RATE} into an
+ * MPEG-4 file. Voice needs neither stereo nor the recorder's default bitrate, so the
+ * re-encoded file is a fraction of the original's size.
+ *
+ * <p>One instance transcodes one file. PCM goes straight from the decoder's output
+ * buffers to the encoder's input buffers through one reusable sample array, so memory
+ * doesn't depend on the recording's length.
+ */
+final class VoiceNoteTranscoder {
+    static final int BIT_RATE = 32000;
+
+    private static final long TIMEOUT_US = 10000;
+    private static final int MAX_INPUT_SIZE = 16 * 1024;
+
+    private final File source;
+    private final File target;
+    private final WaveformPeaks peaks;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private MediaExtractor extractor;
+    private MediaCodec decoder;
+    private MediaCodec encoder;
+    private MediaMuxer muxer;
+    private int muxerTrack = -1;
+
+    private int sampleRate;
+    private int channels;
+    // Decoded samples, interleaved, then downmixed to mono in place
+    private short[] samples = new short[0];
+    private long monoFramesQueued;
+
+    /**
+     * @param target where to write the re-encoded recording, or null to only compute peaks
+     */
+    VoiceNoteTranscoder(File source, File target, WaveformPeaks peaks) {
+        this.source = source;
+        this.target = target;
+        this.peaks = peaks;
+    }
+
+    /**
+     * Runs the transcode and returns the recording's duration.
+     *
+     * @throws IOException if the recording can't be read or encoding fails; the target
+     *                     may then hold a partial file
+     */
+    long run() throws IOException {
+        try {
+            extractor = new MediaExtractor();
+            extractor.setDataSource(source.getPath());
+            MediaFormat format = selectAudioTrack();
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+            decode();
+            if (encoder != null) {
+                finishEncoding();
+            }
+            return sampleRate > 0 ? peaks.frames() * 1000 / sampleRate : 0;
+        } catch (IllegalStateException e) {
+            // How MediaCodec reports codec errors
+            throw new IOException("Could not transcode " + source, e);
+        } finally {
+            release();
+        }
+    }
+
+    private MediaFormat selectAudioTrack() throws IOException {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new IOException("No audio track in " + source);
+    }
+
+    private void decode() throws IOException {
+        boolean inputDone = false;
+        while (true) {
+            if (!inputDone) {
+                int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+                if (index >= 0) {
+                    ByteBuffer buffer = decoder.getInputBuffer(index);
+                    int size = extractor.readSampleData(buffer, 0);
+                    if (size < 0) {
+                        decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int index = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // The actual PCM layout, which may differ from what the container said
+                MediaFormat format = decoder.getOutputFormat();
+                sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            } else if (index >= 0) {
+                boolean end = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                if (info.size > 0) {
+                    ByteBuffer buffer = decoder.getOutputBuffer(index);
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    int count = readSamples(buffer);
+                    decoder.releaseOutputBuffer(index, false);
+                    peaks.add(samples, 0, count, channels);
+                    if (target != null) {
+                        encode(downmix(count));
+                    }
+                } else {
+                    decoder.releaseOutputBuffer(index, false);
+                }
+                if (end) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int readSamples(ByteBuffer buffer) {
+        ShortBuffer pcm = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+        int count = pcm.remaining();
+        if (samples.length < count) {
+            samples = new short[count];
+        }
+        pcm.get(samples, 0, count);
+        return count;
+    }
+
+    /**
+     * Averages each frame's channels into the start of {@link #samples}, and returns the
+     * number of frames.
+     */
+    private int downmix(int count) {
+        if (channels == 1) {
+            return count;
+        }
+        int frames = count / channels;
+        for (int frame = 0; frame < frames; frame++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += samples[frame * channels + c];
+            }
+            samples[frame] = (short) (sum / channels);
+        }
+        return frames;
+    }
+
+    private void encode(int frames) throws IOException {
+        if (encoder == null) {
+            startEncoder();
+        }
+        int written = 0;
+        while (written < frames) {
+            int index = encoder.dequeueInputBuffer(TIMEOUT_US);
+            if (index < 0) {
+                drainEncoder(false);
+                continue;
+            }
+            ByteBuffer buffer = encoder.getInputBuffer(index);
+            buffer.clear();
+            int n = Math.min(frames - written, buffer.remaining() / 2);
+            buffer.order(ByteOrder.nativeOrder()).asShortBuffer().put(samples, written, n);
+            encoder.queueInputBuffer(index, 0, n * 2, monoFramesQueued * 1000000L / sampleRate, 0);
+            written += n;
+            monoFramesQueued += n;
+            drainEncoder(false);
+        }
+    }
+
+    private void startEncoder() throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, 1);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_SIZE);
+        encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.start();
+        muxer = new MediaMuxer(target.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    private void finishEncoding() throws IOException {
+        int index;
+        while ((index = encoder.dequeueInputBuffer(TIMEOUT_US)) < 0) {
+            drainEncoder(false);
+        }
+        encoder.queueInputBuffer(index, 0, 0, monoFramesQueued * 1000000L / sampleRate,
+                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        drainEncoder(true);
+        muxer.stop();
+    }
+
+    /**
+     * Writes the encoder's finished output to the muxer. With {@code untilEnd}, waits for
+     * the end of the stream rather than returning once no output is ready.
+     */
+    private void drainEncoder(boolean untilEnd) throws IOException {
+        while (true) {
+            int index = encoder.dequeueOutputBuffer(info, untilEnd ? TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!untilEnd) {
+                    return;
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (muxerTrack >= 0) {
+                    throw new IOException("Encoder format changed twice");
+                }
+                muxerTrack = muxer.addTrack(encoder.getOutputFormat());
+                muxer.start();
+            } else if (index >= 0) {
+                boolean end = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                // Codec config is already in the track format the muxer was given
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                    if (muxerTrack < 0) {
+                        throw new IOException("Encoder output before its format");
+                    }
+                    ByteBuffer buffer = encoder.getOutputBuffer(index);
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    muxer.writeSampleData(muxerTrack, buffer, info);
+                }
+                encoder.releaseOutputBuffer(index, false);
+                if (end) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void release() {
+        if (decoder != null) {
+            decoder.release();
+        }
+        if (encoder != null) {
+            encoder.release();
+        }
+        if (muxer != null) {
+            try {
+                muxer.release();
+            } catch (IllegalStateException e) {
+                // Never started, so nothing was written
+            }
+        }
+        if (extractor != null) {
+            extractor.release();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.stickynotes;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Processes voice notes in the background once they are saved: re-encodes recordings
+ * the app made into a compact format with {@link VoiceNoteTranscoder}, and writes a
+ * {@link VoiceNoteInfo} sidecar with the duration and waveform peaks, so lists and
+ * players can show both without decoding the recording.
+ *
+ * <p>The re-encoded file replaces the recording under the same path, so notes keep
+ * referring to it unchanged. Only recordings in the app's own files directory are
+ * replaced, and only when that saves a meaningful amount of space; anything else just
+ * gets its sidecar.
+ */
+final class VoiceNotes {
+    static final int PEAK_COUNT = 128;
+    static final String SIDECAR_DIR = "voice_notes";
+    static final String SIDECAR_SUFFIX = ".peaks";
+
+    static final String TRANSCODE_SUFFIX = ".transcode";
+
+    /**
+     * Told the outcome of {@link #processInBackground}, on the background thread.
+     */
+    interface Callback {
+        void onProcessed(VoiceNoteInfo info);
+
+        void onFailed(Exception error);
+    }
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StickyVoiceNotes");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    // Paths waiting on the worker, so repeated requests queue one job
+    private static final Set<String> queued = new HashSet<>();
+
+    private VoiceNotes() {
+    }
+
+    /**
+     * Returns the voice note's duration and peaks if they have been computed for the
+     * recording as it is now, or null otherwise.
+     */
+    static VoiceNoteInfo getInfo(Context context, String audioPath) {
+        File audio = audioFile(audioPath);
+        try {
+            VoiceNoteInfo info = VoiceNoteInfo.read(sidecarFor(context, audio));
+            return info != null && info.isCurrentFor(audio) ? info : null;
+        } catch (IOException e) {
+            WidgetLog.e("Unreadable voice note sidecar", e);
+            return null;
+        }
+    }
+
+    /**
+     * Processes the recording on the background thread unless that is already queued.
+     */
+    static void processLater(Context context, final String audioPath) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (queued) {
+            if (!queued.add(audioPath)) {
+                return;
+            }
+        }
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (queued) {
+                    queued.remove(audioPath);
+                }
+                try {
+                    process(appContext, audioPath);
+                } catch (Exception e) {
+                    WidgetLog.e("Could not process voice note", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes the recording on the background thread, after any queued ones.
+     */
+    static void processInBackground(Context context, final String audioPath, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                VoiceNoteInfo info;
+                try {
+                    info = process(appContext, audioPath);
+                } catch (Exception e) {
+                    callback.onFailed(e);
+                    return;
+                }
+                callback.onProcessed(info);
+            }
+        });
+    }
+
+    /**
+     * Processes the recording on the calling thread, unless its sidecar is current, and
+     * returns its info.
+     */
+    static VoiceNoteInfo process(Context context, String audioPath) throws IOException {
+        File audio = audioFile(audioPath);
+        if (!audio.isFile()) {
+            throw new FileNotFoundException("No recording at " + audioPath);
+        }
+        VoiceNoteInfo info = getInfo(context, audioPath);
+        if (info != null) {
+            return info;
+        }
+
+        long start = System.nanoTime();
+        long originalLength = audio.length();
+        long originalModified = audio.lastModified();
+        WaveformPeaks peaks = new WaveformPeaks(PEAK_COUNT);
+        long durationMs;
+        File transcoded = null;
+        if (isOwnRecording(context, audio)) {
+            transcoded = new File(audio.getParentFile(), "." + audio.getName() + TRANSCODE_SUFFIX);
+            try {
+                durationMs = new VoiceNoteTranscoder(audio, transcoded, peaks).run();
+            } catch (IOException e) {
+                // Some devices lack an AAC encoder; peaks only need the decoder
+                WidgetLog.e("Could not re-encode voice note", e);
+                transcoded.delete();
+                transcoded = null;
+                peaks = new WaveformPeaks(PEAK_COUNT);
+                durationMs = new VoiceNoteTranscoder(audio, null, peaks).run();
+            }
+        } else {
+            durationMs = new VoiceNoteTranscoder(audio, null, peaks).run();
+        }
+
+        if (transcoded != null) {
+            // Replace only if it saves a fifth, and only the recording that was read
+            if (transcoded.length() > 0 && transcoded.length() < originalLength * 4 / 5
+                    && audio.length() == originalLength && audio.lastModified() == originalModified) {
+                sync(transcoded);
+                if (transcoded.renameTo(audio)) {
+                    WidgetLog.d("Re-encoded voice note from {} to {} bytes", originalLength, audio.length());
+                }
+            }
+            transcoded.delete();
+        }
+
+        File sidecar = sidecarFor(context, audio);
+        File dir = sidecar.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        info = new VoiceNoteInfo(audio.getPath(), audio.length(), audio.lastModified(), durationMs,
+                peaks.toBytes());
+        info.write(sidecar);
+        WidgetLog.d("Processed voice note in {} ms", (System.nanoTime() - start) / 1000000);
+        return info;
+    }
+
+    /**
+     * Returns where the sidecar for {@code audio} lives. Named by a hash of the path, as
+     * recordings in different directories may share a name.
+     */
+    static File sidecarFor(Context context, File audio) {
+        return new File(new File(context.getFilesDir(), SIDECAR_DIR),
+                Long.toHexString(WidgetNote.stableId(audio.getPath())) + SIDECAR_SUFFIX);
+    }
+
+    static File audioFile(String audioPath) {
+        return new File(audioPath.startsWith("file://") ? audioPath.substring("file://".length()) : audioPath);
+    }
+
+    private static boolean isOwnRecording(Context context, File audio) {
+        File parent = audio.getAbsoluteFile().getParentFile();
+        return parent != null && parent.equals(context.getFilesDir().getAbsoluteFile())
+                && audio.getName().startsWith("sticky_note_");
+    }
+
+    private static void sync(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.stickynotes;
+
+/**
+ * Reduces 16-bit PCM to a fixed number of peaks for drawing a voice note's waveform,
+ * fed a buffer at a time while the recording is decoded.
+ *
+ * <p>The length of a recording isn't known until it has been decoded, so each peak
+ * starts out covering {@link #INITIAL_FRAMES_PER_PEAK} frames. Whenever the peaks fill
+ * up, neighbouring pairs are merged and each peak covers twice as many frames from then
+ * on. Memory stays at {@code capacity} ints however long the recording is, and the
+ * result has between half of {@code capacity} and {@code capacity} peaks, each the
+ * loudest sample of an equal stretch of the recording.
+ */
+final class WaveformPeaks {
+    static final int INITIAL_FRAMES_PER_PEAK = 256;
+
+    private final int[] peaks;
+    private int count;
+    private long framesPerPeak = INITIAL_FRAMES_PER_PEAK;
+    // The peak being accumulated, and how many frames it covers so far
+    private int current;
+    private long currentFrames;
+    private long frames;
+
+    /**
+     * @param capacity the most peaks to keep; must be even
+     */
+    WaveformPeaks(int capacity) {
+        if (capacity < 2 || capacity % 2 != 0) {
+            throw new IllegalArgumentException("Capacity must be even: " + capacity);
+        }
+        this.peaks = new int[capacity];
+    }
+
+    /**
+     * Adds interleaved samples. A frame's peak is the loudest of its channels.
+     *
+     * @param length number of samples, a multiple of {@code channels}
+     */
+    void add(short[] samples, int offset, int length, int channels) {
+        int end = offset + length - length % channels;
+        for (int i = offset; i < end; i += channels) {
+            int loudest = 0;
+            for (int c = 0; c < channels; c++) {
+                int sample = samples[i + c];
+                int magnitude = sample < 0 ? -sample : sample;
+                if (magnitude > loudest) {
+                    loudest = magnitude;
+                }
+            }
+            if (loudest > current) {
+                current = loudest;
+            }
+            frames++;
+            if (++currentFrames == framesPerPeak) {
+                int peak = current;
+                current = 0;
+                currentFrames = 0;
+                push(peak);
+            }
+        }
+    }
+
+    private void push(int peak) {
+        if (count == peaks.length) {
+            for (int i = 0; i < count / 2; i++) {
+                peaks[i] = Math.max(peaks[2 * i], peaks[2 * i + 1]);
+            }
+            count /= 2;
+            framesPerPeak *= 2;
+            // The peak being pushed covered the old stretch; it starts the next merged one
+            current = peak;
+            currentFrames = framesPerPeak / 2;
+            return;
+        }
+        peaks[count++] = peak;
+    }
+
+    /**
+     * Returns how many frames were added.
+     */
+    long frames() {
+        return frames;
+    }
+
+    /**
+     * Returns the peaks so far, scaled from full-scale 16-bit to 0-255 and stored as
+     * unsigned bytes. A partly filled last peak is included.
+     */
+    byte[] toBytes() {
+        int total = count + (currentFrames > 0 ? 1 : 0);
+        byte[] bytes = new byte[total];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = scale(peaks[i]);
+        }
+        if (total > count) {
+            bytes[count] = scale(current);
+        }
+        return bytes;
+    }
+
+    private static byte scale(int peak) {
+        return (byte) Math.min(255, (peak * 255 + 16384) / 32767);
+    }
+}
@@ -0,0 +1,84 @@
+package com.stickynotes;
+
+/**
+ * What a widget shows: where its rows come from and how many there are. Widgets with
+ * equal configurations show the same rows, so {@link WidgetSnapshotBuilder} builds one
+ * snapshot per configuration and shares it between them.
+ */
+final class WidgetConfig {
+    /**
+     * Pinned notes in pin order, topped up with the most recent ones. The default.
+     */
+    static final String SOURCE_PINNED_AND_RECENT = "pinnedAndRecent";
+    static final String SOURCE_PINNED = "pinned";
+    static final String SOURCE_RECENT = "recent";
+    /**
+     * The best matches for a search query.
+     */
+    static final String SOURCE_SEARCH = "search";
+
+    static final WidgetConfig DEFAULT =
+            new WidgetConfig(SOURCE_PINNED_AND_RECENT, WidgetSettings.DEFAULT_SLOTS, null);
+
+    final String source;
+    final int slots;
+    // Only set for SOURCE_SEARCH
+    final String query;
+
+    private WidgetConfig(String source, int slots, String query) {
+        this.source = source;
+        this.slots = slots;
+        this.query = query;
+    }
+
+    /**
+     * Returns the configuration, falling back to the default source for unknown ones
+     * and clamping {@code slots} to what a widget can show.
+     */
+    static WidgetConfig of(String source, int slots, String query) {
+        if (!SOURCE_PINNED.equals(source) && !SOURCE_RECENT.equals(source)
+                && !SOURCE_SEARCH.equals(source)) {
+            source = SOURCE_PINNED_AND_RECENT;
+        }
+        if (SOURCE_SEARCH.equals(source)) {
+            query = query != null ? query.trim() : "";
+        } else {
+            query = null;
+        }
+        return new WidgetConfig(source, Math.max(1, Math.min(slots, WidgetSettings.MAX_SLOTS)), query);
+    }
+
+    /**
+     * Whether the rows depend on which notes are pinned.
+     */
+    boolean usesPins() {
+        return SOURCE_PINNED_AND_RECENT.equals(source) || SOURCE_PINNED.equals(source);
+    }
+
+    /**
+     * Returns a name for files kept per configuration, the same on every run.
+     */
+    String fileKey() {
+        return source + "-" + slots + (query != null ? "-" + Long.toHexString(WidgetNote.stableId(query)) : "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WidgetConfig)) {
+            return false;
+        }
+        WidgetConfig other = (WidgetConfig) o;
+        return source.equals(other.source) && slots == other.slots
+                && (query == null ? other.query == null : query.equals(other.query));
+    }
+
+    @Override
+    public int hashCode() {
+        return (source.hashCode() * 31 + slots) * 31 + (query != null ? query.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetConfig{source=" + source + ", slots=" + slots + ", query='" + query + "'}";
+    }
+}
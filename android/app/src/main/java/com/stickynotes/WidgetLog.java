@@ -0,0 +1,102 @@
+package com.stickynotes;
+
+/**
+ * Logging for the widget code. Messages are templates with {@code {}} placeholders that
+ * are only filled in when the level is enabled, and the overloads take primitives rather
+ * than varargs, so a disabled call allocates nothing: no string, no array, no boxing.
+ *
+ * <p>The lowest enabled level comes from {@code BuildConfig.WIDGET_LOG_LEVEL}: debug
+ * builds log everything from {@link #DEBUG} up, release builds only warnings and errors.
+ */
+final class WidgetLog {
+    static final String TAG = "StickyWidget";
+
+    // Same values as the android.util.Log priorities
+    static final int DEBUG = 3;
+    static final int WARN = 5;
+    static final int ERROR = 6;
+
+    private static final int LEVEL = BuildConfig.WIDGET_LOG_LEVEL;
+
+    private WidgetLog() {
+    }
+
+    static boolean isEnabled(int level) {
+        return level >= LEVEL;
+    }
+
+    static void d(String message) {
+        if (DEBUG >= LEVEL) {
+            android.util.Log.d(TAG, message);
+        }
+    }
+
+    static void d(String template, long a) {
+        if (DEBUG >= LEVEL) {
+            android.util.Log.d(TAG, format(template, String.valueOf(a), null, null));
+        }
+    }
+
+    static void d(String template, long a, long b) {
+        if (DEBUG >= LEVEL) {
+            android.util.Log.d(TAG, format(template, String.valueOf(a), String.valueOf(b), null));
+        }
+    }
+
+    static void d(String template, long a, long b, long c) {
+        if (DEBUG >= LEVEL) {
+            android.util.Log.d(TAG, format(template, String.valueOf(a), String.valueOf(b), String.valueOf(c)));
+        }
+    }
+
+    static void d(String template, String a) {
+        if (DEBUG >= LEVEL) {
+            android.util.Log.d(TAG, format(template, a, null, null));
+        }
+    }
+
+    static void w(String message) {
+        if (WARN >= LEVEL) {
+            android.util.Log.w(TAG, message);
+        }
+    }
+
+    static void w(String template, long a) {
+        if (WARN >= LEVEL) {
+            android.util.Log.w(TAG, format(template, String.valueOf(a), null, null));
+        }
+    }
+
+    static void w(String template, String a) {
+        if (WARN >= LEVEL) {
+            android.util.Log.w(TAG, format(template, a, null, null));
+        }
+    }
+
+    static void e(String message, Throwable error) {
+        if (ERROR >= LEVEL) {
+            android.util.Log.e(TAG, message, error);
+        }
+    }
+
+    /**
+     * Replaces the first placeholders in {@code template} with the given arguments, in
+     * order. Null arguments and extra placeholders are left alone.
+     */
+    static String format(String template, String a, String b, String c) {
+        StringBuilder sb = new StringBuilder(template.length() + 32);
+        int start = 0;
+        int arg = 0;
+        while (true) {
+            int at = template.indexOf("{}", start);
+            String value = arg == 0 ? a : arg == 1 ? b : arg == 2 ? c : null;
+            if (at < 0 || value == null) {
+                break;
+            }
+            sb.append(template, start, at).append(value);
+            start = at + 2;
+            arg++;
+        }
+        return sb.append(template, start, template.length()).toString();
+    }
+}
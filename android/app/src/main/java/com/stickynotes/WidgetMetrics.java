@@ -0,0 +1,57 @@
+package com.stickynotes;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide timings and counters for the widget pipeline, read by
+ * {@code StickyNoteWidget.getWidgetMetrics()}. Everything is lock-free and cheap enough
+ * to leave on in release builds.
+ */
+final class WidgetMetrics {
+    /**
+     * Reading the widget's AsyncStorage keys.
+     */
+    static final LatencyHistogram STORAGE_READ = new LatencyHistogram();
+
+    /**
+     * Parsing the pinned ids or the legacy notes array. The legacy array is streamed
+     * straight into the selector, so that time is counted here too.
+     */
+    static final LatencyHistogram PARSE = new LatencyHistogram();
+
+    /**
+     * Ranking the rows: rebuilding or patching the model, or running the legacy selector.
+     * Includes the note store queries the model makes.
+     */
+    static final LatencyHistogram SELECT = new LatencyHistogram();
+
+    /**
+     * One {@code getViewAt} call, cached or not.
+     */
+    static final LatencyHistogram BIND = new LatencyHistogram();
+
+    /**
+     * From the first refresh request of a burst to the first row bound afterwards.
+     */
+    static final LatencyHistogram UPDATE_TO_RENDER = new LatencyHistogram();
+
+    static final AtomicLong SNAPSHOTS_BUILT = new AtomicLong();
+    static final AtomicLong SNAPSHOTS_WRITTEN = new AtomicLong();
+    static final AtomicLong ROWS_RENDERED = new AtomicLong();
+    static final AtomicLong ROWS_REUSED = new AtomicLong();
+
+    private WidgetMetrics() {
+    }
+
+    static void reset() {
+        STORAGE_READ.reset();
+        PARSE.reset();
+        SELECT.reset();
+        BIND.reset();
+        UPDATE_TO_RENDER.reset();
+        SNAPSHOTS_BUILT.set(0);
+        SNAPSHOTS_WRITTEN.set(0);
+        ROWS_RENDERED.set(0);
+        ROWS_REUSED.set(0);
+    }
+}
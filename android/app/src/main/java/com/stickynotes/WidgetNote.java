@@ -0,0 +1,40 @@
+package com.stickynotes;
+
+/**
+ * The part of a note the widget renders. Also the rows of the {@link LaunchSnapshot}.
+ */
+final class WidgetNote {
+    /**
+     * Longest content kept for a row. The widget shows at most two lines of it.
+     */
+    static final int PREVIEW_LENGTH = 200;
+
+    String id;
+    String title;
+    String content;
+    long updatedAt;
+    boolean hasDrawing;
+    // Only set for the launch snapshot; the widget doesn't show recordings
+    boolean hasAudio;
+
+    static String preview(String content) {
+        return content.length() > PREVIEW_LENGTH ? content.substring(0, PREVIEW_LENGTH) : content;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the note id, used as the row's stable item id.
+     */
+    static long stableId(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetNote{id='" + id + "', title='" + title + "', updatedAt=" + updatedAt + "}";
+    }
+}
@@ -0,0 +1,246 @@
+package com.stickynotes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The rows shown by one widget: up to {@code slots} pinned notes in pin order, topped
+ * up with the most recently updated unpinned notes until there are {@code slots} rows.
+ *
+ * <p>{@link #rebuild} loads the rows from scratch. {@link #apply} patches them from
+ * change journal entries and only ever loads the notes those entries name, plus the
+ * candidates needed when a row has to be refilled, so its cost doesn't depend on how
+ * many notes are in the store.
+ */
+final class WidgetNoteModel {
+
+    /**
+     * Where the model loads notes from.
+     */
+    interface Source {
+        /**
+         * Returns up to {@code limit} notes, most recently updated first.
+         */
+        List<WidgetNote> loadRecent(int limit);
+
+        /**
+         * Returns the note with the given id, or null if there is none.
+         */
+        WidgetNote load(String id);
+    }
+
+    static final Comparator<WidgetNote> MOST_RECENT_FIRST = new Comparator<WidgetNote>() {
+        @Override
+        public int compare(WidgetNote a, WidgetNote b) {
+            int byTime = Long.compare(b.updatedAt, a.updatedAt);
+            return byTime != 0 ? byTime : a.id.compareTo(b.id);
+        }
+    };
+
+    private final int slots;
+    // False for widgets that only show pinned notes
+    private final boolean showRecent;
+    private WidgetPins pins = WidgetPins.NONE;
+    private final List<WidgetNote> pinnedRows = new ArrayList<>();
+    private final List<WidgetNote> recentRows = new ArrayList<>();
+
+    WidgetNoteModel(int slots) {
+        this(slots, true);
+    }
+
+    /**
+     * @param showRecent whether rows the pinned notes leave free are filled with the most
+     *                   recent unpinned notes, or left empty
+     */
+    WidgetNoteModel(int slots, boolean showRecent) {
+        this.slots = slots;
+        this.showRecent = showRecent;
+    }
+
+    int getSlots() {
+        return slots;
+    }
+
+    WidgetPins getPins() {
+        return pins;
+    }
+
+    /**
+     * Reloads every row from {@code source}.
+     */
+    void rebuild(Source source, WidgetPins pins) {
+        this.pins = pins;
+        pinnedRows.clear();
+        recentRows.clear();
+        refillPinned(source);
+        refillRecent(source);
+    }
+
+    /**
+     * Patches the rows with the given journal entries, oldest first.
+     *
+     * @return whether any row changed
+     */
+    boolean apply(List<NoteChange> changes, Source source) {
+        boolean changed = false;
+        for (NoteChange change : changes) {
+            changed |= apply(change, source);
+        }
+        return changed;
+    }
+
+    private boolean apply(NoteChange change, Source source) {
+        String id = change.noteId;
+
+        int position = pins.positionOf(id);
+        if (position >= 0) {
+            boolean removed = remove(pinnedRows, id);
+            boolean added = false;
+            if (change.op == NoteChange.OP_UPSERT && (pinnedRows.size() < slots
+                    || position < pins.positionOf(pinnedRows.get(pinnedRows.size() - 1).id))) {
+                WidgetNote note = source.load(id);
+                if (note != null) {
+                    pinnedRows.add(pinnedIndex(position), note);
+                    added = true;
+                }
+            }
+            if (!removed && !added) {
+                return false;
+            }
+            // A pinned note appearing or disappearing changes the room left for the others
+            while (pinnedRows.size() > slots) {
+                pinnedRows.remove(pinnedRows.size() - 1);
+            }
+            refillPinned(source);
+            trimRecent();
+            refillRecent(source);
+            return true;
+        }
+
+        if (remove(recentRows, id)) {
+            // The note may have moved anywhere in the ranking, so re-rank the recent rows
+            recentRows.clear();
+            refillRecent(source);
+            return true;
+        }
+
+        if (change.op == NoteChange.OP_UPSERT && recentCapacity() > 0) {
+            WidgetNote note = source.load(id);
+            if (note != null && (recentRows.size() < recentCapacity()
+                    || MOST_RECENT_FIRST.compare(note, recentRows.get(recentRows.size() - 1)) < 0)) {
+                insertRecent(note);
+                trimRecent();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the rows to display: pinned notes in pin order, then the most recent ones.
+     */
+    List<WidgetNote> rows() {
+        List<WidgetNote> rows = new ArrayList<>(pinnedRows.size() + recentRows.size());
+        rows.addAll(pinnedRows);
+        rows.addAll(recentRows);
+        return rows;
+    }
+
+    private int recentCapacity() {
+        return showRecent ? Math.max(0, slots - pinnedRows.size()) : 0;
+    }
+
+    private void trimRecent() {
+        while (recentRows.size() > recentCapacity()) {
+            recentRows.remove(recentRows.size() - 1);
+        }
+    }
+
+    /**
+     * Tops the pinned rows up in pin order. Pins whose note no longer exists are looked up
+     * again each time, so this walks past at most as many pins as are missing.
+     */
+    private void refillPinned(Source source) {
+        List<String> ids = pins.ids();
+        for (int i = 0; i < ids.size() && pinnedRows.size() < slots; i++) {
+            String id = ids.get(i);
+            int index = pinnedIndex(i);
+            if (index < pinnedRows.size() && pinnedRows.get(index).id.equals(id)) {
+                continue;
+            }
+            WidgetNote note = source.load(id);
+            if (note != null) {
+                pinnedRows.add(index, note);
+            }
+        }
+    }
+
+    private void refillRecent(Source source) {
+        int capacity = recentCapacity();
+        if (recentRows.size() >= capacity) {
+            return;
+        }
+        // Pinned notes can take some of the most recent spots, so keep widening the page
+        // until enough unpinned ones turn up or the store runs out
+        int limit = capacity + Math.min(pins.size(), slots);
+        while (true) {
+            List<WidgetNote> candidates = source.loadRecent(limit);
+            for (WidgetNote candidate : candidates) {
+                if (recentRows.size() >= capacity) {
+                    return;
+                }
+                if (!pins.contains(candidate.id) && !contains(recentRows, candidate.id)) {
+                    insertRecent(candidate);
+                }
+            }
+            if (recentRows.size() >= capacity || candidates.size() < limit) {
+                return;
+            }
+            limit *= 2;
+        }
+    }
+
+    /**
+     * Returns where the note at {@code position} in pin order belongs among the pinned rows.
+     */
+    private int pinnedIndex(int position) {
+        int low = 0;
+        int high = pinnedRows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pins.positionOf(pinnedRows.get(mid).id) < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void insertRecent(WidgetNote note) {
+        int index = Collections.binarySearch(recentRows, note, MOST_RECENT_FIRST);
+        recentRows.add(index < 0 ? -index - 1 : index, note);
+    }
+
+    private static boolean contains(List<WidgetNote> rows, String id) {
+        for (WidgetNote row : rows) {
+            if (row.id.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean remove(List<WidgetNote> rows, String id) {
+        for (Iterator<WidgetNote> it = rows.iterator(); it.hasNext(); ) {
+            if (it.next().id.equals(id)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+package com.stickynotes;
+
+import android.content.Context;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the note tapped in the widget to JS. The widget provider starts loading the
+ * note's record as soon as the tap arrives, while the app is still starting, and
+ * {@link StickyNoteWidgetModule#openNoteFromWidget} picks it up, so the note screen
+ * can render from that one record instead of loading the store.
+ */
+final class WidgetNoteOpener {
+    /**
+     * Intent extra carrying the note id to {@code MainActivity}.
+     */
+    static final String EXTRA_NOTE_ID = "note_id";
+    /**
+     * Launch option and event payload key carrying the note id to JS.
+     */
+    static final String KEY_NOTE_ID = "widgetNoteId";
+    /**
+     * Event sent to JS when a widget tap brings an already running app to the front.
+     */
+    static final String EVENT_NOTE_OPENED = "widgetNoteOpened";
+
+    /**
+     * Told the note {@link #takeInBackground} found, on the background thread.
+     */
+    interface Callback {
+        void onTaken(NoteRecord note);
+
+        void onFailed(Exception error);
+    }
+
+    // Runs prefetches and takes in order, so a take never waits on a prefetch queued behind it
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "StickyWidgetNoteOpen");
+        }
+    });
+
+    private static final long LOAD_TIMEOUT_MILLIS = 1000;
+
+    private static String pendingId;
+    private static FutureTask<NoteRecord> pending;
+
+    private WidgetNoteOpener() {
+    }
+
+    /**
+     * Starts loading a note in the background. Replaces any earlier tap not taken yet.
+     */
+    static synchronized void prefetch(Context context, final String noteId) {
+        final Context appContext = context.getApplicationContext();
+        pendingId = noteId;
+        pending = new FutureTask<>(new Callable<NoteRecord>() {
+            @Override
+            public NoteRecord call() {
+                return NoteStore.getInstance(appContext).get(noteId);
+            }
+        });
+        WORKER.execute(pending);
+    }
+
+    /**
+     * Does a {@link #take} on the background thread, after any prefetch already started.
+     */
+    static void takeInBackground(Context context, final String noteId, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                NoteRecord note;
+                try {
+                    note = take(appContext, noteId);
+                } catch (Exception e) {
+                    callback.onFailed(e);
+                    return;
+                }
+                callback.onTaken(note);
+            }
+        });
+    }
+
+    /**
+     * Returns the note, from the prefetch if there was one for it and loading it now
+     * otherwise, or null if the store doesn't have it. Each prefetch is only used once,
+     * as the note may be edited afterwards.
+     */
+    static NoteRecord take(Context context, String noteId) {
+        FutureTask<NoteRecord> task = null;
+        synchronized (WidgetNoteOpener.class) {
+            if (noteId.equals(pendingId)) {
+                task = pending;
+                pendingId = null;
+                pending = null;
+            }
+        }
+        if (task != null) {
+            try {
+                return task.get(LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                WidgetLog.e("Prefetched widget note not loaded", e);
+            }
+        }
+        return NoteStore.getInstance(context.getApplicationContext()).get(noteId);
+    }
+}
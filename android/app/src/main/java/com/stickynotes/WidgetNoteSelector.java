@@ -0,0 +1,308 @@
+package com.stickynotes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the widget rows from a stream of notes without holding on to the stream. Same
+ * ranking as {@link WidgetNoteModel}: up to {@code slots} pinned notes in pin order,
+ * then the most recently updated unpinned notes.
+ *
+ * <p>Only the {@code slots} best pinned and the {@code slots} most recent unpinned notes
+ * seen so far are kept, each in a heap whose head is the first to be displaced. The
+ * candidates are stored as parallel arrays, with their text copied into per-candidate
+ * char buffers, and the heaps hold candidate indexes. Nothing is allocated per note
+ * offered, and after {@link #reset} the arrays and buffers are reused, so a refresh
+ * allocates the same however many notes it reads. Only {@link #select} creates
+ * {@link WidgetNote}s, one per row.
+ */
+final class WidgetNoteSelector {
+    private static final int NO_TITLE = -1;
+
+    private int slots;
+    private WidgetPins pins;
+
+    // Open-addressed table of pin position + 1 by id hash, 0 for an empty bucket
+    private int[] pinTable = new int[0];
+
+    // Candidates [0, slots) hold pinned notes, [slots, 2 * slots) unpinned ones
+    private long[] updatedAt = new long[0];
+    private int[] pinPosition = new int[0];
+    private char[][] text = new char[0][];
+    private int[] idLength = new int[0];
+    private int[] titleLength = new int[0];
+    private int[] previewLength = new int[0];
+
+    private int[] pinnedHeap = new int[0];
+    private int pinnedSize;
+    private int[] recentHeap = new int[0];
+    private int recentSize;
+
+    // Only used by offer(WidgetNote)
+    private char[] scratch = new char[64];
+
+    WidgetNoteSelector(int slots, WidgetPins pins) {
+        reset(slots, pins);
+    }
+
+    /**
+     * Empties the selector for another pass, keeping its buffers.
+     */
+    void reset(int slots, WidgetPins pins) {
+        if (slots != this.slots || text.length != 2 * slots) {
+            this.slots = slots;
+            int candidates = 2 * slots;
+            updatedAt = new long[candidates];
+            pinPosition = new int[candidates];
+            text = new char[candidates][];
+            idLength = new int[candidates];
+            titleLength = new int[candidates];
+            previewLength = new int[candidates];
+            pinnedHeap = new int[slots];
+            recentHeap = new int[slots];
+        }
+        if (pins != this.pins) {
+            this.pins = pins;
+            indexPins();
+        }
+        pinnedSize = 0;
+        recentSize = 0;
+    }
+
+    void offer(WidgetNote note) {
+        int idEnd = note.id.length();
+        int titleEnd = idEnd + (note.title != null ? note.title.length() : 0);
+        int previewEnd = titleEnd + note.content.length();
+        if (scratch.length < previewEnd) {
+            scratch = new char[Math.max(previewEnd, 2 * scratch.length)];
+        }
+        note.id.getChars(0, idEnd, scratch, 0);
+        if (note.title != null) {
+            note.title.getChars(0, note.title.length(), scratch, idEnd);
+        }
+        note.content.getChars(0, note.content.length(), scratch, titleEnd);
+        offer(scratch, 0, idEnd, idEnd, note.title != null ? titleEnd - idEnd : NO_TITLE,
+                titleEnd, previewEnd - titleEnd, note.updatedAt);
+    }
+
+    /**
+     * Offers a note whose id, title and preview are ranges of {@code chars}. The ranges
+     * are copied if the note is kept, so the caller may reuse the array.
+     *
+     * @param titleLength length of the title, or -1 if the note has none
+     */
+    void offer(char[] chars, int idStart, int idLength, int titleStart, int titleLength,
+               int previewStart, int previewLength, long updatedAt) {
+        if (slots <= 0) {
+            return;
+        }
+        int position = pinPosition(chars, idStart, idLength);
+        boolean pinned = position >= 0;
+        int[] heap = pinned ? pinnedHeap : recentHeap;
+        int size = pinned ? pinnedSize : recentSize;
+        int candidate;
+        if (size < slots) {
+            candidate = pinned ? size : slots + size;
+        } else if (pinned ? position < pinPosition[heap[0]]
+                : isMoreRecent(updatedAt, chars, idStart, idLength, heap[0])) {
+            candidate = heap[0];
+        } else {
+            return;
+        }
+
+        store(candidate, chars, idStart, idLength, titleStart, titleLength, previewStart, previewLength);
+        this.updatedAt[candidate] = updatedAt;
+        pinPosition[candidate] = position;
+        if (size < slots) {
+            heap[size] = candidate;
+            siftUp(heap, size, pinned);
+            if (pinned) {
+                pinnedSize++;
+            } else {
+                recentSize++;
+            }
+        } else {
+            siftDown(heap, size, 0, pinned);
+        }
+    }
+
+    /**
+     * Returns the selected rows: pinned notes in pin order, then the most recent ones.
+     * Empties the heaps, so call {@link #reset} before offering more notes.
+     */
+    List<WidgetNote> select() {
+        int pinnedCount = pinnedSize;
+        int recentCount = Math.min(recentSize, slots - pinnedCount);
+        List<WidgetNote> rows = new ArrayList<>(pinnedCount + recentCount);
+
+        // Moving the worst candidate into the freed end of the heap leaves it best first
+        sortHeap(pinnedHeap, pinnedSize, true);
+        for (int i = 0; i < pinnedCount; i++) {
+            rows.add(toNote(pinnedHeap[i]));
+        }
+        sortHeap(recentHeap, recentSize, false);
+        for (int i = 0; i < recentCount; i++) {
+            rows.add(toNote(recentHeap[i]));
+        }
+        pinnedSize = 0;
+        recentSize = 0;
+        return rows;
+    }
+
+    private void store(int candidate, char[] chars, int idStart, int idLength, int titleStart,
+                       int titleLength, int previewStart, int previewLength) {
+        int titleChars = Math.max(titleLength, 0);
+        int needed = idLength + titleChars + previewLength;
+        char[] buffer = text[candidate];
+        if (buffer == null || buffer.length < needed) {
+            buffer = new char[Math.max(needed, buffer != null ? 2 * buffer.length : 64)];
+            text[candidate] = buffer;
+        }
+        System.arraycopy(chars, idStart, buffer, 0, idLength);
+        System.arraycopy(chars, titleStart, buffer, idLength, titleChars);
+        System.arraycopy(chars, previewStart, buffer, idLength + titleChars, previewLength);
+        this.idLength[candidate] = idLength;
+        this.titleLength[candidate] = titleLength;
+        this.previewLength[candidate] = previewLength;
+    }
+
+    private WidgetNote toNote(int candidate) {
+        char[] buffer = text[candidate];
+        int id = idLength[candidate];
+        int title = titleLength[candidate];
+        int titleChars = Math.max(title, 0);
+        WidgetNote note = new WidgetNote();
+        note.id = new String(buffer, 0, id);
+        note.title = title != NO_TITLE ? new String(buffer, id, title) : null;
+        note.content = new String(buffer, id + titleChars, previewLength[candidate]);
+        note.updatedAt = updatedAt[candidate];
+        return note;
+    }
+
+    /**
+     * Whether a note ranks above a candidate by {@link WidgetNoteModel#MOST_RECENT_FIRST}.
+     */
+    private boolean isMoreRecent(long time, char[] chars, int idStart, int idLength, int candidate) {
+        if (time != updatedAt[candidate]) {
+            return time > updatedAt[candidate];
+        }
+        return compare(chars, idStart, idLength, text[candidate], 0, this.idLength[candidate]) < 0;
+    }
+
+    /**
+     * Whether candidate {@code a} should be displaced before {@code b}.
+     */
+    private boolean isWorse(int a, int b, boolean pinned) {
+        if (pinned) {
+            return pinPosition[a] > pinPosition[b];
+        }
+        if (updatedAt[a] != updatedAt[b]) {
+            return updatedAt[a] < updatedAt[b];
+        }
+        return compare(text[a], 0, idLength[a], text[b], 0, idLength[b]) > 0;
+    }
+
+    private void siftUp(int[] heap, int index, boolean pinned) {
+        int candidate = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isWorse(candidate, heap[parent], pinned)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = candidate;
+    }
+
+    private void siftDown(int[] heap, int size, int index, boolean pinned) {
+        int candidate = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isWorse(heap[child + 1], heap[child], pinned)) {
+                child++;
+            }
+            if (!isWorse(heap[child], candidate, pinned)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = candidate;
+    }
+
+    private void sortHeap(int[] heap, int size, boolean pinned) {
+        for (int end = size - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end, 0, pinned);
+        }
+    }
+
+    /**
+     * Compares two char ranges the way {@link String#compareTo} compares strings.
+     */
+    private static int compare(char[] a, int aStart, int aLength, char[] b, int bStart, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            char ca = a[aStart + i];
+            char cb = b[bStart + i];
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private void indexPins() {
+        List<String> ids = pins.ids();
+        int capacity = Integer.highestOneBit(Math.max(ids.size(), 1) * 2) * 2;
+        pinTable = new int[capacity];
+        for (int i = 0; i < ids.size(); i++) {
+            // WidgetPins already dropped repeated ids
+            int bucket = ids.get(i).hashCode() & (capacity - 1);
+            while (pinTable[bucket] != 0) {
+                bucket = (bucket + 1) & (capacity - 1);
+            }
+            pinTable[bucket] = i + 1;
+        }
+    }
+
+    /**
+     * Same as {@link WidgetPins#positionOf}, without making a String of the id.
+     */
+    private int pinPosition(char[] chars, int start, int length) {
+        if (pins.size() == 0) {
+            return -1;
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[start + i];
+        }
+        int mask = pinTable.length - 1;
+        List<String> ids = pins.ids();
+        for (int bucket = hash & mask; pinTable[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int position = pinTable[bucket] - 1;
+            if (matches(ids.get(position), chars, start, length)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(String id, char[] chars, int start, int length) {
+        if (id.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (id.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package com.stickynotes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The notes pinned to the widget, in the order they were pinned. Lookups go through a
+ * hash map from note id to pin position, so ranking a note is O(1) however many notes
+ * are pinned.
+ */
+final class WidgetPins {
+    static final WidgetPins NONE = new WidgetPins(Collections.<String>emptyList());
+
+    private final List<String> ids;
+    private final Map<String, Integer> positions;
+
+    private WidgetPins(List<String> ids) {
+        this.ids = ids;
+        this.positions = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+    }
+
+    /**
+     * Builds the pins from ids in pin order. Repeated ids keep their first position.
+     */
+    static WidgetPins of(List<String> ids) {
+        List<String> unique = new ArrayList<>(ids.size());
+        Map<String, Boolean> seen = new HashMap<>(ids.size() * 2);
+        for (String id : ids) {
+            if (id != null && seen.put(id, Boolean.TRUE) == null) {
+                unique.add(id);
+            }
+        }
+        return unique.isEmpty() ? NONE : new WidgetPins(Collections.unmodifiableList(unique));
+    }
+
+    boolean contains(String id) {
+        return positions.containsKey(id);
+    }
+
+    /**
+     * Returns where the note sits in pin order, or -1 if it isn't pinned.
+     */
+    int positionOf(String id) {
+        Integer position = positions.get(id);
+        return position != null ? position : -1;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the pinned ids in pin order.
+     */
+    List<String> ids() {
+        return ids;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WidgetPins && ids.equals(((WidgetPins) o).ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return ids.hashCode();
+    }
+}
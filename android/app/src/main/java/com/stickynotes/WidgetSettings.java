@@ -0,0 +1,69 @@
+package com.stickynotes;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Per-widget settings, keyed by appWidgetId.
+ */
+final class WidgetSettings {
+    static final int DEFAULT_SLOTS = 3;
+    static final int MAX_SLOTS = 20;
+
+    private static final String PREFS_NAME = "sticky_note_widget_settings";
+    private static final String KEY_SLOTS = "slots_";
+    private static final String KEY_SOURCE = "source_";
+    private static final String KEY_QUERY = "query_";
+
+    private WidgetSettings() {
+    }
+
+    /**
+     * Returns how many rows the widget shows.
+     */
+    static int getSlotCount(Context context, int appWidgetId) {
+        return prefs(context).getInt(KEY_SLOTS + appWidgetId, DEFAULT_SLOTS);
+    }
+
+    static void setSlotCount(Context context, int appWidgetId, int slots) {
+        prefs(context).edit()
+                .putInt(KEY_SLOTS + appWidgetId, Math.max(1, Math.min(slots, MAX_SLOTS)))
+                .apply();
+    }
+
+    /**
+     * Returns what the widget shows. Widgets placed before sources existed show pinned
+     * and recent notes.
+     */
+    static WidgetConfig getConfig(Context context, int appWidgetId) {
+        SharedPreferences prefs = prefs(context);
+        return WidgetConfig.of(
+                prefs.getString(KEY_SOURCE + appWidgetId, WidgetConfig.SOURCE_PINNED_AND_RECENT),
+                prefs.getInt(KEY_SLOTS + appWidgetId, DEFAULT_SLOTS),
+                prefs.getString(KEY_QUERY + appWidgetId, null));
+    }
+
+    static void setConfig(Context context, int appWidgetId, WidgetConfig config) {
+        SharedPreferences.Editor editor = prefs(context).edit()
+                .putString(KEY_SOURCE + appWidgetId, config.source)
+                .putInt(KEY_SLOTS + appWidgetId, config.slots);
+        if (config.query != null) {
+            editor.putString(KEY_QUERY + appWidgetId, config.query);
+        } else {
+            editor.remove(KEY_QUERY + appWidgetId);
+        }
+        editor.apply();
+    }
+
+    static void remove(Context context, int appWidgetId) {
+        prefs(context).edit()
+                .remove(KEY_SLOTS + appWidgetId)
+                .remove(KEY_SOURCE + appWidgetId)
+                .remove(KEY_QUERY + appWidgetId)
+                .apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
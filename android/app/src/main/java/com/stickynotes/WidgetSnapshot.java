@@ -0,0 +1,25 @@
+package com.stickynotes;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rows one widget shows, as of a given version of the note data. Built off the binder
+ * thread by {@link WidgetSnapshotBuilder} and never modified afterwards, so the widget can
+ * map it in without copying or locking.
+ */
+final class WidgetSnapshot {
+    /**
+     * Data version of snapshots built from the legacy AsyncStorage array, which has no
+     * change journal.
+     */
+    static final long LEGACY_VERSION = -1;
+
+    final long dataVersion;
+    final List<WidgetNote> rows;
+
+    WidgetSnapshot(long dataVersion, List<WidgetNote> rows) {
+        this.dataVersion = dataVersion;
+        this.rows = Collections.unmodifiableList(rows);
+    }
+}
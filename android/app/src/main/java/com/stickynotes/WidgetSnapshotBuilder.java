@@ -0,0 +1,422 @@
+package com.stickynotes;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Builds each widget's {@link WidgetSnapshot} on a single background thread, so the
+ * widget's RemoteViewsFactory never reads storage itself.
+ *
+ * <p>Snapshots are built per {@link WidgetConfig}, not per widget: widgets configured
+ * the same way share one snapshot, built once per refresh, and a configuration whose
+ * inputs haven't changed since its last build isn't recomputed at all.
+ *
+ * <p>The app warms the snapshots whenever notes change, ahead of the debounced widget
+ * refresh, so by the time the launcher asks for data there is usually nothing left to do.
+ * All model state lives on the builder thread; only finished snapshots are shared, and
+ * each new one is also written out with {@link WidgetSnapshotFile} for the widget to map.
+ */
+final class WidgetSnapshotBuilder {
+    private static final String SNAPSHOT_DIR = "widget_snapshots";
+
+    private static WidgetSnapshotBuilder instance;
+
+    /**
+     * Incremental state for one configuration. Only touched on the builder thread.
+     */
+    private static final class WidgetState {
+        // Null for search widgets, which are recomputed from the search index instead
+        final WidgetNoteModel model;
+        long journalVersion = -1;
+
+        WidgetState(WidgetConfig config) {
+            this.model = WidgetConfig.SOURCE_SEARCH.equals(config.source)
+                    ? null
+                    : new WidgetNoteModel(config.slots, !WidgetConfig.SOURCE_PINNED.equals(config.source));
+        }
+    }
+
+    private final Context context;
+    private final ExecutorService executor;
+    private final Map<WidgetConfig, WidgetState> states = new HashMap<>();
+    private final Map<WidgetConfig, WidgetSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final AtomicBoolean warmPending = new AtomicBoolean();
+    // Reused by every legacy refresh, so they allocate the same however many notes there are
+    private final LegacyNotesParser legacyParser = new LegacyNotesParser();
+    private final WidgetNoteSelector legacySelector = new WidgetNoteSelector(0, WidgetPins.NONE);
+
+    static synchronized WidgetSnapshotBuilder getInstance(Context context) {
+        if (instance == null) {
+            instance = new WidgetSnapshotBuilder(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WidgetSnapshotBuilder(Context context) {
+        this.context = context;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StickyWidgetSnapshots");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the last snapshot built for the widget, or null if there isn't one yet.
+     */
+    WidgetSnapshot peek(int appWidgetId) {
+        return snapshots.get(WidgetSettings.getConfig(context, appWidgetId));
+    }
+
+    /**
+     * Brings the widget's snapshot up to date in the background.
+     */
+    Future<WidgetSnapshot> refresh(final int appWidgetId) {
+        return executor.submit(new Callable<WidgetSnapshot>() {
+            @Override
+            public WidgetSnapshot call() throws Exception {
+                return build(WidgetSettings.getConfig(context, appWidgetId));
+            }
+        });
+    }
+
+    /**
+     * Builds the widget's first snapshot in the background, then tells the widget its
+     * data changed so it picks the snapshot up.
+     */
+    void prefetch(final int appWidgetId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    build(WidgetSettings.getConfig(context, appWidgetId));
+                    AppWidgetManager.getInstance(context)
+                            .notifyAppWidgetViewDataChanged(appWidgetId, R.id.widget_list);
+                } catch (Exception e) {
+                    WidgetLog.e("Error building widget snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the snapshots of every placed widget in the background, once per distinct
+     * configuration. Calls made while a warm-up is still queued are folded into it.
+     */
+    void warm() {
+        if (!warmPending.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmPending.set(false);
+                for (WidgetConfig config : configsInUse(AppWidgetManager.INVALID_APPWIDGET_ID)) {
+                    try {
+                        build(config);
+                    } catch (Exception e) {
+                        WidgetLog.e("Error warming widget snapshot", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops everything kept for a widget that has been removed, unless other widgets
+     * share its configuration.
+     */
+    void forget(final int appWidgetId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prune(appWidgetId);
+            }
+        });
+    }
+
+    /**
+     * Drops what was kept for configurations no widget uses any more. Call after
+     * changing a widget's configuration.
+     */
+    void configChanged() {
+        forget(AppWidgetManager.INVALID_APPWIDGET_ID);
+    }
+
+    /**
+     * Drops what was kept for configurations no widget uses any more, in the background,
+     * and returns how many bytes of snapshot files that freed.
+     */
+    Future<Long> sweep() {
+        return executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return prune(AppWidgetManager.INVALID_APPWIDGET_ID);
+            }
+        });
+    }
+
+    /**
+     * Returns the file the widget's snapshot is written to.
+     */
+    File snapshotFile(int appWidgetId) {
+        return snapshotFile(WidgetSettings.getConfig(context, appWidgetId));
+    }
+
+    private File snapshotFile(WidgetConfig config) {
+        return new File(snapshotDir(), "config-" + config.fileKey() + ".snap");
+    }
+
+    private File snapshotDir() {
+        return new File(context.getFilesDir(), SNAPSHOT_DIR);
+    }
+
+    /**
+     * Returns the configurations of the placed widgets, leaving out {@code removedId}
+     * in case it is still listed while being deleted.
+     */
+    private Set<WidgetConfig> configsInUse(int removedId) {
+        int[] appWidgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(
+                new ComponentName(context, StickyNoteWidgetProvider.class));
+        Set<WidgetConfig> configs = new LinkedHashSet<>();
+        for (int appWidgetId : appWidgetIds) {
+            if (appWidgetId != removedId) {
+                configs.add(WidgetSettings.getConfig(context, appWidgetId));
+            }
+        }
+        return configs;
+    }
+
+    private long prune(int removedId) {
+        Set<WidgetConfig> inUse = configsInUse(removedId);
+        for (Iterator<WidgetConfig> it = states.keySet().iterator(); it.hasNext(); ) {
+            if (!inUse.contains(it.next())) {
+                it.remove();
+            }
+        }
+        snapshots.keySet().retainAll(inUse);
+
+        // Also catches files left by earlier runs, and by versions that kept one per widget
+        Set<String> keep = new HashSet<>();
+        for (WidgetConfig config : inUse) {
+            File file = snapshotFile(config);
+            keep.add(file.getName());
+            keep.add(WidgetSnapshotFile.backupOf(file).getName());
+        }
+        long freed = 0;
+        File[] files = snapshotDir().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long length = file.length();
+                if (!keep.contains(file.getName()) && file.delete()) {
+                    freed += length;
+                }
+            }
+        }
+        return freed;
+    }
+
+    private WidgetSnapshot build(WidgetConfig config) throws IOException {
+        NoteStore store = NoteStore.getInstance(context);
+        WidgetSnapshot snapshot = store.isLegacyMigrated()
+                ? buildFromStore(config, store)
+                // The app hasn't migrated yet, fall back to the legacy AsyncStorage array
+                : buildFromLegacyStorage(config);
+        WidgetSnapshot previous = snapshots.put(config, snapshot);
+        if (snapshot != previous) {
+            WidgetMetrics.SNAPSHOTS_BUILT.incrementAndGet();
+            File file = snapshotFile(config);
+            file.getParentFile().mkdirs();
+            try {
+                WidgetSnapshotFile.write(file, snapshot);
+                WidgetMetrics.SNAPSHOTS_WRITTEN.incrementAndGet();
+            } catch (IOException e) {
+                // Forget it so the next build writes it again
+                snapshots.remove(config);
+                throw e;
+            }
+            prefetchThumbnails(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Starts decoding thumbnails for the rows with drawings, so they are usually ready by
+     * the time the widget binds them.
+     */
+    private void prefetchThumbnails(WidgetSnapshot snapshot) {
+        DrawingThumbnails thumbnails = DrawingThumbnails.getInstance(context);
+        int size = thumbnails.widgetSize();
+        for (WidgetNote note : snapshot.rows) {
+            if (note.hasDrawing && thumbnails.peek(note.id, note.updatedAt, size) == null) {
+                thumbnails.load(note.id, note.updatedAt, size);
+            }
+        }
+    }
+
+    /**
+     * Catches up with the note store's change journal, patching only the rows touched
+     * by entries newer than the last version we saw. Reloads the rows from scratch the
+     * first time, when the pinned notes change, or when the journal has been compacted
+     * past that version. Configurations that don't show pinned notes never read them.
+     */
+    private WidgetSnapshot buildFromStore(WidgetConfig config, NoteStore store) {
+        WidgetState state = states.get(config);
+        if (state == null) {
+            state = new WidgetState(config);
+            states.put(config, state);
+        }
+        if (state.model == null) {
+            return buildFromSearch(config, state, store);
+        }
+
+        WidgetPins pins;
+        long parsed;
+        long start = System.nanoTime();
+        if (!config.usesPins()) {
+            pins = WidgetPins.NONE;
+            parsed = start;
+        } else if (store.isPinsMigrated()) {
+            pins = store.getPins();
+            parsed = System.nanoTime();
+            WidgetMetrics.STORAGE_READ.recordNanos(parsed - start);
+        } else {
+            // The pins are still only in AsyncStorage
+            String widgetNotesJson = AsyncStorageReader.getInstance(context).get(AsyncStorageReader.WIDGET_NOTES_KEY);
+            long read = System.nanoTime();
+            WidgetMetrics.STORAGE_READ.recordNanos(read - start);
+            pins = parsePins(widgetNotesJson);
+            parsed = System.nanoTime();
+            WidgetMetrics.PARSE.recordNanos(parsed - read);
+        }
+
+        List<NoteChange> changes = state.journalVersion >= 0 && pins.equals(state.model.getPins())
+                ? store.changesSince(state.journalVersion)
+                : null;
+
+        WidgetSnapshot previous = snapshots.get(config);
+        if (changes == null) {
+            // Read the version first: anything written during the reload is replayed next time
+            long version = store.getJournalVersion();
+            state.model.rebuild(store, pins);
+            state.journalVersion = version;
+            WidgetLog.d("Rebuilt widget rows at journal version {}", version);
+        } else if (changes.isEmpty() && previous != null) {
+            return previous;
+        } else if (!changes.isEmpty()) {
+            state.model.apply(changes, store);
+            state.journalVersion = changes.get(changes.size() - 1).version;
+            WidgetLog.d("Applied {} journal entries, now at version {}", changes.size(), state.journalVersion);
+        }
+        WidgetMetrics.SELECT.recordNanos(System.nanoTime() - parsed);
+
+        return new WidgetSnapshot(state.journalVersion, state.model.rows());
+    }
+
+    /**
+     * Shows the best matches for the configured query. Any write may change them, so
+     * they are looked up again whenever the journal has moved, and only then.
+     */
+    private WidgetSnapshot buildFromSearch(WidgetConfig config, WidgetState state, NoteStore store) {
+        long version = store.getJournalVersion();
+        WidgetSnapshot previous = snapshots.get(config);
+        if (previous != null && version == state.journalVersion) {
+            return previous;
+        }
+
+        long start = System.nanoTime();
+        NoteSearchIndex.Page page = NoteSearch.getInstance(context).search(config.query, 0, config.slots);
+        List<WidgetNote> rows = new ArrayList<>(page.hits.size());
+        for (NoteSearchIndex.Hit hit : page.hits) {
+            WidgetNote note = store.load(hit.id);
+            if (note != null) {
+                rows.add(note);
+            }
+        }
+        state.journalVersion = version;
+        WidgetMetrics.SELECT.recordNanos(System.nanoTime() - start);
+        WidgetLog.d("Found {} notes for a search widget at journal version {}", rows.size(), version);
+        return new WidgetSnapshot(version, rows);
+    }
+
+    /**
+     * Streams the legacy notes array through a {@link WidgetNoteSelector}, see
+     * {@link LegacyNotesParser#parseNotes}. Runs on the builder thread, which owns the
+     * parser and selector. There is no search index before the migration, so search
+     * widgets show the most recent notes until then.
+     */
+    private WidgetSnapshot buildFromLegacyStorage(WidgetConfig config) throws IOException {
+        AsyncStorageReader storage = AsyncStorageReader.getInstance(context);
+        long start = System.nanoTime();
+        // Opened first, so the pins are read from the same snapshot as the notes
+        Reader notes = storage.openValue(AsyncStorageReader.NOTES_KEY);
+        int count;
+        long read;
+        WidgetPins pins;
+        WidgetNoteSelector selector = legacySelector;
+        try {
+            String widgetNotesJson = config.usesPins() ? storage.get(AsyncStorageReader.WIDGET_NOTES_KEY) : null;
+            read = System.nanoTime();
+            WidgetMetrics.STORAGE_READ.recordNanos(read - start);
+
+            pins = config.usesPins() ? parsePins(widgetNotesJson) : WidgetPins.NONE;
+            selector.reset(config.slots, pins);
+            // Reads the rest of the notes array as it goes, so this includes the storage reads
+            count = notes != null ? legacyParser.parseNotes(notes, selector) : 0;
+        } finally {
+            // Ends the read transaction, which holds up AsyncStorage writes until then
+            if (notes != null) {
+                notes.close();
+            }
+        }
+        long parsed = System.nanoTime();
+        WidgetMetrics.PARSE.recordNanos(parsed - read);
+
+        List<WidgetNote> rows = selector.select();
+        if (WidgetConfig.SOURCE_PINNED.equals(config.source)) {
+            for (Iterator<WidgetNote> it = rows.iterator(); it.hasNext(); ) {
+                if (!pins.contains(it.next().id)) {
+                    it.remove();
+                }
+            }
+        }
+        WidgetMetrics.SELECT.recordNanos(System.nanoTime() - parsed);
+        WidgetLog.d("Selected {} of {} legacy notes", rows.size(), count);
+        return new WidgetSnapshot(WidgetSnapshot.LEGACY_VERSION, rows);
+    }
+
+    private static WidgetPins parsePins(String widgetNotesJson) {
+        try {
+            return LegacyNotesParser.parsePins(widgetNotesJson);
+        } catch (JSONException e) {
+            // If the widget preferences are unreadable, just show the most recent notes
+            WidgetLog.e("Error reading widget preferences", e);
+            return WidgetPins.NONE;
+        }
+    }
+}
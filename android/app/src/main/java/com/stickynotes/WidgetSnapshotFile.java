@@ -0,0 +1,275 @@
+package com.stickynotes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary widget snapshot, written by the app and memory-mapped by the widget. The
+ * {@link LaunchSnapshot} uses the same format.
+ *
+ * <pre>
+ * header   int magic, int format version, long data version, int count,
+ *          int pool length, int CRC32 of the whole file except this field
+ * tables   long updatedAt[count]
+ *          int offsets[3 * count + 1]   id, title and preview of each row, into the pool
+ *          byte flags[count]
+ * pool     UTF-8 text
+ * </pre>
+ *
+ * <p>Writes go to a temporary file that is synced and renamed into place, and the
+ * snapshot it replaces is kept as {@code .bak}. A reader that finds the current file
+ * missing, torn or corrupt falls back to that last good snapshot.
+ */
+final class WidgetSnapshotFile {
+    static final int MAGIC = 0x534E5753; // "SNWS"
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Set when the note has no title, as opposed to an empty one.
+     */
+    static final byte FLAG_NO_TITLE = 1;
+
+    /**
+     * Set when the note has a drawing, so the row shows its thumbnail.
+     */
+    static final byte FLAG_HAS_DRAWING = 2;
+
+    /**
+     * Set when the note has a voice recording.
+     */
+    static final byte FLAG_HAS_AUDIO = 4;
+
+    static final int HEADER_SIZE = 28;
+    private static final int CRC_POSITION = 24;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private WidgetSnapshotFile() {
+    }
+
+    /**
+     * A mapped snapshot. Ids and timestamps are read up front; titles and previews are
+     * decoded straight from the mapping only when a row is rendered.
+     */
+    static final class Mapped {
+        final long dataVersion;
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int offsetsStart;
+        private final int flagsStart;
+        private final int poolStart;
+        private final String[] ids;
+
+        private Mapped(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.dataVersion = buffer.getLong(8);
+            this.count = buffer.getInt(16);
+            this.offsetsStart = HEADER_SIZE + count * 8;
+            this.flagsStart = offsetsStart + (3 * count + 1) * 4;
+            this.poolStart = flagsStart + count;
+            this.ids = new String[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = text(3 * i);
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        String id(int row) {
+            return ids[row];
+        }
+
+        long updatedAt(int row) {
+            return buffer.getLong(HEADER_SIZE + row * 8);
+        }
+
+        byte flags(int row) {
+            return buffer.get(flagsStart + row);
+        }
+
+        boolean hasDrawing(int row) {
+            return (flags(row) & FLAG_HAS_DRAWING) != 0;
+        }
+
+        boolean hasAudio(int row) {
+            return (flags(row) & FLAG_HAS_AUDIO) != 0;
+        }
+
+        String title(int row) {
+            return (flags(row) & FLAG_NO_TITLE) != 0 ? null : text(3 * row + 1);
+        }
+
+        String content(int row) {
+            return text(3 * row + 2);
+        }
+
+        private String text(int field) {
+            int start = buffer.getInt(offsetsStart + field * 4);
+            int end = buffer.getInt(offsetsStart + (field + 1) * 4);
+            if (start == end) {
+                return "";
+            }
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(poolStart + end);
+            slice.position(poolStart + start);
+            return UTF_8.decode(slice).toString();
+        }
+    }
+
+    static File backupOf(File file) {
+        return new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * Writes the snapshot to {@code file}, keeping the previous one as the fallback.
+     */
+    static void write(File file, WidgetSnapshot snapshot) throws IOException {
+        ByteBuffer buffer = encode(snapshot.dataVersion, snapshot.rows);
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // The rename below must never expose a file whose contents aren't on disk yet
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.renameTo(backupOf(file))) {
+            throw new IOException("Could not back up " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Maps the snapshot in {@code file}, or the last good one if that is missing or
+     * fails validation. Returns null if neither is usable.
+     */
+    static Mapped open(File file) {
+        Mapped mapped = map(file);
+        if (mapped == null) {
+            mapped = map(backupOf(file));
+        }
+        return mapped;
+    }
+
+    static ByteBuffer encode(long dataVersion, List<WidgetNote> rows) {
+        int count = rows.size();
+        byte[][] texts = new byte[3 * count][];
+        int poolLength = 0;
+        for (int i = 0; i < count; i++) {
+            WidgetNote note = rows.get(i);
+            texts[3 * i] = note.id.getBytes(UTF_8);
+            texts[3 * i + 1] = note.title != null ? note.title.getBytes(UTF_8) : new byte[0];
+            texts[3 * i + 2] = note.content != null ? note.content.getBytes(UTF_8) : new byte[0];
+            poolLength += texts[3 * i].length + texts[3 * i + 1].length + texts[3 * i + 2].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) sizeOf(count, poolLength));
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(dataVersion);
+        buffer.putInt(count);
+        buffer.putInt(poolLength);
+        buffer.putInt(0);
+
+        for (WidgetNote note : rows) {
+            buffer.putLong(note.updatedAt);
+        }
+        int offset = 0;
+        for (byte[] text : texts) {
+            buffer.putInt(offset);
+            offset += text.length;
+        }
+        buffer.putInt(offset);
+        for (WidgetNote note : rows) {
+            buffer.put((byte) ((note.title == null ? FLAG_NO_TITLE : 0)
+                    | (note.hasDrawing ? FLAG_HAS_DRAWING : 0)
+                    | (note.hasAudio ? FLAG_HAS_AUDIO : 0)));
+        }
+        for (byte[] text : texts) {
+            buffer.put(text);
+        }
+
+        buffer.putInt(CRC_POSITION, checksum(buffer));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Mapped map(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the channel is closed
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                return isValid(buffer) ? new Mapped(buffer) : null;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static boolean isValid(ByteBuffer buffer) {
+        int length = buffer.limit();
+        if (length < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+        int count = buffer.getInt(16);
+        int poolLength = buffer.getInt(20);
+        // Checked before trusting the counts to size anything
+        if (count < 0 || poolLength < 0 || count > length || sizeOf(count, poolLength) != length) {
+            return false;
+        }
+        return buffer.getInt(CRC_POSITION) == checksum(buffer);
+    }
+
+    private static long sizeOf(int count, int poolLength) {
+        return HEADER_SIZE + count * 8L + (3 * count + 1) * 4L + count + poolLength;
+    }
+
+    /**
+     * CRC32 of everything but the checksum field itself.
+     */
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        update(crc, source, 0, CRC_POSITION, chunk);
+        update(crc, source, HEADER_SIZE, buffer.limit(), chunk);
+        return (int) crc.getValue();
+    }
+
+    private static void update(CRC32 crc, ByteBuffer source, int from, int to, byte[] chunk) {
+        source.limit(to);
+        source.position(from);
+        while (source.hasRemaining()) {
+            int n = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.stickynotes;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces widget refresh requests. A burst of requests, such as autosave while typing,
+ * turns into one refresh once no request has come in for the debounce window, or once
+ * the oldest pending request has waited the max latency, whichever comes first.
+ *
+ * <p>A refresh pushes the widget layout to each widget id and then sends one data-change
+ * notification covering all of them, so each list reloads once.
+ */
+final class WidgetUpdateScheduler {
+    static final long DEFAULT_DEBOUNCE_MS = 300;
+    static final long DEFAULT_MAX_LATENCY_MS = 1500;
+
+    private static WidgetUpdateScheduler instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong executed = new AtomicLong();
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private long debounceMs = DEFAULT_DEBOUNCE_MS;
+    private long maxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+    // Uptime of the oldest request not yet flushed, or -1 if nothing is pending
+    private long firstPendingAt = -1;
+    // System.nanoTime() of the first request in the pending burst, and in the last flushed one
+    private long firstPendingNanos;
+    private volatile long lastFlushedRequestNanos;
+
+    static synchronized WidgetUpdateScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new WidgetUpdateScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WidgetUpdateScheduler(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread("StickyWidgetUpdates");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Sets the debounce window and the longest a request may be held back. Takes effect
+     * from the next request.
+     */
+    synchronized void configure(long debounceMs, long maxLatencyMs) {
+        this.debounceMs = Math.max(0, debounceMs);
+        this.maxLatencyMs = Math.max(this.debounceMs, maxLatencyMs);
+    }
+
+    /**
+     * Asks for every widget to be refreshed. Returns right away. The widget snapshots
+     * start rebuilding immediately, so they are ready when the debounced refresh runs.
+     */
+    void requestUpdate() {
+        requested.incrementAndGet();
+        WidgetSnapshotBuilder.getInstance(context).warm();
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            if (firstPendingAt < 0) {
+                firstPendingAt = now;
+                firstPendingNanos = System.nanoTime();
+            }
+            long runAt = Math.min(now + debounceMs, firstPendingAt + maxLatencyMs);
+            handler.removeCallbacks(flush);
+            handler.postAtTime(flush, runAt);
+        }
+    }
+
+    long getRequestedCount() {
+        return requested.get();
+    }
+
+    long getExecutedCount() {
+        return executed.get();
+    }
+
+    /**
+     * Returns when the first request behind the most recent refresh was made, in
+     * {@link System#nanoTime()} terms, or 0 if no refresh has run yet.
+     */
+    long getLastFlushedRequestNanos() {
+        return lastFlushedRequestNanos;
+    }
+
+    private void flush() {
+        synchronized (this) {
+            firstPendingAt = -1;
+            lastFlushedRequestNanos = firstPendingNanos;
+        }
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, StickyNoteWidgetProvider.class));
+        if (appWidgetIds.length == 0) {
+            return;
+        }
+
+        for (int appWidgetId : appWidgetIds) {
+            StickyNoteWidgetProvider.updateAppWidget(context, appWidgetManager, appWidgetId);
+        }
+        appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetIds, R.id.widget_list);
+        executed.incrementAndGet();
+        WidgetLog.d("Refreshed {} widgets, {} refreshes for {} requests so far",
+                appWidgetIds.length, executed.get(), requested.get());
+    }
+}
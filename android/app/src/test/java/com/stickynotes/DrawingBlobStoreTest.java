@@ -0,0 +1,150 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Random;
+
+public class DrawingBlobStoreTest {
+    private File dir;
+    private DrawingBlobStore blobs;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("drawing-blobs", "");
+        dir.delete();
+        dir.mkdirs();
+        blobs = new DrawingBlobStore(dir);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void storesBlobsUnderTheirHash() throws IOException {
+        byte[] data = randomBytes(200 * 1024, 1);
+        String hash = blobs.put(data);
+
+        assertEquals(64, hash.length());
+        assertEquals(DrawingBlobStore.hash(data), hash);
+        assertTrue(blobs.contains(hash));
+        assertArrayEquals(data, blobs.read(hash));
+        assertEquals(data.length, blobs.fileFor(hash).length());
+        assertEquals(hash.substring(0, 2), blobs.fileFor(hash).getParentFile().getName());
+    }
+
+    @Test
+    public void hashesMatchKnownSha256() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                DrawingBlobStore.hash("abc".getBytes()));
+    }
+
+    @Test
+    public void identicalDrawingsAreStoredOnce() throws IOException {
+        byte[] data = randomBytes(4096, 2);
+        String first = blobs.put(data);
+        long modified = blobs.fileFor(first).lastModified();
+        String second = blobs.put(data.clone());
+
+        assertEquals(first, second);
+        assertEquals(modified, blobs.fileFor(first).lastModified());
+        assertEquals(Collections.singletonList(first), blobs.list());
+    }
+
+    @Test
+    public void missingAndDeletedBlobsReadAsNull() throws IOException {
+        String hash = blobs.put(randomBytes(100, 3));
+        assertTrue(blobs.delete(hash));
+        assertFalse(blobs.delete(hash));
+        assertNull(blobs.read(hash));
+    }
+
+    @Test
+    public void corruptBlobsAreRejected() throws IOException {
+        String hash = blobs.put(randomBytes(1000, 4));
+        RandomAccessFile raf = new RandomAccessFile(blobs.fileFor(hash), "rw");
+        try {
+            raf.seek(500);
+            int b = raf.read();
+            raf.seek(500);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        try {
+            blobs.read(hash);
+            fail("Expected the corrupt blob to be rejected");
+        } catch (IOException expected) {
+            // The hash no longer matches
+        }
+    }
+
+    @Test
+    public void listingDropsUnfinishedWrites() throws IOException {
+        String hash = blobs.put(randomBytes(100, 5));
+        File leftover = new File(blobs.fileFor(hash).getParentFile(), "deadbeef.tmp");
+        FileOutputStream out = new FileOutputStream(leftover);
+        out.write(1);
+        out.close();
+
+        assertEquals(Collections.singletonList(hash), blobs.list());
+        assertFalse(leftover.exists());
+    }
+
+    @Test
+    public void filesAreMovedInOnlyWhenTheyMatchTheirHash() throws IOException {
+        byte[] data = randomBytes(150 * 1024, 6);
+        String hash = DrawingBlobStore.hash(data);
+        File copied = new File(dir, "copied");
+        FileOutputStream out = new FileOutputStream(copied);
+        out.write(data);
+        out.close();
+
+        try {
+            blobs.putFile(DrawingBlobStore.hash(new byte[]{1}), copied);
+            fail("Expected a mismatching file to be rejected");
+        } catch (IOException expected) {
+            // Rejected
+        }
+        assertFalse(copied.exists());
+
+        out = new FileOutputStream(copied);
+        out.write(data);
+        out.close();
+        blobs.putFile(hash, copied);
+        assertFalse(copied.exists());
+        assertArrayEquals(data, blobs.read(hash));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
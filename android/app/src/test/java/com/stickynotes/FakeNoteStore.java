@@ -0,0 +1,71 @@
+package com.stickynotes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory stand-in for {@link NoteStore} that records every write in a journal
+ * and counts how many notes the model reads back.
+ */
+final class FakeNoteStore implements WidgetNoteModel.Source {
+    final Map<String, WidgetNote> byId = new HashMap<>();
+    final TreeSet<WidgetNote> byTime = new TreeSet<>(WidgetNoteModel.MOST_RECENT_FIRST);
+    final List<NoteChange> journal = new ArrayList<>();
+    long clock;
+    int rowsRead;
+
+    void upsert(String id) {
+        WidgetNote existing = byId.remove(id);
+        if (existing != null) {
+            byTime.remove(existing);
+        }
+        WidgetNote note = note(id, ++clock);
+        byId.put(id, note);
+        byTime.add(note);
+        journal.add(new NoteChange(journal.size() + 1, id, NoteChange.OP_UPSERT));
+    }
+
+    void delete(String id) {
+        WidgetNote existing = byId.remove(id);
+        if (existing != null) {
+            byTime.remove(existing);
+            journal.add(new NoteChange(journal.size() + 1, id, NoteChange.OP_DELETE));
+        }
+    }
+
+    List<NoteChange> changesSince(long version) {
+        return new ArrayList<>(journal.subList((int) version, journal.size()));
+    }
+
+    @Override
+    public List<WidgetNote> loadRecent(int limit) {
+        List<WidgetNote> notes = new ArrayList<>(limit);
+        for (Iterator<WidgetNote> it = byTime.iterator(); it.hasNext() && notes.size() < limit; ) {
+            notes.add(it.next());
+        }
+        rowsRead += notes.size();
+        return notes;
+    }
+
+    @Override
+    public WidgetNote load(String id) {
+        WidgetNote note = byId.get(id);
+        if (note != null) {
+            rowsRead++;
+        }
+        return note;
+    }
+
+    static WidgetNote note(String id, long updatedAt) {
+        WidgetNote note = new WidgetNote();
+        note.id = id;
+        note.title = "Title " + id;
+        note.content = "Content " + id;
+        note.updatedAt = updatedAt;
+        return note;
+    }
+}
@@ -0,0 +1,137 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+public class LegacyNotesParserTest {
+    private static final int SLOTS = 3;
+
+    private static String corpus(int count) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"note-").append(i)
+                    .append("\",\"title\":\"Note ").append(i)
+                    .append("\",\"content\":\"Line one\\nline \\\"two\\\" of ").append(i)
+                    .append("\",\"createdAt\":").append(1000L + i)
+                    .append(",\"updatedAt\":").append(2000L + (i * 7919L) % count)
+                    .append(",\"drawingPaths\":[\"data:image/png;base64,AAAA\",{\"nested\":[1,2]}]")
+                    .append(",\"audioPath\":null}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static List<WidgetNote> parse(String json, WidgetPins pins) throws IOException {
+        WidgetNoteSelector selector = new WidgetNoteSelector(SLOTS, pins);
+        new LegacyNotesParser().parseNotes(new StringReader(json), selector);
+        return selector.select();
+    }
+
+    @Test
+    public void readsTheFieldsTheWidgetShows() throws IOException {
+        String content = new String(new char[WidgetNote.PREVIEW_LENGTH + 50]).replace('\0', 'x');
+        List<WidgetNote> rows = parse("[ {\"id\" : \"a\", \"title\": \"T\\u00e9\\/\", \"content\": \""
+                + content + "\", \"updatedAt\": \"5\", \"extra\": {\"x\": [true, false, 1.5e3]}},"
+                + "{\"title\": \"no id\", \"updatedAt\": 9},"
+                + "{\"id\": \"b\", \"title\": null, \"updatedAt\": 1.2E1},"
+                + "7, \"stray\" ]", WidgetPins.NONE);
+
+        assertEquals(2, rows.size());
+        WidgetNote b = rows.get(0);
+        assertEquals("b", b.id);
+        assertNull(b.title);
+        assertEquals("", b.content);
+        assertEquals(12, b.updatedAt);
+        WidgetNote a = rows.get(1);
+        assertEquals("T\u00e9/", a.title);
+        assertEquals(WidgetNote.PREVIEW_LENGTH, a.content.length());
+        assertEquals(5, a.updatedAt);
+    }
+
+    @Test
+    public void ranksPinnedNotesFirst() throws IOException {
+        List<WidgetNote> rows = parse(corpus(50), WidgetPins.of(Arrays.asList("note-7", "missing", "note-3")));
+
+        assertEquals("note-7", rows.get(0).id);
+        assertEquals("note-3", rows.get(1).id);
+        assertEquals("Line one\nline \"two\" of 3", rows.get(1).content);
+        // The most recent of the rest: updatedAt is 2000 + (i * 7919) % 50
+        assertEquals("note-21", rows.get(2).id);
+    }
+
+    @Test
+    public void readsNumericIdsAndFallsBackForUnparseableTimestamps() throws IOException {
+        long before = System.currentTimeMillis();
+        List<WidgetNote> rows = parse("[{\"id\": 42, \"title\": \"Numeric\", \"updatedAt\": 7},"
+                + "{\"id\": \"iso\", \"updatedAt\": \"2024-05-01T10:00:00Z\"},"
+                + "{\"id\": \"flag\", \"updatedAt\": true}]", WidgetPins.NONE);
+
+        assertEquals(3, rows.size());
+        assertTrue(rows.get(0).updatedAt >= before);
+        assertTrue(rows.get(1).updatedAt >= before);
+        assertTrue(Arrays.asList("iso", "flag").contains(rows.get(0).id));
+        WidgetNote numeric = rows.get(2);
+        assertEquals("42", numeric.id);
+        assertEquals("Numeric", numeric.title);
+        assertEquals(7, numeric.updatedAt);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedInput() throws IOException {
+        parse("[{\"id\":\"a\",\"content\":\"unterminated", WidgetPins.NONE);
+    }
+
+    /**
+     * A refresh with a reused parser and selector should allocate the same for 1k notes
+     * as for 20k: only the rows it returns, not anything per note read.
+     */
+    @Test
+    public void allocationDoesNotGrowWithNoteCount() throws IOException {
+        WidgetPins pins = WidgetPins.of(Arrays.asList("note-10", "note-500"));
+        String small = corpus(1_000);
+        String large = corpus(20_000);
+        LegacyNotesParser parser = new LegacyNotesParser();
+        WidgetNoteSelector selector = new WidgetNoteSelector(SLOTS, pins);
+
+        for (int i = 0; i < 20; i++) {
+            refresh(parser, selector, pins, small);
+            refresh(parser, selector, pins, large);
+        }
+        long smallBytes = allocatedBy(parser, selector, pins, small);
+        long largeBytes = allocatedBy(parser, selector, pins, large);
+
+        assertTrue("1k notes allocated " + smallBytes + " bytes, 20k allocated " + largeBytes,
+                largeBytes <= smallBytes + 1024);
+        assertTrue("A refresh allocated " + largeBytes + " bytes", largeBytes < 16 * 1024);
+    }
+
+    private static List<WidgetNote> refresh(LegacyNotesParser parser, WidgetNoteSelector selector,
+                                            WidgetPins pins, String json) throws IOException {
+        selector.reset(SLOTS, pins);
+        parser.parseNotes(new StringReader(json), selector);
+        return selector.select();
+    }
+
+    private static long allocatedBy(LegacyNotesParser parser, WidgetNoteSelector selector,
+                                    WidgetPins pins, String json) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        List<WidgetNote> rows = refresh(parser, selector, pins, json);
+        long after = threads.getThreadAllocatedBytes(thread);
+        assertEquals(SLOTS, rows.size());
+        return after - before;
+    }
+}
@@ -0,0 +1,352 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class NoteBackupTest {
+    private File root;
+    private File archive;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("note-backup", "");
+        root.delete();
+        root.mkdirs();
+        archive = new File(root, "notes.tar");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(root);
+    }
+
+    @Test
+    public void roundTripsNotesWithDrawingsRecordingsAndPins() throws IOException {
+        MemoryStore source = new MemoryStore(new File(root, "source"));
+        byte[] recording = randomBytes(70 * 1000, 1);
+        File audio = new File(root, "sticky_note_1700000000000.m4a");
+        write(audio, recording);
+        String sharedDrawing = source.blobs.put(randomBytes(3000, 2));
+        for (int i = 0; i < 150; i++) {
+            NoteRecord note = note("note-" + i, 1000 + i);
+            if (i % 10 == 0) {
+                note.drawingHash = sharedDrawing;
+                note.drawingSize = 3000;
+            }
+            if (i == 7) {
+                note.audioPath = "file://" + audio.getPath();
+            }
+            if (i == 8) {
+                note.audioPath = new File(root, "deleted.m4a").getPath();
+            }
+            source.notes.put(note.id, note);
+        }
+        source.pins.addAll(Arrays.asList("note-3", "note-1"));
+
+        assertEquals(150, NoteBackup.export(source, archive, null));
+        assertFalse(new File(archive.getPath() + ".part").exists());
+
+        MemoryStore target = new MemoryStore(new File(root, "target"));
+        File audioDir = new File(root, "audio");
+        assertEquals(150, NoteBackup.importArchive(target, archive, audioDir, new File(root, "work"), null));
+
+        assertEquals(150, target.notes.size());
+        assertEquals("Title note-42", target.notes.get("note-42").title);
+        assertEquals(sharedDrawing, target.notes.get("note-20").drawingHash);
+        assertTrue(target.blobs.contains(sharedDrawing));
+        File imported = new File(target.notes.get("note-7").audioPath);
+        assertEquals(new File(audioDir, audio.getName()), imported);
+        assertArrayEquals(recording, Files.readAllBytes(imported.toPath()));
+        assertNull(target.notes.get("note-8").audioPath);
+        assertEquals(Arrays.asList("note-3", "note-1"), target.pins);
+        assertFalse(new File(root, "work/import.state").exists());
+    }
+
+    @Test
+    public void resumesAnInterruptedImportAfterTheLastCommittedPage() throws IOException {
+        MemoryStore source = new MemoryStore(new File(root, "source"));
+        for (int i = 0; i < 5 * NoteBackup.PAGE_SIZE; i++) {
+            source.notes.put(String.format("note-%04d", i), note(String.format("note-%04d", i), i));
+        }
+        NoteBackup.export(source, archive, null);
+
+        MemoryStore target = new MemoryStore(new File(root, "target"));
+        target.failAfterPages = 2;
+        File work = new File(root, "work");
+        try {
+            NoteBackup.importArchive(target, archive, new File(root, "audio"), work, null);
+            fail("Expected the import to be interrupted");
+        } catch (IOException expected) {
+            // Interrupted
+        }
+        assertEquals(2 * NoteBackup.PAGE_SIZE, target.notes.size());
+
+        target.failAfterPages = -1;
+        target.pagesImported = 0;
+        final int[] lastNotes = new int[1];
+        int imported = NoteBackup.importArchive(target, archive, new File(root, "audio"), work,
+                new NoteBackup.Progress() {
+                    @Override
+                    public void onProgress(long bytes, long totalBytes, int notes, int totalNotes) {
+                        lastNotes[0] = notes;
+                        assertEquals(5 * NoteBackup.PAGE_SIZE, totalNotes);
+                    }
+                });
+
+        assertEquals(3, target.pagesImported);
+        assertEquals(5 * NoteBackup.PAGE_SIZE, imported);
+        assertEquals(5 * NoteBackup.PAGE_SIZE, lastNotes[0]);
+        assertEquals(source.notes.keySet(), target.notes.keySet());
+    }
+
+    @Test
+    public void keepsStoredNotesThatAreNewerThanTheBackup() throws IOException {
+        MemoryStore source = new MemoryStore(new File(root, "source"));
+        source.notes.put("a", note("a", 10));
+        source.notes.put("b", note("b", 10));
+        NoteBackup.export(source, archive, null);
+
+        MemoryStore target = new MemoryStore(new File(root, "target"));
+        NoteRecord edited = note("a", 20);
+        edited.title = "Edited";
+        target.notes.put("a", edited);
+
+        assertEquals(1, NoteBackup.importArchive(target, archive, new File(root, "audio"),
+                new File(root, "work"), null));
+        assertEquals("Edited", target.notes.get("a").title);
+        assertNotNull(target.notes.get("b"));
+    }
+
+    @Test
+    public void importsARecordingBesideADifferentFileWithTheSameNameAndSize() throws IOException {
+        File audio = new File(root, "sticky_note_1.m4a");
+        byte[] recording = randomBytes(200 * 1000, 4);
+        write(audio, recording);
+        MemoryStore source = new MemoryStore(new File(root, "source"));
+        NoteRecord note = note("a", 1);
+        note.audioPath = audio.getPath();
+        source.notes.put("a", note);
+        NoteBackup.export(source, archive, null);
+
+        File audioDir = new File(root, "audio");
+        audioDir.mkdirs();
+        byte[] other = randomBytes(200 * 1000, 5);
+        write(new File(audioDir, audio.getName()), other);
+        MemoryStore target = new MemoryStore(new File(root, "target"));
+        NoteBackup.importArchive(target, archive, audioDir, new File(root, "work"), null);
+
+        File imported = new File(target.notes.get("a").audioPath);
+        assertEquals(new File(audioDir, "sticky_note_1-1.m4a"), imported);
+        assertArrayEquals(recording, Files.readAllBytes(imported.toPath()));
+        assertArrayEquals(other, Files.readAllBytes(new File(audioDir, audio.getName()).toPath()));
+
+        // Importing again finds the copy instead of making another
+        NoteBackup.importArchive(new MemoryStore(new File(root, "again")), archive, audioDir,
+                new File(root, "work"), null);
+        assertFalse(new File(audioDir, "sticky_note_1-2.m4a").exists());
+    }
+
+    @Test
+    public void releasesRecordingsCopiedForNotesItSkips() throws IOException {
+        File audio = new File(root, "sticky_note_1.m4a");
+        write(audio, randomBytes(5000, 6));
+        MemoryStore source = new MemoryStore(new File(root, "source"));
+        NoteRecord note = note("a", 10);
+        note.audioPath = audio.getPath();
+        source.notes.put("a", note);
+        NoteBackup.export(source, archive, null);
+
+        MemoryStore target = new MemoryStore(new File(root, "target"));
+        target.notes.put("a", note("a", 20));
+        File audioDir = new File(root, "audio");
+        assertEquals(0, NoteBackup.importArchive(target, archive, audioDir, new File(root, "work"), null));
+
+        assertEquals(Collections.singletonList(new File(audioDir, audio.getName()).getPath()),
+                target.releasedRecordings);
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotBackups() throws IOException {
+        write(archive, randomBytes(4096, 3));
+        try {
+            NoteBackup.importArchive(new MemoryStore(new File(root, "target")), archive,
+                    new File(root, "audio"), new File(root, "work"), null);
+            fail("Expected a corrupt archive to be rejected");
+        } catch (IOException expected) {
+            // Rejected
+        }
+    }
+
+    @Test
+    public void copiesRecordingsWithoutBufferingThem() throws IOException {
+        File audio = new File(root, "sticky_note_1.m4a");
+        RandomAccessFile file = new RandomAccessFile(audio, "rw");
+        file.setLength(32L * 1024 * 1024);
+        file.close();
+        MemoryStore source = new MemoryStore(new File(root, "source"));
+        NoteRecord note = note("a", 1);
+        note.audioPath = audio.getPath();
+        source.notes.put("a", note);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        NoteBackup.export(source, archive, null);
+        NoteBackup.importArchive(new MemoryStore(new File(root, "target")), archive,
+                new File(root, "audio"), new File(root, "work"), null);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(32L * 1024 * 1024, new File(root, "audio/sticky_note_1.m4a").length());
+        assertTrue("Backing up a 32MB recording allocated " + allocated + " bytes",
+                allocated < 4 * 1024 * 1024);
+    }
+
+    private static NoteRecord note(String id, long updatedAt) {
+        NoteRecord note = new NoteRecord();
+        note.id = id;
+        note.title = "Title " + id;
+        note.content = "Content of " + id;
+        note.createdAt = updatedAt;
+        note.updatedAt = updatedAt;
+        return note;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * In-memory notes over a real blob store, failing imports after a number of pages.
+     */
+    private static final class MemoryStore implements NoteBackup.Store {
+        final TreeMap<String, NoteRecord> notes = new TreeMap<>();
+        final List<String> pins = new ArrayList<>();
+        final List<String> releasedRecordings = new ArrayList<>();
+        final DrawingBlobStore blobs;
+        int failAfterPages = -1;
+        int pagesImported;
+
+        MemoryStore(File dir) {
+            this.blobs = new DrawingBlobStore(dir);
+        }
+
+        @Override
+        public int noteCount() {
+            return notes.size();
+        }
+
+        @Override
+        public List<NoteRecord> notesAfter(String afterId, int limit) {
+            Map<String, NoteRecord> tail = afterId != null ? notes.tailMap(afterId, false) : notes;
+            List<NoteRecord> page = new ArrayList<>();
+            for (NoteRecord note : tail.values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                NoteRecord copy = note(note.id, note.updatedAt);
+                copy.title = note.title;
+                copy.content = note.content;
+                copy.drawingHash = note.drawingHash;
+                copy.drawingSize = note.drawingSize;
+                copy.audioPath = note.audioPath;
+                page.add(copy);
+            }
+            return page;
+        }
+
+        @Override
+        public WidgetPins getPins() {
+            return WidgetPins.of(pins);
+        }
+
+        @Override
+        public File drawingFile(String hash) {
+            return blobs.contains(hash) ? blobs.fileFor(hash) : null;
+        }
+
+        @Override
+        public boolean reserveDrawing(String hash) {
+            return blobs.contains(hash);
+        }
+
+        @Override
+        public void importDrawing(String hash, File file) throws IOException {
+            blobs.putFile(hash, file);
+        }
+
+        @Override
+        public int importNotes(List<NoteRecord> page, Collection<String> copiedRecordings) throws IOException {
+            if (pagesImported == failAfterPages) {
+                throw new IOException("Disk full");
+            }
+            pagesImported++;
+            int saved = 0;
+            List<String> unused = new ArrayList<>(copiedRecordings);
+            for (NoteRecord note : page) {
+                NoteRecord existing = notes.get(note.id);
+                if (existing == null || existing.updatedAt < note.updatedAt) {
+                    notes.put(note.id, note);
+                    unused.remove(note.audioPath);
+                    saved++;
+                }
+            }
+            releasedRecordings.addAll(unused);
+            return saved;
+        }
+
+        @Override
+        public void importPins(List<String> ids) {
+            for (String id : ids) {
+                if (notes.containsKey(id) && !pins.contains(id)) {
+                    pins.add(id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class NoteLogEntryTest {
+    private static final class Recorder implements NoteLogEntry.Target {
+        final List<String> ops = new ArrayList<>();
+
+        @Override
+        public void upsert(NoteRecord note) {
+            ops.add("upsert " + note.id + " " + note.title + " " + note.content.length() + " "
+                    + note.drawingHash + " " + note.drawingSize + " " + note.audioPath + " "
+                    + note.createdAt + " " + note.updatedAt);
+        }
+
+        @Override
+        public void delete(String id) {
+            ops.add("delete " + id);
+        }
+
+        @Override
+        public void setPinned(String id, boolean pinned) {
+            ops.add((pinned ? "pin " : "unpin ") + id);
+        }
+    }
+
+    @Test
+    public void replaysOperationsInOrder() throws IOException {
+        StringBuilder longContent = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            longContent.append('\u00E9');
+        }
+        NoteRecord note = new NoteRecord();
+        note.id = "note-1";
+        note.title = "Sketch \uD83D\uDDD2";
+        note.content = longContent.toString();
+        note.drawingHash = "ab12";
+        note.drawingSize = 4096;
+        note.createdAt = 1;
+        note.updatedAt = Long.MAX_VALUE;
+
+        NoteLogEntry entry = new NoteLogEntry()
+                .upsert(note)
+                .setPinned("note-1", true)
+                .delete("note-2")
+                .setPinned("note-3", false);
+        Recorder recorder = new Recorder();
+        NoteLogEntry.replay(entry.toByteArray(), recorder);
+
+        assertEquals(Arrays.asList(
+                "upsert note-1 Sketch \uD83D\uDDD2 70000 ab12 4096 null 1 " + Long.MAX_VALUE,
+                "pin note-1",
+                "delete note-2",
+                "unpin note-3"), recorder.ops);
+    }
+
+    @Test
+    public void emptyEntryReplaysNothing() throws IOException {
+        NoteLogEntry entry = new NoteLogEntry();
+        assertTrue(entry.isEmpty());
+
+        Recorder recorder = new Recorder();
+        NoteLogEntry.replay(entry.toByteArray(), recorder);
+        assertTrue(recorder.ops.isEmpty());
+    }
+
+    @Test
+    public void truncatedEntryIsRejected() {
+        NoteRecord note = new NoteRecord();
+        note.id = "note-1";
+        note.title = "Title";
+        note.content = "Content";
+        byte[] data = new NoteLogEntry().upsert(note).toByteArray();
+
+        try {
+            NoteLogEntry.replay(Arrays.copyOf(data, data.length - 3), new Recorder());
+            fail("Expected the truncated entry to be rejected");
+        } catch (IOException expected) {
+            // Ran out of bytes mid-operation
+        }
+    }
+}
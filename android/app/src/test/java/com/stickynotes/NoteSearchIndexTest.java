@@ -0,0 +1,154 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class NoteSearchIndexTest {
+    @Test
+    public void matchesEveryTermAndRanksTitleHitsFirst() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("a", "Groceries", "milk, eggs and bread", 1);
+        index.put("b", "Weekend", "buy bread for the groceries run", 2);
+        index.put("c", "Work", "quarterly report", 3);
+
+        assertEquals(ids("a", "b"), ids(index.search("groceries bread", 0, 10)));
+        assertEquals(ids("c"), ids(index.search("REPORT", 0, 10)));
+        assertEquals(0, index.search("bread report", 0, 10).total);
+        assertEquals(0, index.search("  ,. ", 0, 10).total);
+    }
+
+    @Test
+    public void lastTermMatchesAsPrefix() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("a", "Meeting notes", "agenda", 1);
+        index.put("b", "Meetup", "pizza", 2);
+        index.put("c", "Met a friend", "", 3);
+
+        assertEquals(setOf("a", "b"), idSet(index.search("meet", 0, 10)));
+        // Earlier terms have to match whole words
+        assertEquals(0, index.search("meet agenda", 0, 10).total);
+        assertEquals(ids("a"), ids(index.search("meeting ag", 0, 10)));
+        // One letter only matches a whole word
+        assertEquals(ids("c"), ids(index.search("met a", 0, 10)));
+    }
+
+    @Test
+    public void tiesGoToTheMostRecentNote() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("old", "todo", "", 1);
+        index.put("new", "todo", "", 5);
+        index.put("mid", "todo", "", 3);
+
+        assertEquals(ids("new", "mid", "old"), ids(index.search("todo", 0, 10)));
+    }
+
+    @Test
+    public void updatesAndRemovalsAreReflected() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("a", "Draft", "first version", 1);
+        index.put("a", "Final", "second version", 2);
+
+        assertEquals(0, index.search("draft", 0, 10).total);
+        assertEquals(ids("a"), ids(index.search("final", 0, 10)));
+        assertEquals(1, index.size());
+
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertEquals(0, index.search("version", 0, 10).total);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void pagesCoverAllMatchesInOrder() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        for (int i = 0; i < 95; i++) {
+            index.put("note-" + i, "Shopping " + i, i % 3 == 0 ? "shopping shopping" : "list", i);
+        }
+
+        List<String> all = ids(index.search("shopping", 0, 1000));
+        assertEquals(95, all.size());
+
+        List<String> paged = new ArrayList<>();
+        for (int offset = 0; offset < 95; offset += 20) {
+            NoteSearchIndex.Page page = index.search("shopping", offset, 20);
+            assertEquals(95, page.total);
+            paged.addAll(ids(page));
+        }
+        assertEquals(all, paged);
+        assertTrue(index.search("shopping", 95, 20).hits.isEmpty());
+    }
+
+    @Test
+    public void randomEditsMatchAFreshIndex() {
+        Random random = new Random(11);
+        String[] words = {"alpha", "beta", "gamma", "delta", "alphabet", "gamut", "bet"};
+        NoteSearchIndex incremental = new NoteSearchIndex();
+        String[][] current = new String[500][];
+        for (int step = 0; step < 20000; step++) {
+            int n = random.nextInt(current.length);
+            if (random.nextInt(4) == 0) {
+                incremental.remove("n" + n);
+                current[n] = null;
+            } else {
+                current[n] = new String[]{
+                        words[random.nextInt(words.length)],
+                        words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+                        String.valueOf(step)};
+                incremental.put("n" + n, current[n][0], current[n][1], step);
+            }
+        }
+
+        NoteSearchIndex fresh = new NoteSearchIndex();
+        for (int n = 0; n < current.length; n++) {
+            if (current[n] != null) {
+                fresh.put("n" + n, current[n][0], current[n][1], Long.parseLong(current[n][2]));
+            }
+        }
+        assertEquals(fresh.size(), incremental.size());
+        for (String query : new String[]{"alpha", "al", "gam", "beta gamma", "delta be", "bet"}) {
+            assertEquals(query, ids(fresh.search(query, 0, 1000)), ids(incremental.search(query, 0, 1000)));
+        }
+    }
+
+    @Test
+    public void highlightsGiveCharOffsetsOfMatchingWords() {
+        String text = "Buy milk. MILKshake? No: milk!";
+        assertArrayEquals(new int[]{4, 8, 10, 19, 25, 29}, NoteSearchIndex.highlights(text, "milk", 10));
+        assertArrayEquals(new int[]{0, 3, 4, 8}, NoteSearchIndex.highlights(text, "buy milk", 2));
+        assertArrayEquals(new int[0], NoteSearchIndex.highlights(text, "tea", 10));
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<>();
+        for (String id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<String> ids(NoteSearchIndex.Page page) {
+        List<String> ids = new ArrayList<>();
+        for (NoteSearchIndex.Hit hit : page.hits) {
+            ids.add(hit.id);
+        }
+        return ids;
+    }
+
+    private static Set<String> setOf(String... ids) {
+        return new HashSet<>(ids(ids));
+    }
+
+    private static Set<String> idSet(NoteSearchIndex.Page page) {
+        return new HashSet<>(ids(page));
+    }
+}
@@ -0,0 +1,259 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NoteWriteLogTest {
+    private static final long NO_CHECKPOINT = Long.MAX_VALUE;
+
+    private File dir;
+    private File file;
+    private NoteWriteLog log;
+    private final AtomicInteger checkpoints = new AtomicInteger();
+    private volatile boolean storeDurable = true;
+
+    private final NoteWriteLog.Checkpointer checkpointer = new NoteWriteLog.Checkpointer() {
+        @Override
+        public boolean checkpoint() {
+            checkpoints.incrementAndGet();
+            return storeDurable;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("note-write-log", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, "notes.log");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (log != null) {
+            log.close();
+        }
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void recoversRecordsInOrder() throws Exception {
+        List<byte[]> written = new ArrayList<>();
+        log = open(0, NO_CHECKPOINT);
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            byte[] record = randomRecord(random);
+            log.appendAndWait(record);
+            written.add(record);
+        }
+        log.close();
+
+        log = open(0, NO_CHECKPOINT);
+        assertRecords(written, log.recover());
+    }
+
+    @Test
+    public void concurrentAppendsShareSyncs() throws Exception {
+        log = open(TimeUnit.MILLISECONDS.toNanos(5), NO_CHECKPOINT);
+        final int threads = 8;
+        final int perThread = 25;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            log.appendAndWait(randomRecord(random));
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        assertEquals(0, failures.get());
+        assertTrue("Expected fewer syncs than records, got " + log.syncCount(),
+                log.syncCount() < threads * perThread);
+        log.close();
+        log = open(0, NO_CHECKPOINT);
+        assertEquals(threads * perThread, log.recover().size());
+    }
+
+    /**
+     * Simulates crashes by cutting the log anywhere after what had been acknowledged at
+     * some point, and sometimes leaving garbage after the cut, as a torn write would.
+     */
+    @Test
+    public void noAcknowledgedRecordIsLostWhenTheTailIsTorn() throws Exception {
+        for (int seed = 0; seed < 4; seed++) {
+            Random random = new Random(seed);
+            final List<byte[]> acked = Collections.synchronizedList(new ArrayList<byte[]>());
+            final List<Long> ackedAt = Collections.synchronizedList(new ArrayList<Long>());
+            file.delete();
+            log = open(TimeUnit.MICROSECONDS.toNanos(200), NO_CHECKPOINT);
+            final int records = 120;
+            final CountDownLatch done = new CountDownLatch(records);
+            for (int i = 0; i < records; i++) {
+                final byte[] record = randomRecord(random);
+                log.append(record, new NoteWriteLog.Callback() {
+                    @Override
+                    public void onDurable() {
+                        acked.add(record);
+                        ackedAt.add(log.durableLength());
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailed(IOException error) {
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            log.close();
+            log = null;
+            assertEquals(records, acked.size());
+            byte[] full = readFile(file);
+
+            for (int trial = 0; trial < 100; trial++) {
+                // The crash happens right after the ack-th acknowledgement
+                int ack = random.nextInt(acked.size());
+                long durable = ackedAt.get(ack);
+                int cut = (int) (durable + random.nextInt((int) (full.length - durable) + 1));
+                byte[] torn = new byte[cut + (random.nextBoolean() ? random.nextInt(64) : 0)];
+                System.arraycopy(full, 0, torn, 0, cut);
+                for (int i = cut; i < torn.length; i++) {
+                    torn[i] = (byte) random.nextInt(256);
+                }
+                writeFile(file, torn);
+
+                NoteWriteLog reopened = open(0, NO_CHECKPOINT);
+                try {
+                    List<byte[]> recovered = reopened.recover();
+                    assertTrue("Lost acknowledged records: cut at " + cut + ", acked up to " + durable,
+                            recovered.size() >= ack + 1);
+                    assertRecords(acked.subList(0, recovered.size()), recovered);
+
+                    // The torn tail is gone, so new records land where recovery finds them
+                    byte[] next = randomRecord(random);
+                    reopened.appendAndWait(next);
+                    reopened.close();
+                    reopened = open(0, NO_CHECKPOINT);
+                    List<byte[]> afterAppend = reopened.recover();
+                    assertEquals(recovered.size() + 1, afterAppend.size());
+                    assertArrayEquals(next, afterAppend.get(recovered.size()));
+                } finally {
+                    reopened.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkpointEmptiesTheLogOnceTheStoreIsDurable() throws Exception {
+        log = open(0, NO_CHECKPOINT);
+        log.appendAndWait(new byte[]{1, 2, 3});
+
+        storeDurable = false;
+        assertFalse(log.checkpoint());
+        log.close();
+        log = open(0, NO_CHECKPOINT);
+        assertEquals(1, log.recover().size());
+
+        storeDurable = true;
+        assertTrue(log.checkpoint());
+        assertEquals(NoteWriteLog.HEADER_SIZE, log.durableLength());
+        log.close();
+        log = open(0, NO_CHECKPOINT);
+        assertEquals(0, log.recover().size());
+    }
+
+    @Test
+    public void checkpointsWhenTheLogGrowsPastItsSize() throws Exception {
+        log = open(0, 1024);
+        Random random = new Random(3);
+        for (int i = 0; i < 40; i++) {
+            log.appendAndWait(randomRecord(random));
+        }
+
+        assertTrue(checkpoints.get() > 0);
+        assertTrue(log.durableLength() <= 1024 + NoteWriteLog.RECORD_HEADER_SIZE + 256);
+    }
+
+    @Test
+    public void unreadableHeaderStartsAnEmptyLog() throws Exception {
+        writeFile(file, new byte[]{'n', 'o', 'p', 'e', 0, 0, 0, 1, 9, 9, 9});
+        log = open(0, NO_CHECKPOINT);
+
+        assertEquals(0, log.recover().size());
+        assertEquals(NoteWriteLog.HEADER_SIZE, file.length());
+    }
+
+    private NoteWriteLog open(long groupCommitNanos, long checkpointSize) throws IOException {
+        return new NoteWriteLog(file, checkpointer, groupCommitNanos, checkpointSize);
+    }
+
+    private static byte[] randomRecord(Random random) {
+        byte[] record = new byte[random.nextInt(256)];
+        random.nextBytes(record);
+        return record;
+    }
+
+    private static void assertRecords(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("Record " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static byte[] readFile(File target) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(target, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFile(File target, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StorageMaintenanceTest {
+    private static final long STEP_NANOS = 10;
+
+    /**
+     * Advances by {@link #STEP_NANOS} each time it is read.
+     */
+    private static final class FakeClock implements StorageMaintenance.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            long time = now;
+            now += STEP_NANOS;
+            return time;
+        }
+    }
+
+    /**
+     * Takes {@code steps} steps, freeing one byte each.
+     */
+    private static class CountingTask implements StorageMaintenance.Task {
+        final String name;
+        final int steps;
+        int taken;
+
+        CountingTask(String name, int steps) {
+            this.name = name;
+            this.steps = steps;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean step(StorageMaintenance.Result result) {
+            taken++;
+            result.bytesReclaimed++;
+            return taken >= steps;
+        }
+    }
+
+    @Test
+    public void runsEveryTaskWithinTheBudget() {
+        CountingTask first = new CountingTask("first", 3);
+        CountingTask second = new CountingTask("second", 2);
+        List<StorageMaintenance.Task> tasks = Arrays.<StorageMaintenance.Task>asList(first, second);
+
+        StorageMaintenance.Result result = StorageMaintenance.run(tasks, 0, Long.MAX_VALUE,
+                new AtomicBoolean(), new FakeClock());
+
+        assertTrue(result.isComplete(tasks.size()));
+        assertEquals(5, result.steps);
+        assertEquals(5, result.bytesReclaimed);
+        assertFalse(result.cancelled);
+    }
+
+    @Test
+    public void stopsWhenOutOfTimeAndResumesAtTheSameTask() {
+        CountingTask first = new CountingTask("first", 2);
+        CountingTask second = new CountingTask("second", 10);
+        List<StorageMaintenance.Task> tasks = Arrays.<StorageMaintenance.Task>asList(first, second);
+
+        // Read at the start and before each step, so this leaves room for four steps
+        StorageMaintenance.Result result = StorageMaintenance.run(tasks, 0, 5 * STEP_NANOS,
+                new AtomicBoolean(), new FakeClock());
+        assertFalse(result.isComplete(tasks.size()));
+        assertEquals(1, result.nextTask);
+        assertEquals(4, result.steps);
+        assertFalse(result.cancelled);
+
+        result = StorageMaintenance.run(tasks, result.nextTask, Long.MAX_VALUE, new AtomicBoolean(),
+                new FakeClock());
+        assertTrue(result.isComplete(tasks.size()));
+        assertEquals(2, first.taken);
+        assertEquals(10, second.taken);
+    }
+
+    @Test
+    public void stopsBetweenStepsWhenCancelled() {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        StorageMaintenance.Task cancelling = new CountingTask("cancelling", 5) {
+            @Override
+            public boolean step(StorageMaintenance.Result result) {
+                cancelled.set(true);
+                return super.step(result);
+            }
+        };
+        List<StorageMaintenance.Task> tasks = Arrays.asList(cancelling, new CountingTask("next", 1));
+
+        StorageMaintenance.Result result = StorageMaintenance.run(tasks, 0, Long.MAX_VALUE, cancelled,
+                new FakeClock());
+
+        assertTrue(result.cancelled);
+        assertEquals(1, result.steps);
+        assertEquals(0, result.nextTask);
+    }
+
+    @Test
+    public void aFailingTaskIsSkipped() {
+        StorageMaintenance.Task failing = new StorageMaintenance.Task() {
+            @Override
+            public String name() {
+                return "failing";
+            }
+
+            @Override
+            public boolean step(StorageMaintenance.Result result) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        CountingTask after = new CountingTask("after", 1);
+        List<StorageMaintenance.Task> tasks = Arrays.asList(failing, after);
+
+        StorageMaintenance.Result result = StorageMaintenance.run(tasks, 0, Long.MAX_VALUE,
+                new AtomicBoolean(), new FakeClock());
+
+        assertTrue(result.isComplete(tasks.size()));
+        assertEquals(1, after.taken);
+        assertEquals(1, result.failures.size());
+        assertTrue(result.failures.get(0).startsWith("failing: "));
+    }
+
+    @Test
+    public void fileSweepDeletesOrphansInBatches() throws IOException {
+        File dir = Files.createTempDirectory("maintenance").toFile();
+        try {
+            int count = StorageMaintenance.FileSweep.BATCH_SIZE * 2 + 5;
+            for (int i = 0; i < count; i++) {
+                Files.write(new File(dir, (i % 2 == 0 ? "orphan-" : "used-") + i).toPath(), new byte[10]);
+            }
+            new File(dir, "orphan-dir").mkdir();
+            StorageMaintenance.FileSweep sweep = new StorageMaintenance.FileSweep("sweep", dir,
+                    new StorageMaintenance.FileSweep.Check() {
+                        @Override
+                        public boolean isOrphan(File file) {
+                            return file.getName().startsWith("orphan-");
+                        }
+                    });
+
+            List<StorageMaintenance.Task> tasks = new ArrayList<>();
+            tasks.add(sweep);
+            StorageMaintenance.Result result = StorageMaintenance.run(tasks, 0, Long.MAX_VALUE,
+                    new AtomicBoolean(), new FakeClock());
+
+            int orphans = (count + 1) / 2;
+            assertTrue(result.isComplete(1));
+            // Listing, then one step per batch
+            assertEquals(1 + 3, result.steps);
+            assertEquals(orphans, sweep.deleted);
+            assertEquals(orphans * 10L, result.bytesReclaimed);
+            String[] left = dir.list();
+            assertEquals(count - orphans + 1, left.length);
+            for (String name : left) {
+                assertTrue(name, name.startsWith("used-") || name.equals("orphan-dir"));
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            for (File file : files) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void fileSweepOfAMissingDirectoryFinishesAtOnce() {
+        StorageMaintenance.FileSweep sweep = new StorageMaintenance.FileSweep("sweep",
+                new File("does-not-exist-" + System.nanoTime()), new StorageMaintenance.FileSweep.Check() {
+                    @Override
+                    public boolean isOrphan(File file) {
+                        return true;
+                    }
+                });
+        List<StorageMaintenance.Task> tasks = new ArrayList<>();
+        tasks.add(sweep);
+
+        StorageMaintenance.Result result = StorageMaintenance.run(tasks, 0, Long.MAX_VALUE,
+                new AtomicBoolean(), new FakeClock());
+
+        assertTrue(result.isComplete(1));
+        assertEquals(1, result.steps);
+        assertEquals(0, result.bytesReclaimed);
+    }
+}
@@ -0,0 +1,129 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class WaveformPeaksTest {
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void silenceHasFlatPeaks() {
+        WaveformPeaks peaks = new WaveformPeaks(128);
+        short[] pcm = new short[SAMPLE_RATE];
+        peaks.add(pcm, 0, pcm.length, 1);
+
+        for (byte peak : peaks.toBytes()) {
+            assertEquals(0, peak);
+        }
+        assertEquals(SAMPLE_RATE, peaks.frames());
+    }
+
+    @Test
+    public void peaksFollowTheLoudness() {
+        // A quiet second followed by a loud one
+        short[] pcm = new short[2 * SAMPLE_RATE];
+        for (int i = 0; i < pcm.length; i++) {
+            int amplitude = i < SAMPLE_RATE ? 1000 : 30000;
+            pcm[i] = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        WaveformPeaks peaks = new WaveformPeaks(64);
+        peaks.add(pcm, 0, pcm.length, 1);
+
+        byte[] bytes = peaks.toBytes();
+        assertTrue(bytes.length >= 32 && bytes.length <= 64);
+        assertEquals(8, bytes[0] & 0xff);
+        assertEquals(233, bytes[bytes.length - 2] & 0xff);
+    }
+
+    @Test
+    public void fullScaleIs255() {
+        short[] pcm = {Short.MIN_VALUE, Short.MAX_VALUE};
+        WaveformPeaks peaks = new WaveformPeaks(2);
+        peaks.add(pcm, 0, pcm.length, 1);
+
+        assertEquals(255, peaks.toBytes()[0] & 0xff);
+    }
+
+    @Test
+    public void stereoFramesTakeTheLouderChannel() {
+        short[] pcm = new short[2 * WaveformPeaks.INITIAL_FRAMES_PER_PEAK];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i] = 100;
+            pcm[i + 1] = -16384;
+        }
+        WaveformPeaks peaks = new WaveformPeaks(4);
+        peaks.add(pcm, 0, pcm.length, 2);
+
+        assertArrayEquals(new byte[]{(byte) 128}, peaks.toBytes());
+        assertEquals(WaveformPeaks.INITIAL_FRAMES_PER_PEAK, peaks.frames());
+    }
+
+    @Test
+    public void longRecordingsKeepABoundedNumberOfPeaks() {
+        // Ten minutes, fed in decoder-sized buffers
+        short[] buffer = new short[4096];
+        WaveformPeaks peaks = new WaveformPeaks(128);
+        long total = 10L * 60 * SAMPLE_RATE;
+        long fed = 0;
+        while (fed < total) {
+            int n = (int) Math.min(buffer.length, total - fed);
+            for (int i = 0; i < n; i++) {
+                buffer[i] = (short) ((fed + i) % 1000);
+            }
+            peaks.add(buffer, 0, n, 1);
+            fed += n;
+        }
+
+        byte[] bytes = peaks.toBytes();
+        assertTrue("Got " + bytes.length + " peaks", bytes.length >= 64 && bytes.length <= 129);
+        assertEquals(total, peaks.frames());
+    }
+
+    @Test
+    public void peaksDontDependOnBufferSizes() {
+        short[] pcm = new short[3 * SAMPLE_RATE];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) ((i * 7919) % 65536 - 32768);
+        }
+        WaveformPeaks whole = new WaveformPeaks(32);
+        whole.add(pcm, 0, pcm.length, 1);
+        WaveformPeaks chunked = new WaveformPeaks(32);
+        for (int offset = 0; offset < pcm.length; offset += 1000) {
+            chunked.add(pcm, offset, Math.min(1000, pcm.length - offset), 1);
+        }
+
+        assertArrayEquals(whole.toBytes(), chunked.toBytes());
+    }
+
+    @Test
+    public void sidecarsRoundTripAndNoticeReplacedRecordings() throws IOException {
+        File audio = File.createTempFile("sticky_note_", ".m4a");
+        File sidecar = File.createTempFile("voice-note", ".peaks");
+        try {
+            byte[] peaks = {0, 12, (byte) 200, (byte) 255};
+            new VoiceNoteInfo(audio.getPath(), audio.length(), audio.lastModified(), 4200, peaks).write(sidecar);
+
+            VoiceNoteInfo info = VoiceNoteInfo.read(sidecar);
+            assertEquals(4200, info.durationMs);
+            assertArrayEquals(peaks, info.peaks);
+            assertTrue(info.isCurrentFor(audio));
+
+            Files.write(audio.toPath(), new byte[]{1, 2, 3});
+            assertFalse(info.isCurrentFor(audio));
+            sidecar.delete();
+            assertNull(VoiceNoteInfo.read(sidecar));
+        } finally {
+            audio.delete();
+            sidecar.delete();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class WidgetConfigTest {
+    @Test
+    public void equalConfigurationsShareOneKey() {
+        Set<WidgetConfig> configs = new HashSet<>();
+        configs.add(WidgetConfig.of(WidgetConfig.SOURCE_RECENT, 5, null));
+        // The query only matters for search widgets, and is trimmed for them
+        configs.add(WidgetConfig.of(WidgetConfig.SOURCE_RECENT, 5, "ignored"));
+        configs.add(WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 5, " groceries "));
+        configs.add(WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 5, "groceries"));
+
+        assertEquals(2, configs.size());
+        assertEquals(WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 5, "groceries").fileKey(),
+                WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 5, " groceries").fileKey());
+        assertNotEquals(WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 5, "groceries").fileKey(),
+                WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 5, "recipes").fileKey());
+    }
+
+    @Test
+    public void unknownSourcesAndSlotCountsFallBack() {
+        WidgetConfig config = WidgetConfig.of("upcoming", 0, "q");
+
+        assertEquals(WidgetConfig.SOURCE_PINNED_AND_RECENT, config.source);
+        assertEquals(1, config.slots);
+        assertNull(config.query);
+        assertEquals(WidgetSettings.MAX_SLOTS, WidgetConfig.of(null, 1000, null).slots);
+        assertEquals(WidgetConfig.DEFAULT, WidgetConfig.of(null, WidgetSettings.DEFAULT_SLOTS, null));
+    }
+
+    @Test
+    public void onlyPinnedSourcesReadPins() {
+        assertTrue(WidgetConfig.DEFAULT.usesPins());
+        assertTrue(WidgetConfig.of(WidgetConfig.SOURCE_PINNED, 3, null).usesPins());
+        assertFalse(WidgetConfig.of(WidgetConfig.SOURCE_RECENT, 3, null).usesPins());
+        assertFalse(WidgetConfig.of(WidgetConfig.SOURCE_SEARCH, 3, "a").usesPins());
+    }
+}
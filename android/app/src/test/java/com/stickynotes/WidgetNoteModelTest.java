@@ -0,0 +1,143 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class WidgetNoteModelTest {
+    private static final int SLOTS = 3;
+
+    private static FakeNoteStore storeWithNotes(int count) {
+        FakeNoteStore store = new FakeNoteStore();
+        for (int i = 0; i < count; i++) {
+            store.upsert("note-" + i);
+        }
+        return store;
+    }
+
+    private static List<String> ids(List<WidgetNote> rows) {
+        List<String> ids = new ArrayList<>(rows.size());
+        for (WidgetNote row : rows) {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+
+    private static List<String> rebuiltIds(FakeNoteStore store, WidgetPins pins) {
+        WidgetNoteModel fresh = new WidgetNoteModel(SLOTS);
+        fresh.rebuild(store, pins);
+        return ids(fresh.rows());
+    }
+
+    @Test
+    public void rebuildShowsPinnedNotesThenMostRecent() {
+        FakeNoteStore store = storeWithNotes(10);
+        WidgetNoteModel model = new WidgetNoteModel(SLOTS);
+
+        model.rebuild(store, WidgetPins.of(Collections.singletonList("note-2")));
+
+        assertEquals(Arrays.asList("note-2", "note-9", "note-8"), ids(model.rows()));
+    }
+
+    @Test
+    public void pinnedOnlyModelLeavesFreeRowsEmpty() {
+        Random random = new Random(5);
+        FakeNoteStore store = storeWithNotes(50);
+        WidgetPins pins = WidgetPins.of(Arrays.asList("note-40", "missing", "note-3"));
+        WidgetNoteModel model = new WidgetNoteModel(SLOTS, false);
+        model.rebuild(store, pins);
+        long version = store.journal.size();
+        assertEquals(Arrays.asList("note-40", "note-3"), ids(model.rows()));
+
+        for (int round = 0; round < 200; round++) {
+            String id = random.nextBoolean() ? "note-" + random.nextInt(60) : "note-3";
+            if (random.nextInt(3) == 0) {
+                store.delete(id);
+            } else {
+                store.upsert(id);
+            }
+            model.apply(store.changesSince(version), store);
+            version = store.journal.size();
+
+            WidgetNoteModel fresh = new WidgetNoteModel(SLOTS, false);
+            fresh.rebuild(store, pins);
+            assertEquals("round " + round, ids(fresh.rows()), ids(model.rows()));
+            for (WidgetNote row : model.rows()) {
+                assertTrue(pins.contains(row.id));
+            }
+        }
+    }
+
+    @Test
+    public void incrementalRefreshMatchesFullRebuild() {
+        Random random = new Random(42);
+        FakeNoteStore store = storeWithNotes(200);
+        WidgetPins pins = WidgetPins.of(Arrays.asList("note-17", "note-5"));
+        WidgetNoteModel model = new WidgetNoteModel(SLOTS);
+        model.rebuild(store, pins);
+        long version = store.journal.size();
+
+        for (int round = 0; round < 500; round++) {
+            String id = "note-" + random.nextInt(260);
+            if (random.nextInt(4) == 0) {
+                store.delete(id);
+            } else {
+                store.upsert(id);
+            }
+
+            model.apply(store.changesSince(version), store);
+            version = store.journal.size();
+
+            assertEquals("round " + round, rebuiltIds(store, pins), ids(model.rows()));
+        }
+    }
+
+    @Test
+    public void refreshCostStaysFlatAsNoteCountGrows() {
+        int[] noteCounts = {100, 10_000, 100_000};
+        int[] maxRowsRead = new int[noteCounts.length];
+
+        for (int n = 0; n < noteCounts.length; n++) {
+            FakeNoteStore store = storeWithNotes(noteCounts[n]);
+            WidgetPins pins = WidgetPins.of(Collections.singletonList("note-0"));
+            WidgetNoteModel model = new WidgetNoteModel(SLOTS);
+            model.rebuild(store, pins);
+            long version = store.journal.size();
+
+            // Edit a shown note, edit a hidden one, delete a shown one, add a new one
+            String[][] edits = {
+                    {"upsert", "note-" + (noteCounts[n] - 1)},
+                    {"upsert", "note-" + (noteCounts[n] / 2)},
+                    {"delete", "note-" + (noteCounts[n] - 2)},
+                    {"upsert", "new-note"},
+                    {"upsert", "note-0"},
+            };
+            for (String[] edit : edits) {
+                if (edit[0].equals("delete")) {
+                    store.delete(edit[1]);
+                } else {
+                    store.upsert(edit[1]);
+                }
+
+                store.rowsRead = 0;
+                model.apply(store.changesSince(version), store);
+                version = store.journal.size();
+                maxRowsRead[n] = Math.max(maxRowsRead[n], store.rowsRead);
+            }
+
+            assertEquals(rebuiltIds(store, pins), ids(model.rows()));
+        }
+
+        for (int n = 1; n < noteCounts.length; n++) {
+            assertEquals("rows read at " + noteCounts[n] + " notes", maxRowsRead[0], maxRowsRead[n]);
+        }
+        assertTrue("rows read per refresh: " + maxRowsRead[0], maxRowsRead[0] <= SLOTS + 2);
+    }
+}
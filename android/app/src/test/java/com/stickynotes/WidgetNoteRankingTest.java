@@ -0,0 +1,146 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class WidgetNoteRankingTest {
+    private static final int NOTE_COUNT = 10_000;
+    private static final int PIN_COUNT = 1_000;
+
+    /**
+     * Ranks by brute force: sorts everything, then takes pinned notes in pin order and
+     * tops up with the most recent unpinned ones.
+     */
+    private static List<String> expectedRows(FakeNoteStore store, final WidgetPins pins, int slots) {
+        List<WidgetNote> pinned = new ArrayList<>();
+        List<WidgetNote> unpinned = new ArrayList<>();
+        for (WidgetNote note : store.byTime) {
+            (pins.contains(note.id) ? pinned : unpinned).add(note);
+        }
+        Collections.sort(pinned, new Comparator<WidgetNote>() {
+            @Override
+            public int compare(WidgetNote a, WidgetNote b) {
+                return Integer.compare(pins.positionOf(a.id), pins.positionOf(b.id));
+            }
+        });
+
+        List<String> rows = new ArrayList<>();
+        for (WidgetNote note : pinned) {
+            if (rows.size() < slots) {
+                rows.add(note.id);
+            }
+        }
+        for (WidgetNote note : unpinned) {
+            if (rows.size() < slots) {
+                rows.add(note.id);
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> ids(List<WidgetNote> rows) {
+        List<String> ids = new ArrayList<>(rows.size());
+        for (WidgetNote row : rows) {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+
+    /**
+     * 10k notes and 1k pins in random order, a fifth of them pointing at notes that
+     * don't exist.
+     */
+    private static WidgetPins randomPins(Random random) {
+        List<String> ids = new ArrayList<>(PIN_COUNT);
+        for (int i = 0; i < PIN_COUNT; i++) {
+            ids.add(random.nextInt(5) == 0 ? "missing-" + i : "note-" + random.nextInt(NOTE_COUNT));
+        }
+        return WidgetPins.of(ids);
+    }
+
+    private static FakeNoteStore storeWithNotes(Random random) {
+        FakeNoteStore store = new FakeNoteStore();
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            store.upsert("note-" + i);
+        }
+        // Shuffle the update order so pin order and recency disagree
+        for (int i = 0; i < NOTE_COUNT / 2; i++) {
+            store.upsert("note-" + random.nextInt(NOTE_COUNT));
+        }
+        return store;
+    }
+
+    @Test
+    public void pinsKeepTheirFirstPositionAndOrder() {
+        WidgetPins pins = WidgetPins.of(Arrays.asList("b", "a", "b", "c"));
+
+        assertEquals(Arrays.asList("b", "a", "c"), pins.ids());
+        assertEquals(1, pins.positionOf("a"));
+        assertEquals(-1, pins.positionOf("d"));
+    }
+
+    @Test
+    public void selectorMatchesBruteForceRanking() {
+        Random random = new Random(7);
+        FakeNoteStore store = storeWithNotes(random);
+        WidgetPins pins = randomPins(random);
+
+        for (int slots : new int[]{1, 3, 8, 1_000, 2_000}) {
+            WidgetNoteSelector selector = new WidgetNoteSelector(slots, pins);
+            // Stream the notes in id order, not ranking order
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                selector.offer(store.byId.get("note-" + i));
+            }
+
+            assertEquals("slots " + slots, expectedRows(store, pins, slots), ids(selector.select()));
+        }
+    }
+
+    @Test
+    public void modelMatchesBruteForceRanking() {
+        Random random = new Random(11);
+        FakeNoteStore store = storeWithNotes(random);
+        WidgetPins pins = randomPins(random);
+
+        for (int slots : new int[]{1, 3, 8, 1_000, 2_000}) {
+            WidgetNoteModel model = new WidgetNoteModel(slots);
+            model.rebuild(store, pins);
+            assertEquals("slots " + slots, expectedRows(store, pins, slots), ids(model.rows()));
+        }
+    }
+
+    @Test
+    public void modelKeepsRankingThroughEditsToPinnedNotes() {
+        Random random = new Random(13);
+        FakeNoteStore store = storeWithNotes(random);
+        WidgetPins pins = randomPins(random);
+        WidgetNoteModel model = new WidgetNoteModel(5);
+        model.rebuild(store, pins);
+        long version = store.journal.size();
+
+        for (int round = 0; round < 300; round++) {
+            // Mostly touch pinned notes, so rows keep entering and leaving the pinned part
+            String id = random.nextBoolean()
+                    ? pins.ids().get(random.nextInt(20))
+                    : "note-" + random.nextInt(NOTE_COUNT);
+            if (random.nextInt(3) == 0) {
+                store.delete(id);
+            } else if (!id.startsWith("missing-") || random.nextBoolean()) {
+                store.upsert(id);
+            }
+
+            model.apply(store.changesSince(version), store);
+            version = store.journal.size();
+
+            assertEquals("round " + round, expectedRows(store, pins, 5), ids(model.rows()));
+        }
+    }
+}
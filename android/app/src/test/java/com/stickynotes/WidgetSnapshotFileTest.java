@@ -0,0 +1,243 @@
+package com.stickynotes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class WidgetSnapshotFileTest {
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("widget-snapshot", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, "widget-1.snap");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static WidgetNote note(String id, String title, String content, long updatedAt) {
+        WidgetNote note = new WidgetNote();
+        note.id = id;
+        note.title = title;
+        note.content = content;
+        note.updatedAt = updatedAt;
+        return note;
+    }
+
+    private static WidgetSnapshot snapshot(long dataVersion, WidgetNote... rows) {
+        return new WidgetSnapshot(dataVersion, Arrays.asList(rows));
+    }
+
+    private static void assertRows(WidgetSnapshot expected, WidgetSnapshotFile.Mapped actual) {
+        assertEquals(expected.dataVersion, actual.dataVersion);
+        assertEquals(expected.rows.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            WidgetNote note = expected.rows.get(i);
+            assertEquals(note.id, actual.id(i));
+            assertEquals(note.title, actual.title(i));
+            assertEquals(note.content != null ? note.content : "", actual.content(i));
+            assertEquals(note.updatedAt, actual.updatedAt(i));
+            assertEquals(note.hasDrawing, actual.hasDrawing(i));
+            assertEquals(note.hasAudio, actual.hasAudio(i));
+        }
+    }
+
+    private void flipByte(File target, long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+        try {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x5A);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void truncate(File target, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void roundTripsRows() throws IOException {
+        WidgetSnapshot written = snapshot(42,
+                note("note-1", "Groceries", "Milk, eggs", 1_700_000_000_000L),
+                note("note-2", "", "", 5),
+                note("note-3", null, "No title at all", Long.MAX_VALUE),
+                note("note-4", "\u00DCn\u00EFc\u00F6d\u00E9 \uD83D\uDDD2\uFE0F", "\u65E5\u672C\u8A9E\u306E\u30E1\u30E2", 0));
+
+        WidgetSnapshotFile.write(file, written);
+
+        assertRows(written, WidgetSnapshotFile.open(file));
+    }
+
+    @Test
+    public void roundTripsFlags() throws IOException {
+        WidgetNote drawing = note("note-1", "Sketch", "", 1);
+        drawing.hasDrawing = true;
+        WidgetNote untitled = note("note-2", null, "Untitled sketch", 2);
+        untitled.hasDrawing = true;
+        untitled.hasAudio = true;
+        WidgetNote recording = note("note-3", "Memo", "", 3);
+        recording.hasAudio = true;
+        WidgetSnapshot written = snapshot(3, drawing, untitled, recording, note("note-4", "Text", "only", 4));
+
+        WidgetSnapshotFile.write(file, written);
+
+        assertRows(written, WidgetSnapshotFile.open(file));
+    }
+
+    @Test
+    public void roundTripsEmptySnapshot() throws IOException {
+        WidgetSnapshot written = new WidgetSnapshot(WidgetSnapshot.LEGACY_VERSION, Collections.<WidgetNote>emptyList());
+
+        WidgetSnapshotFile.write(file, written);
+
+        assertRows(written, WidgetSnapshotFile.open(file));
+    }
+
+    @Test
+    public void roundTripsFullPreviews() throws IOException {
+        List<WidgetNote> rows = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < WidgetNote.PREVIEW_LENGTH; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < WidgetSettings.MAX_SLOTS; i++) {
+            rows.add(note("note-" + i, "Title " + i, content.toString(), i));
+        }
+        WidgetSnapshot written = new WidgetSnapshot(7, rows);
+
+        WidgetSnapshotFile.write(file, written);
+
+        assertRows(written, WidgetSnapshotFile.open(file));
+    }
+
+    @Test
+    public void missingFileGivesNull() {
+        assertNull(WidgetSnapshotFile.open(file));
+    }
+
+    @Test
+    public void keepsPreviousSnapshotAsBackup() throws IOException {
+        WidgetSnapshotFile.write(file, snapshot(1, note("a", "A", "first", 1)));
+        WidgetSnapshotFile.write(file, snapshot(2, note("b", "B", "second", 2)));
+
+        assertEquals(2, WidgetSnapshotFile.open(file).dataVersion);
+        assertTrue(WidgetSnapshotFile.backupOf(file).exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void detectsCorruptionAnywhereInTheFile() throws IOException {
+        WidgetSnapshot good = snapshot(1, note("a", "A", "first", 1));
+        WidgetSnapshot latest = snapshot(2,
+                note("b", "B", "second", 2),
+                note("c", null, "third", 3));
+        WidgetSnapshotFile.write(file, good);
+        WidgetSnapshotFile.write(file, latest);
+        File latestCopy = new File(dir, "latest.copy");
+        copy(file, latestCopy);
+
+        // Header fields, each table and the text pool
+        for (long position = 0; position < latestCopy.length(); position++) {
+            copy(latestCopy, file);
+            flipByte(file, position);
+
+            WidgetSnapshotFile.Mapped mapped = WidgetSnapshotFile.open(file);
+            assertNotNull("byte " + position, mapped);
+            assertRows(good, mapped);
+        }
+    }
+
+    @Test
+    public void tornWriteFallsBackToLastGoodSnapshot() throws IOException {
+        WidgetSnapshot good = snapshot(1, note("a", "A", "first", 1));
+        WidgetSnapshotFile.write(file, good);
+        WidgetSnapshotFile.write(file, snapshot(2, note("b", "B", "second", 2)));
+        File latestCopy = new File(dir, "latest.copy");
+        copy(file, latestCopy);
+        long length = file.length();
+
+        for (long torn : new long[]{0, WidgetSnapshotFile.HEADER_SIZE - 1, WidgetSnapshotFile.HEADER_SIZE, length - 1}) {
+            copy(latestCopy, file);
+            truncate(file, torn);
+
+            assertRows(good, WidgetSnapshotFile.open(file));
+        }
+    }
+
+    @Test
+    public void missingCurrentFileFallsBackToBackup() throws IOException {
+        WidgetSnapshot good = snapshot(1, note("a", "A", "first", 1));
+        WidgetSnapshotFile.write(file, good);
+        WidgetSnapshotFile.write(file, snapshot(2, note("b", "B", "second", 2)));
+        // As if the process died between the two renames
+        file.delete();
+
+        assertRows(good, WidgetSnapshotFile.open(file));
+    }
+
+    @Test
+    public void rejectsOtherFormatVersions() {
+        ByteBuffer buffer = WidgetSnapshotFile.encode(1, Collections.singletonList(note("a", "A", "x", 1)));
+        assertTrue(WidgetSnapshotFile.isValid(buffer));
+
+        buffer.putInt(4, WidgetSnapshotFile.FORMAT_VERSION + 1);
+
+        assertFalse(WidgetSnapshotFile.isValid(buffer));
+    }
+
+    @Test
+    public void bothCopiesCorruptGivesNull() throws IOException {
+        WidgetSnapshotFile.write(file, snapshot(1, note("a", "A", "first", 1)));
+        WidgetSnapshotFile.write(file, snapshot(2, note("b", "B", "second", 2)));
+        flipByte(file, file.length() - 1);
+        flipByte(WidgetSnapshotFile.backupOf(file), WidgetSnapshotFile.HEADER_SIZE);
+
+        assertNull(WidgetSnapshotFile.open(file));
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(from, "r");
+        RandomAccessFile out = new RandomAccessFile(to, "rw");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            out.setLength(0);
+            out.write(bytes);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.stickynotes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming the legacy {@code @sticky_notes} array into the widget's rows, as the widget
+ * does before the app has migrated to the native store. Mostly measures how fast large
+ * drawings are skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LegacyParseBenchmark {
+    // WidgetSettings.DEFAULT_SLOTS, which needs Android to load
+    private static final int SLOTS = 3;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int noteCount;
+
+    @Param({"0", "20", "200"})
+    public int drawingKb;
+
+    private SyntheticNotes.LegacyCorpus corpus;
+    private WidgetPins pins;
+    private final LegacyNotesParser parser = new LegacyNotesParser();
+    private WidgetNoteSelector selector;
+
+    @Setup
+    public void setUp() {
+        corpus = new SyntheticNotes.LegacyCorpus(noteCount, drawingKb * 1024, 42);
+        pins = SyntheticNotes.pins(noteCount, 2, 7);
+        selector = new WidgetNoteSelector(SLOTS, pins);
+    }
+
+    @Benchmark
+    public List<WidgetNote> parseAndSelect() throws IOException {
+        // Reused like the snapshot builder's, so gc.alloc.rate.norm shows what a refresh allocates
+        selector.reset(SLOTS, pins);
+        parser.parseNotes(corpus.reader(), selector);
+        return selector.select();
+    }
+}
@@ -0,0 +1,80 @@
+package com.stickynotes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries against {@link NoteSearchIndex}, and the incremental update a note save costs.
+ * The budget is 10 ms per query at 50k notes.
+ *
+ * <p>Queries: a very common word, a rare one, two common words, and a two-letter prefix
+ * of a common word, which expands to many terms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteSearchBenchmark {
+    private static final int VOCABULARY = 20000;
+    private static final int PAGE = 20;
+
+    @Param({"1000", "50000"})
+    public int noteCount;
+
+    @Param({"common", "rare", "twoTerms", "prefix"})
+    public String queryKind;
+
+    private NoteSearchIndex index;
+    private String[][] texts;
+    private String query;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        texts = SyntheticNotes.noteTexts(noteCount, VOCABULARY, 42);
+        index = new NoteSearchIndex();
+        for (int i = 0; i < noteCount; i++) {
+            index.put(SyntheticNotes.id(i), texts[i][0], texts[i][1], i);
+        }
+        switch (queryKind) {
+            case "common":
+                query = SyntheticNotes.word(0);
+                break;
+            case "rare":
+                query = SyntheticNotes.word(VOCABULARY / 2);
+                break;
+            case "twoTerms":
+                query = SyntheticNotes.word(1) + " " + SyntheticNotes.word(2);
+                break;
+            default:
+                query = SyntheticNotes.word(3).substring(0, 2);
+                break;
+        }
+    }
+
+    @Benchmark
+    public NoteSearchIndex.Page firstPage() {
+        return index.search(query, 0, PAGE);
+    }
+
+    @Benchmark
+    public NoteSearchIndex.Page deepPage() {
+        return index.search(query, 10 * PAGE, PAGE);
+    }
+
+    /**
+     * Re-indexing one note, as after a save.
+     */
+    @Benchmark
+    public void update() {
+        int i = next++ % noteCount;
+        index.put(SyntheticNotes.id(i), texts[i][0], texts[i][1], noteCount + next);
+    }
+}
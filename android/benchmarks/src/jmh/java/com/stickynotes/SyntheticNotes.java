@@ -0,0 +1,260 @@
+package com.stickynotes;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic note corpora shaped like the app's data: a title, a few hundred characters
+ * of content, and a base64 PNG data URL in {@code drawingPaths}.
+ */
+final class SyntheticNotes {
+    private static final long BASE_TIME = 1_700_000_000_000L;
+    private static final int CONTENT_VARIANTS = 16;
+
+    private SyntheticNotes() {
+    }
+
+    static String id(int i) {
+        return "note-" + i;
+    }
+
+    /**
+     * Update times are shuffled so no input order happens to match the ranking.
+     */
+    static long[] updateTimes(int count, long seed) {
+        Random random = new Random(seed);
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = BASE_TIME + random.nextInt(Integer.MAX_VALUE);
+        }
+        return times;
+    }
+
+    static List<WidgetNote> widgetNotes(int count, long seed) {
+        long[] times = updateTimes(count, seed);
+        List<WidgetNote> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WidgetNote note = new WidgetNote();
+            note.id = id(i);
+            note.title = "Note " + i;
+            note.content = "Content of note " + i;
+            note.updatedAt = times[i];
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    /**
+     * Note text drawn from a vocabulary of {@code vocabulary} made-up words, with word
+     * frequencies following Zipf's law like natural language. Returns {title, content}
+     * pairs; word {@code i} is {@link #word}(i), so a lower rank is a more common word.
+     */
+    static String[][] noteTexts(int count, int vocabulary, long seed) {
+        Random random = new Random(seed);
+        double[] cumulative = new double[vocabulary];
+        double total = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        String[][] texts = new String[count][];
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < count; n++) {
+            sb.setLength(0);
+            int titleWords = 1 + random.nextInt(4);
+            for (int w = 0; w < titleWords; w++) {
+                sb.append(w > 0 ? " " : "").append(word(zipf(random, cumulative, total)));
+            }
+            String title = sb.toString();
+            sb.setLength(0);
+            int contentWords = 20 + random.nextInt(200);
+            for (int w = 0; w < contentWords; w++) {
+                sb.append(word(zipf(random, cumulative, total))).append(w % 12 == 11 ? ".\n" : " ");
+            }
+            texts[n] = new String[]{title, sb.toString()};
+        }
+        return texts;
+    }
+
+    /**
+     * A pronounceable word for a vocabulary rank, unique per rank.
+     */
+    static String word(int rank) {
+        String consonants = "bcdfghklmnprstvz";
+        String vowels = "aeiou";
+        StringBuilder sb = new StringBuilder();
+        int value = rank + 16;
+        while (value > 0) {
+            sb.append(consonants.charAt(value % 16)).append(vowels.charAt((value / 16) % 5));
+            value /= 80;
+        }
+        return sb.toString();
+    }
+
+    private static int zipf(Random random, double[] cumulative, double total) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+        return Math.min(cumulative.length - 1, index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Pins {@code pinCount} notes picked at random, a tenth of them no longer existing.
+     */
+    static WidgetPins pins(int noteCount, int pinCount, long seed) {
+        Random random = new Random(seed);
+        List<String> ids = new ArrayList<>(pinCount);
+        for (int i = 0; i < pinCount; i++) {
+            ids.add(random.nextInt(10) == 0 ? "deleted-" + i : id(random.nextInt(Math.max(1, noteCount))));
+        }
+        return WidgetPins.of(ids);
+    }
+
+    static String pinsJson(WidgetPins pins) {
+        StringBuilder sb = new StringBuilder("[");
+        for (String id : pins.ids()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(id).append('"');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * The {@code @sticky_notes} JSON array for a corpus. Generated while it is read, since
+     * 100k notes with 200 KB drawings each would not fit in a String. Every note's text
+     * apart from the drawing is built up front, and the drawing is one shared buffer, so
+     * reading allocates nothing on our side.
+     */
+    static final class LegacyCorpus {
+        final int count;
+        private final String[] heads;
+        private final char[] drawing;
+        private final String tail;
+
+        LegacyCorpus(int count, int drawingBytes, long seed) {
+            this.count = count;
+            long[] times = updateTimes(count, seed);
+            Random random = new Random(seed);
+
+            String[] contents = new String[CONTENT_VARIANTS];
+            for (int v = 0; v < CONTENT_VARIANTS; v++) {
+                StringBuilder content = new StringBuilder();
+                int words = 20 + random.nextInt(80);
+                for (int w = 0; w < words; w++) {
+                    content.append("word").append(random.nextInt(1000)).append(w % 12 == 11 ? "\\n" : " ");
+                }
+                contents[v] = content.toString();
+            }
+
+            heads = new String[count];
+            for (int i = 0; i < count; i++) {
+                heads[i] = (i > 0 ? "," : "")
+                        + "{\"id\":\"" + id(i) + "\",\"title\":\"Note " + i
+                        + "\",\"content\":\"" + contents[i % CONTENT_VARIANTS]
+                        + "\",\"createdAt\":" + (times[i] - 1000)
+                        + ",\"updatedAt\":" + times[i]
+                        + ",\"drawingPaths\":" + (drawingBytes > 0 ? "\"" : "null");
+            }
+
+            String prefix = "data:image/png;base64,";
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            drawing = new char[drawingBytes > 0 ? Math.max(drawingBytes, prefix.length()) : 0];
+            prefix.getChars(0, Math.min(prefix.length(), drawing.length), drawing, 0);
+            for (int i = prefix.length(); i < drawing.length; i++) {
+                drawing[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            tail = (drawingBytes > 0 ? "\"" : "") + ",\"audioPath\":null}";
+        }
+
+        Reader reader() {
+            return new CorpusReader();
+        }
+
+        /**
+         * Walks "[", then head, drawing and tail of each note, then "]".
+         */
+        private final class CorpusReader extends Reader {
+            private int note = -1;
+            // 0 = head, 1 = drawing, 2 = tail
+            private int part = 2;
+            private int pos;
+            private boolean done;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (done) {
+                    return -1;
+                }
+                int written = 0;
+                while (written < length && !done) {
+                    if (note < 0) {
+                        buffer[offset + written++] = '[';
+                        note = 0;
+                        part = 0;
+                        continue;
+                    }
+                    if (note >= count) {
+                        buffer[offset + written++] = ']';
+                        done = true;
+                        break;
+                    }
+                    int size = part == 0 ? heads[note].length() : part == 1 ? drawing.length : tail.length();
+                    int n = Math.min(length - written, size - pos);
+                    if (part == 0) {
+                        heads[note].getChars(pos, pos + n, buffer, offset + written);
+                    } else if (part == 1) {
+                        System.arraycopy(drawing, pos, buffer, offset + written, n);
+                    } else {
+                        tail.getChars(pos, pos + n, buffer, offset + written);
+                    }
+                    written += n;
+                    pos += n;
+                    if (pos == size) {
+                        pos = 0;
+                        if (++part == 3) {
+                            part = 0;
+                            note++;
+                        }
+                    }
+                }
+                return written;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    /**
+     * An in-memory {@link WidgetNoteModel.Source} over a fixed corpus.
+     */
+    static final class MemorySource implements WidgetNoteModel.Source {
+        private final List<WidgetNote> byTime;
+        private final Map<String, WidgetNote> byId;
+
+        MemorySource(List<WidgetNote> notes) {
+            byTime = new ArrayList<>(notes);
+            byTime.sort(WidgetNoteModel.MOST_RECENT_FIRST);
+            byId = new HashMap<>(notes.size() * 2);
+            for (WidgetNote note : notes) {
+                byId.put(note.id, note);
+            }
+        }
+
+        @Override
+        public List<WidgetNote> loadRecent(int limit) {
+            return byTime.subList(0, Math.min(limit, byTime.size()));
+        }
+
+        @Override
+        public WidgetNote load(String id) {
+            return byId.get(id);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.stickynotes;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the widget rows from notes that are already parsed: the bounded top-K
+ * selector, the full sort it replaced, and merging pinned notes into the model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WidgetRankingBenchmark {
+    private static final int SLOTS = 3;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int noteCount;
+
+    @Param({"10", "1000"})
+    public int pinCount;
+
+    private List<WidgetNote> notes;
+    private WidgetPins pins;
+    private String pinsJson;
+    private SyntheticNotes.MemorySource source;
+
+    @Setup
+    public void setUp() {
+        notes = SyntheticNotes.widgetNotes(noteCount, 42);
+        pins = SyntheticNotes.pins(noteCount, pinCount, 7);
+        pinsJson = SyntheticNotes.pinsJson(pins);
+        source = new SyntheticNotes.MemorySource(notes);
+    }
+
+    @Benchmark
+    public List<WidgetNote> topK() {
+        WidgetNoteSelector selector = new WidgetNoteSelector(SLOTS, pins);
+        for (int i = 0; i < notes.size(); i++) {
+            selector.offer(notes.get(i));
+        }
+        return selector.select();
+    }
+
+    /**
+     * Baseline: sort everything, then pick, as the widget did before the selector.
+     */
+    @Benchmark
+    public List<WidgetNote> fullSort() {
+        List<WidgetNote> sorted = new ArrayList<>(notes);
+        Collections.sort(sorted, WidgetNoteModel.MOST_RECENT_FIRST);
+        List<WidgetNote> pinned = new ArrayList<>();
+        List<WidgetNote> rows = new ArrayList<>(SLOTS);
+        for (WidgetNote note : sorted) {
+            if (pins.contains(note.id)) {
+                pinned.add(note);
+            }
+        }
+        Collections.sort(pinned, new Comparator<WidgetNote>() {
+            @Override
+            public int compare(WidgetNote a, WidgetNote b) {
+                return Integer.compare(pins.positionOf(a.id), pins.positionOf(b.id));
+            }
+        });
+        rows.addAll(pinned.subList(0, Math.min(SLOTS, pinned.size())));
+        for (WidgetNote note : sorted) {
+            if (rows.size() >= SLOTS) {
+                break;
+            }
+            if (!pins.contains(note.id)) {
+                rows.add(note);
+            }
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public List<WidgetNote> pinnedMerge() {
+        WidgetNoteModel model = new WidgetNoteModel(SLOTS);
+        model.rebuild(source, pins);
+        return model.rows();
+    }
+
+    @Benchmark
+    public WidgetPins parsePins() throws JSONException {
+        return LegacyNotesParser.parsePins(pinsJson);
+    }
+}
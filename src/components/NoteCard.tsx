@@ -1,13 +1,17 @@
-import React from 'react';
-import { View, Text, StyleSheet, TouchableOpacity } from 'react-native';
+import React, { useEffect, useState } from 'react';
+import { View, Text, StyleSheet, TouchableOpacity, Image, PixelRatio } from 'react-native';
 import Icon from 'react-native-vector-icons/MaterialIcons';
-import { Note } from '../utils/noteUtils';
+import { NoteSummary, getNote, loadDrawing, getDrawingThumbnail } from '../utils/noteUtils';
 import { theme } from '../utils/theme';
 import { shareNote, shareVoiceNote, shareDrawingNote } from '../utils/shareUtils';
+import { formatVoiceNoteDuration, getVoiceNoteInfo } from '../utils/voiceNoteUtils';
+
+// Thumbnail size in dp
+const THUMBNAIL_SIZE = 64;
 
 interface NoteCardProps {
-  note: Note;
-  onPress: (note: Note) => void;
+  note: NoteSummary;
+  onPress: (note: NoteSummary) => void;
 }
 
 const getRandomColor = () => {
@@ -22,10 +26,47 @@ const getRandomColor = () => {
 
 const NoteCard: React.FC<NoteCardProps> = ({ note, onPress }) => {
   // Truncate content to show only a preview
-  const contentPreview = note.content.length > 80 
-    ? `${note.content.substring(0, 80)}...` 
-    : note.content;
+  const contentPreview = note.preview.length > 80 
+    ? `${note.preview.substring(0, 80)}...` 
+    : note.preview;
   
+  const [thumbnailUri, setThumbnailUri] = useState<string | undefined>();
+
+  useEffect(() => {
+    let cancelled = false;
+    setThumbnailUri(undefined);
+    if (note.hasDrawing) {
+      getDrawingThumbnail(note, PixelRatio.getPixelSizeForLayoutSize(THUMBNAIL_SIZE))
+        .then(uri => {
+          if (!cancelled) {
+            setThumbnailUri(uri);
+          }
+        })
+        .catch(error => console.error('Error loading drawing thumbnail:', error));
+    }
+    return () => {
+      cancelled = true;
+    };
+  }, [note.id, note.updatedAt, note.hasDrawing]);
+
+  const [audioDurationMs, setAudioDurationMs] = useState<number | undefined>();
+
+  useEffect(() => {
+    let cancelled = false;
+    setAudioDurationMs(undefined);
+    if (note.hasAudio) {
+      // Read from the precomputed sidecar, never by decoding the recording
+      getVoiceNoteInfo(note.id).then(info => {
+        if (!cancelled && info) {
+          setAudioDurationMs(info.durationMs);
+        }
+      });
+    }
+    return () => {
+      cancelled = true;
+    };
+  }, [note.id, note.updatedAt, note.hasAudio]);
+
   // Format date
   const formattedDate = new Date(note.updatedAt).toLocaleDateString();
   
@@ -33,12 +74,20 @@ const NoteCard: React.FC<NoteCardProps> = ({ note, onPress }) => {
     e.stopPropagation(); // Prevent triggering the card's onPress
     
     try {
-      if (note.audioPath) {
-        await shareVoiceNote(note);
-      } else if (note.drawingPaths) {
-        await shareDrawingNote(note);
+      // The list only has a summary, load the drawing or recording to share it
+      const fullNote = await getNote(note.id);
+      if (!fullNote) {
+        return;
+      }
+      if (!fullNote.audioPath && fullNote.drawingHash) {
+        fullNote.drawingPaths = await loadDrawing(fullNote);
+      }
+      if (fullNote.audioPath) {
+        await shareVoiceNote(fullNote);
+      } else if (fullNote.drawingPaths) {
+        await shareDrawingNote(fullNote);
       } else {
-        await shareNote(note);
+        await shareNote(fullNote);
       }
     } catch (error) {
       console.error('Error sharing note:', error);
@@ -57,6 +106,9 @@ const NoteCard: React.FC<NoteCardProps> = ({ note, onPress }) => {
       <Text style={styles.content} numberOfLines={3}>
         {contentPreview}
       </Text>
+      {thumbnailUri && (
+        <Image source={{ uri: thumbnailUri }} style={styles.thumbnail} resizeMode="contain" />
+      )}
       <View style={styles.footer}>
         <Text style={styles.date}>{formattedDate}</Text>
         <TouchableOpacity 
@@ -67,14 +119,16 @@ const NoteCard: React.FC<NoteCardProps> = ({ note, onPress }) => {
           <Icon name="share" size={18} color={theme.colors.brown} />
         </TouchableOpacity>
       </View>
-      {note.drawingPaths && (
+      {note.hasDrawing && (
         <View style={styles.drawingIndicator}>
           <Text style={styles.drawingIndicatorText}>✏️</Text>
         </View>
       )}
-      {note.audioPath && (
+      {note.hasAudio && (
         <View style={styles.audioIndicator}>
-          <Text style={styles.audioIndicatorText}>🎤</Text>
+          <Text style={styles.audioIndicatorText}>
+            🎤{audioDurationMs !== undefined ? ` ${formatVoiceNoteDuration(audioDurationMs)}` : ''}
+          </Text>
         </View>
       )}
     </TouchableOpacity>
@@ -110,6 +164,13 @@ const styles = StyleSheet.create({
     alignItems: 'center',
     marginTop: theme.spacing.sm,
   },
+  thumbnail: {
+    width: THUMBNAIL_SIZE,
+    height: THUMBNAIL_SIZE,
+    marginTop: theme.spacing.sm,
+    borderRadius: theme.borderRadius.sm,
+    backgroundColor: theme.colors.white,
+  },
   date: {
     fontSize: theme.fontSize.xs,
     color: theme.colors.gray,
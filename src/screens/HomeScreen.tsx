@@ -1,33 +1,40 @@
-import React, { useState, useCallback } from 'react';
+import React, { useState, useCallback, useRef } from 'react';
 import { View, Text, StyleSheet, FlatList, TouchableOpacity, SafeAreaView } from 'react-native';
 import { useFocusEffect } from '@react-navigation/native';
 import Icon from 'react-native-vector-icons/MaterialIcons';
-import { Note, getAllNotes } from '../utils/noteUtils';
+import { NoteSummary, listNoteSummaries, takeLaunchSnapshot } from '../utils/noteUtils';
 import NoteCard from '../components/NoteCard';
 import { theme } from '../utils/theme';
 import { NativeStackNavigationProp } from '@react-navigation/native-stack';
 
 type RootStackParamList = {
-  Splash: undefined;
+  Splash: { widgetNoteId?: string } | undefined;
   Home: undefined;
-  NoteDetail: { noteId?: string };
+  NoteDetail: { noteId?: string; fromWidget?: boolean };
 };
 
 type HomeScreenProps = {
   navigation: NativeStackNavigationProp<RootStackParamList, 'Home'>;
 };
 
+// Enough to fill the first screen with some to spare
+const PAGE_SIZE = 20;
+
 const HomeScreen: React.FC<HomeScreenProps> = ({ navigation }) => {
-  const [notes, setNotes] = useState<Note[]>([]);
-  const [isLoading, setIsLoading] = useState(true);
+  // Shown until the first listing arrives, so the first frame already has notes
+  const [launchPage] = useState(takeLaunchSnapshot);
+  const [notes, setNotes] = useState<NoteSummary[]>(launchPage ? launchPage.notes : []);
+  const [isLoading, setIsLoading] = useState(!launchPage);
+  // Cursor of the next page, or null once the last page is loaded
+  const nextCursor = useRef<string | null>(launchPage ? launchPage.nextCursor : null);
+  const isLoadingMore = useRef(false);
 
   const loadNotes = async () => {
     setIsLoading(true);
     try {
-      const allNotes = await getAllNotes();
-      // Sort notes by updatedAt (most recent first)
-      allNotes.sort((a, b) => b.updatedAt - a.updatedAt);
-      setNotes(allNotes);
+      const page = await listNoteSummaries(null, PAGE_SIZE);
+      nextCursor.current = page.nextCursor;
+      setNotes(page.notes);
     } catch (error) {
       console.error('Error loading notes:', error);
     } finally {
@@ -35,6 +42,22 @@ const HomeScreen: React.FC<HomeScreenProps> = ({ navigation }) => {
     }
   };
 
+  const loadMoreNotes = async () => {
+    if (isLoadingMore.current || !nextCursor.current) {
+      return;
+    }
+    isLoadingMore.current = true;
+    try {
+      const page = await listNoteSummaries(nextCursor.current, PAGE_SIZE);
+      nextCursor.current = page.nextCursor;
+      setNotes(current => [...current, ...page.notes]);
+    } catch (error) {
+      console.error('Error loading more notes:', error);
+    } finally {
+      isLoadingMore.current = false;
+    }
+  };
+
   // Reload notes when screen comes into focus
   useFocusEffect(
     useCallback(() => {
@@ -42,7 +65,7 @@ const HomeScreen: React.FC<HomeScreenProps> = ({ navigation }) => {
     }, [])
   );
 
-  const handleNotePress = (note: Note) => {
+  const handleNotePress = (note: NoteSummary) => {
     navigation.navigate('NoteDetail', { noteId: note.id });
   };
 
@@ -72,6 +95,8 @@ const HomeScreen: React.FC<HomeScreenProps> = ({ navigation }) => {
           <NoteCard note={item} onPress={handleNotePress} />
         )}
         keyExtractor={(item) => item.id}
+        onEndReached={loadMoreNotes}
+        onEndReachedThreshold={0.5}
         contentContainerStyle={styles.listContent}
         ListEmptyComponent={!isLoading ? renderEmptyList : null}
       />
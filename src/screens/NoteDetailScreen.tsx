@@ -20,14 +20,19 @@ import { requestAudioPermissions } from '../utils/permissions';
 import RNFS from 'react-native-fs';
 import SignatureCanvas from 'react-native-signature-canvas';
 import { theme } from '../utils/theme';
-import { Note, saveNote, getNote, deleteNote } from '../utils/noteUtils';
+import { Note, saveNote, getNote, deleteNote, loadDrawing } from '../utils/noteUtils';
 import { shareNote, shareVoiceNote, shareDrawingNote } from '../utils/shareUtils';
-import { addNoteToWidget, removeNoteFromWidget, isNoteInWidget } from '../utils/widgetUtils';
+import {
+  addNoteToWidget,
+  removeNoteFromWidget,
+  isNoteInWidget,
+  openNoteFromWidget,
+} from '../utils/widgetUtils';
 
 type RootStackParamList = {
-  Splash: undefined;
+  Splash: { widgetNoteId?: string } | undefined;
   Home: undefined;
-  NoteDetail: { noteId?: string };
+  NoteDetail: { noteId?: string; fromWidget?: boolean };
 };
 
 type NoteDetailScreenProps = {
@@ -95,12 +100,16 @@ const NoteDetailScreen: React.FC<NoteDetailScreenProps> = ({ navigation, route }
 
   useEffect(() => {
     const loadNote = async () => {
-      const { noteId } = route.params || {};
+      const { noteId, fromWidget } = route.params || {};
       
       if (noteId) {
         try {
-          const loadedNote = await getNote(noteId);
+          // A widget tap has already started loading the note natively
+          const loadedNote = fromWidget ? await openNoteFromWidget(noteId) : await getNote(noteId);
           if (loadedNote) {
+            if (loadedNote.drawingHash) {
+              loadedNote.drawingPaths = await loadDrawing(loadedNote);
+            }
             setNote(loadedNote);
             if (loadedNote.audioPath) {
               setAudioPath(loadedNote.audioPath);
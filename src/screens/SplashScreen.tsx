@@ -1,27 +1,45 @@
 import React, { useEffect } from 'react';
 import { View, Text, StyleSheet, Image, ActivityIndicator } from 'react-native';
 import { theme } from '../utils/theme';
+import { hasLaunchSnapshot } from '../utils/noteUtils';
+import { RouteProp } from '@react-navigation/native';
 import { NativeStackNavigationProp } from '@react-navigation/native-stack';
 
 type RootStackParamList = {
-  Splash: undefined;
+  Splash: { widgetNoteId?: string } | undefined;
   Home: undefined;
-  NoteDetail: { noteId?: string };
+  NoteDetail: { noteId?: string; fromWidget?: boolean };
 };
 
 type SplashScreenProps = {
   navigation: NativeStackNavigationProp<RootStackParamList, 'Splash'>;
+  route: RouteProp<RootStackParamList, 'Splash'>;
 };
 
-const SplashScreen: React.FC<SplashScreenProps> = ({ navigation }) => {
+const SplashScreen: React.FC<SplashScreenProps> = ({ navigation, route }) => {
+  const widgetNoteId = route.params?.widgetNoteId;
+
   useEffect(() => {
-    // Navigate to Home screen after a delay
+    if (widgetNoteId) {
+      // Opened from a widget tap: go straight to the note, with Home behind it for back
+      navigation.reset({
+        index: 1,
+        routes: [
+          { name: 'Home' },
+          { name: 'NoteDetail', params: { noteId: widgetNoteId, fromWidget: true } },
+        ],
+      });
+      return;
+    }
+
+    // Navigate to Home screen after a delay, or right away when its first page is
+    // already available from the launch snapshot
     const timeout = setTimeout(() => {
       navigation.replace('Home');
-    }, 2000);
+    }, hasLaunchSnapshot() ? 0 : 2000);
 
     return () => clearTimeout(timeout);
-  }, [navigation]);
+  }, [navigation, widgetNoteId]);
 
   return (
     <View style={styles.container}>
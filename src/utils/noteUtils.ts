@@ -1,5 +1,5 @@
 import AsyncStorage from '@react-native-async-storage/async-storage';
-import { Platform } from 'react-native';
+import { DeviceEventEmitter, EmitterSubscription, NativeModules, Platform } from 'react-native';
 
 // Polyfill for uuid v4 for React Native
 function uuidv4() {
@@ -23,15 +23,72 @@ export interface Note {
   title: string;
   content: string;
   drawingPaths?: string;
+  // Set instead of drawingPaths for notes from the native store, see loadDrawing
+  drawingHash?: string;
+  drawingSize?: number;
   audioPath?: string, // Path to recorded voice note
   createdAt: number;
   updatedAt: number;
 }
 
 const NOTES_STORAGE_KEY = '@sticky_notes';
+const WIDGET_NOTES_KEY = '@sticky_notes_widget';
+
+// Native note store (Android only). Saves and deletes touch a single record instead of
+// rewriting the whole array under NOTES_STORAGE_KEY.
+const { StickyNoteStore } = NativeModules;
+
+let migration: Promise<void> | null = null;
+
+/**
+ * Per-item outcome of a native batch operation
+ */
+export interface BatchResult {
+  id: string | null;
+  ok: boolean;
+  // ERROR is any other failure, e.g. storage, reported by the non-native fallback
+  error?: 'NOT_FOUND' | 'INVALID' | 'ERROR';
+  note?: Note;
+  changed?: boolean;
+}
+
+/**
+ * Returns the native note store once the legacy AsyncStorage notes and widget pins have
+ * been imported into it, or null when it isn't available on this platform.
+ */
+export const getNativeStore = async () => {
+  if (Platform.OS !== 'android' || !StickyNoteStore) {
+    return null;
+  }
+
+  if (!migration) {
+    migration = (async () => {
+      if (!(await StickyNoteStore.isLegacyMigrated())) {
+        const legacyJson = await AsyncStorage.getItem(NOTES_STORAGE_KEY);
+        await StickyNoteStore.migrateLegacyNotes(legacyJson || '[]');
+      }
+      if (!(await StickyNoteStore.isPinsMigrated())) {
+        const legacyPinsJson = await AsyncStorage.getItem(WIDGET_NOTES_KEY);
+        await StickyNoteStore.migrateLegacyPins(legacyPinsJson || '[]');
+      }
+    })().catch(error => {
+      // Let the next call retry the migration
+      migration = null;
+      throw error;
+    });
+  }
+
+  await migration;
+  return StickyNoteStore;
+};
 
 export const saveNote = async (note: Omit<Note, 'id' | 'createdAt' | 'updatedAt'> & { id?: string }): Promise<Note> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      return await nativeStore.saveNote(note);
+    }
+
     const timestamp = Date.now();
     const notes = await getAllNotes();
     
@@ -71,6 +128,11 @@ export const saveNote = async (note: Omit<Note, 'id' | 'createdAt' | 'updatedAt'
 
 export const getAllNotes = async (): Promise<Note[]> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      return await nativeStore.getAllNotes();
+    }
+
     const notesJson = await AsyncStorage.getItem(NOTES_STORAGE_KEY);
     return notesJson ? JSON.parse(notesJson) : [];
   } catch (error) {
@@ -81,6 +143,11 @@ export const getAllNotes = async (): Promise<Note[]> => {
 
 export const getNote = async (id: string): Promise<Note | null> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      return await nativeStore.getNote(id);
+    }
+
     const notes = await getAllNotes();
     return notes.find(note => note.id === id) || null;
   } catch (error) {
@@ -89,8 +156,43 @@ export const getNote = async (id: string): Promise<Note | null> => {
   }
 };
 
+/**
+ * Returns the note's drawing, loading it from the native blob store if the note only
+ * references it by hash. Only call this where the drawing is actually shown or shared.
+ */
+export const loadDrawing = async (note: Note): Promise<string | undefined> => {
+  if (note.drawingPaths || !note.drawingHash) {
+    return note.drawingPaths;
+  }
+  const nativeStore = await getNativeStore();
+  if (!nativeStore) {
+    return undefined;
+  }
+  return (await nativeStore.loadDrawing(note.drawingHash)) || undefined;
+};
+
+/**
+ * Returns a file URI of a small thumbnail of the note's drawing, decoded and cached
+ * natively so lists never decode full drawings. Undefined without the native store.
+ */
+export const getDrawingThumbnail = async (
+  note: { id: string; updatedAt: number },
+  size: number
+): Promise<string | undefined> => {
+  const nativeStore = await getNativeStore();
+  if (!nativeStore) {
+    return undefined;
+  }
+  return (await nativeStore.getDrawingThumbnail(note.id, note.updatedAt, size)) || undefined;
+};
+
 export const deleteNote = async (id: string): Promise<boolean> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      return await nativeStore.deleteNote(id);
+    }
+
     const notes = await getAllNotes();
     const newNotes = notes.filter(note => note.id !== id);
     
@@ -105,3 +207,215 @@ export const deleteNote = async (id: string): Promise<boolean> => {
     return false;
   }
 };
+
+/**
+ * Save many notes at once, e.g. when importing a backup. On Android this is a single
+ * native transaction and a single widget refresh. Elsewhere the notes are saved one at a
+ * time, so this isn't atomic: a failure leaves the notes before it saved.
+ */
+export const saveNotes = async (
+  notes: Array<Omit<Note, 'id' | 'createdAt' | 'updatedAt'> & { id?: string }>
+): Promise<BatchResult[]> => {
+  const nativeStore = await getNativeStore();
+  if (nativeStore) {
+    return await nativeStore.saveNotes(notes);
+  }
+
+  const results: BatchResult[] = [];
+  for (const note of notes) {
+    try {
+      const saved = await saveNote(note);
+      results.push({ id: saved.id, ok: true, note: saved });
+    } catch (error) {
+      const notFound = error instanceof Error && error.message === 'Note not found';
+      results.push({ id: note.id || null, ok: false, error: notFound ? 'NOT_FOUND' : 'ERROR' });
+    }
+  }
+  return results;
+};
+
+/**
+ * Delete many notes at once, e.g. from a multi-selection
+ */
+export const deleteNotes = async (ids: string[]): Promise<BatchResult[]> => {
+  const nativeStore = await getNativeStore();
+  if (nativeStore) {
+    return await nativeStore.deleteNotes(ids);
+  }
+
+  const notes = await getAllNotes();
+  const toDelete = new Set(ids);
+  const existing = new Set(notes.map(note => note.id));
+  await AsyncStorage.setItem(NOTES_STORAGE_KEY, JSON.stringify(notes.filter(note => !toDelete.has(note.id))));
+  return ids.map((id): BatchResult => (existing.has(id) ? { id, ok: true } : { id, ok: false, error: 'NOT_FOUND' }));
+};
+
+export interface SearchHit {
+  id: string;
+  score: number;
+  // Flattened [start, end) character offset pairs of matching words
+  titleHighlights: number[];
+  contentHighlights: number[];
+}
+
+/**
+ * Full-text search over note titles and content, best matches first. Every word of the
+ * query has to match; the last one also matches as a prefix, so results follow typing.
+ */
+export const searchNotes = async (
+  query: string,
+  offset = 0,
+  limit = 20
+): Promise<{ total: number; hits: SearchHit[] }> => {
+  const nativeStore = await getNativeStore();
+  if (nativeStore) {
+    return await nativeStore.searchNotes(query, offset, limit);
+  }
+
+  const words = query.toLowerCase().split(/[^\p{L}\p{N}]+/u).filter(Boolean);
+  if (words.length === 0) {
+    return { total: 0, hits: [] };
+  }
+  const matches = (await getAllNotes())
+    .filter(note => {
+      const text = `${note.title} ${note.content}`.toLowerCase();
+      return words.every(word => text.includes(word));
+    })
+    .sort((a, b) => b.updatedAt - a.updatedAt);
+  return {
+    total: matches.length,
+    hits: matches.slice(offset, offset + limit).map(note => ({
+      id: note.id,
+      score: 0,
+      titleHighlights: [],
+      contentHighlights: [],
+    })),
+  };
+};
+
+/**
+ * What the note list shows for a note, without its drawing or recording
+ */
+export interface NoteSummary {
+  id: string;
+  title: string;
+  preview: string;
+  updatedAt: number;
+  hasDrawing: boolean;
+  hasAudio: boolean;
+}
+
+const PREVIEW_LENGTH = 200;
+
+export interface NoteSummaryPage {
+  notes: NoteSummary[];
+  nextCursor: string | null;
+}
+
+// undefined until read, null if there is none
+let launchSnapshot: NoteSummaryPage | null | undefined;
+
+const readLaunchSnapshot = (): NoteSummaryPage | null => {
+  if (launchSnapshot === undefined) {
+    launchSnapshot =
+      Platform.OS === 'android' && StickyNoteStore?.getLaunchSnapshot
+        ? StickyNoteStore.getLaunchSnapshot()
+        : null;
+  }
+  return launchSnapshot ?? null;
+};
+
+export const hasLaunchSnapshot = (): boolean => readLaunchSnapshot() !== null;
+
+/**
+ * Returns the first page of notes as precomputed natively before JS started, or null if
+ * there is none. Synchronous, so it can seed the first render. Only returns it once:
+ * it is a snapshot, and later listings should come from listNoteSummaries.
+ */
+export const takeLaunchSnapshot = (): NoteSummaryPage | null => {
+  const page = readLaunchSnapshot();
+  launchSnapshot = null;
+  return page;
+};
+
+/**
+ * List notes most recently updated first, one page at a time. Pass the nextCursor of a
+ * page to get the one after it; it is null after the last page.
+ */
+export const listNoteSummaries = async (
+  cursor: string | null = null,
+  limit = 30
+): Promise<NoteSummaryPage> => {
+  const nativeStore = await getNativeStore();
+  if (nativeStore) {
+    return await nativeStore.listNoteSummaries(cursor, limit);
+  }
+
+  const sorted = (await getAllNotes()).sort(
+    (a, b) => b.updatedAt - a.updatedAt || (a.id < b.id ? -1 : a.id > b.id ? 1 : 0)
+  );
+  let start = 0;
+  if (cursor) {
+    const separator = cursor.indexOf(':');
+    const updatedAt = Number(cursor.substring(0, separator));
+    const id = cursor.substring(separator + 1);
+    start = sorted.findIndex(note => note.updatedAt < updatedAt || (note.updatedAt === updatedAt && note.id > id));
+    if (start < 0) {
+      start = sorted.length;
+    }
+  }
+  const page = sorted.slice(start, start + limit);
+  const last = page[page.length - 1];
+  return {
+    notes: page.map(note => ({
+      id: note.id,
+      title: note.title,
+      preview: (note.content || '').substring(0, PREVIEW_LENGTH),
+      updatedAt: note.updatedAt,
+      hasDrawing: !!note.drawingPaths,
+      hasAudio: !!note.audioPath,
+    })),
+    nextCursor: page.length === limit && last ? `${last.updatedAt}:${last.id}` : null,
+  };
+};
+
+export const BACKUP_PROGRESS_EVENT = 'backupProgress';
+
+/**
+ * How far a backup export or import got. totalBytes is -1 while exporting.
+ */
+export interface BackupProgress {
+  phase: 'export' | 'import';
+  bytes: number;
+  totalBytes: number;
+  notes: number;
+  totalNotes: number;
+}
+
+export const onBackupProgress = (listener: (progress: BackupProgress) => void): EmitterSubscription =>
+  DeviceEventEmitter.addListener(BACKUP_PROGRESS_EVENT, listener);
+
+/**
+ * Write every note, with its drawing and recording, to one archive file at path.
+ * Resolves with the number of notes exported.
+ */
+export const exportBackup = async (path: string): Promise<number> => {
+  const nativeStore = await getNativeStore();
+  if (!nativeStore) {
+    throw new Error('Backups need the native note store');
+  }
+  return await nativeStore.exportBackup(path);
+};
+
+/**
+ * Import an archive written by exportBackup. Notes changed since the backup keep their
+ * newer version. Calling it again after an interrupted import carries on where it
+ * stopped. Resolves with the number of notes saved.
+ */
+export const importBackup = async (path: string): Promise<number> => {
+  const nativeStore = await getNativeStore();
+  if (!nativeStore) {
+    throw new Error('Backups need the native note store');
+  }
+  return await nativeStore.importBackup(path);
+};
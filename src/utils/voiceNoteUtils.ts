@@ -0,0 +1,52 @@
+import { NativeModules, Platform } from 'react-native';
+
+const { StickyVoiceNotes } = NativeModules;
+
+/**
+ * A voice note's duration and waveform, precomputed natively so neither needs the
+ * recording to be decoded. Peaks go from 0 to 255 and are spread evenly over the
+ * recording.
+ */
+export interface VoiceNoteInfo {
+  durationMs: number;
+  peaks: number[];
+}
+
+const isAvailable = () => Platform.OS === 'android' && !!StickyVoiceNotes;
+
+/**
+ * Get the info of a note's recording, or null if it has none or it is still being
+ * processed in the background
+ */
+export const getVoiceNoteInfo = async (noteId: string): Promise<VoiceNoteInfo | null> => {
+  if (!isAvailable()) {
+    return null;
+  }
+  try {
+    return await StickyVoiceNotes.getVoiceNoteInfo(noteId);
+  } catch (error) {
+    console.error('Error getting voice note info:', error);
+    return null;
+  }
+};
+
+/**
+ * Compact a recording and compute its info, e.g. right after it was recorded. Saving a
+ * note with a recording does this in the background anyway.
+ */
+export const processVoiceNote = async (audioPath: string): Promise<VoiceNoteInfo | null> => {
+  if (!isAvailable()) {
+    return null;
+  }
+  try {
+    return await StickyVoiceNotes.processVoiceNote(audioPath);
+  } catch (error) {
+    console.error('Error processing voice note:', error);
+    return null;
+  }
+};
+
+export const formatVoiceNoteDuration = (durationMs: number): string => {
+  const totalSeconds = Math.round(durationMs / 1000);
+  return `${Math.floor(totalSeconds / 60)}:${(totalSeconds % 60).toString().padStart(2, '0')}`;
+};
@@ -1,5 +1,5 @@
 import AsyncStorage from '@react-native-async-storage/async-storage';
-import { Note, getAllNotes } from './noteUtils';
+import { BatchResult, Note, getAllNotes, getNativeStore, getNote } from './noteUtils';
 import { NativeModules, Platform } from 'react-native';
 
 const WIDGET_NOTES_KEY = '@sticky_notes_widget';
@@ -7,11 +7,19 @@ const WIDGET_NOTES_KEY = '@sticky_notes_widget';
 // Get the native module if available
 const { StickyNoteWidget } = NativeModules;
 
+// Sent when a widget tap brings the running app to the front, with { widgetNoteId }
+export const WIDGET_NOTE_OPENED_EVENT = 'widgetNoteOpened';
+
 /**
  * Get notes selected for widget display
  */
 export const getWidgetNotes = async (): Promise<string[]> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      return await nativeStore.getPinnedNoteIds();
+    }
+
     const widgetNotesJson = await AsyncStorage.getItem(WIDGET_NOTES_KEY);
     return widgetNotesJson ? JSON.parse(widgetNotesJson) : [];
   } catch (error) {
@@ -26,6 +34,12 @@ export const getWidgetNotes = async (): Promise<string[]> => {
  */
 export const addNoteToWidget = async (noteId: string): Promise<boolean> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      const [result] = await nativeStore.setNotesPinned([noteId], true);
+      return result.ok;
+    }
+
     const widgetNotes = await getWidgetNotes();
     
     // Check if note already exists in widget
@@ -53,6 +67,12 @@ export const addNoteToWidget = async (noteId: string): Promise<boolean> => {
  */
 export const removeNoteFromWidget = async (noteId: string): Promise<boolean> => {
   try {
+    const nativeStore = await getNativeStore();
+    if (nativeStore) {
+      const [result] = await nativeStore.setNotesPinned([noteId], false);
+      return result.changed;
+    }
+
     const widgetNotes = await getWidgetNotes();
     
     // Filter out the note
@@ -74,6 +94,25 @@ export const removeNoteFromWidget = async (noteId: string): Promise<boolean> =>
   }
 };
 
+/**
+ * Pin or unpin many notes at once. Pins keep the order of noteIds.
+ */
+export const setNotesInWidget = async (noteIds: string[], pinned: boolean): Promise<BatchResult[]> => {
+  const nativeStore = await getNativeStore();
+  if (nativeStore) {
+    return await nativeStore.setNotesPinned(noteIds, pinned);
+  }
+
+  const widgetNotes = await getWidgetNotes();
+  const results: BatchResult[] = noteIds.map(id => ({ id, ok: true, changed: widgetNotes.includes(id) !== pinned }));
+  const newWidgetNotes = pinned
+    ? [...widgetNotes, ...noteIds.filter((id, i) => !widgetNotes.includes(id) && noteIds.indexOf(id) === i)]
+    : widgetNotes.filter(id => !noteIds.includes(id));
+  await AsyncStorage.setItem(WIDGET_NOTES_KEY, JSON.stringify(newWidgetNotes));
+  await updateWidget();
+  return results;
+};
+
 /**
  * Check if a note is in the widget
  * @param noteId ID of the note to check
@@ -129,7 +168,210 @@ export const getNotesForWidget = async (): Promise<Note[]> => {
 };
 
 /**
- * Update the widget with the latest data
+ * Get the ids of the widgets currently placed on the home screen
+ */
+export const getWidgetIds = async (): Promise<number[]> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.getWidgetIds();
+    } catch (error) {
+      console.error('Error getting widget ids:', error);
+    }
+  }
+  return [];
+};
+
+/**
+ * Get the note tapped in the widget. The widget starts loading it natively as soon as
+ * it is tapped, so this usually resolves without touching the store again.
+ * @param noteId ID of the note, as passed with the widget launch
+ */
+export const openNoteFromWidget = async (noteId: string): Promise<Note | null> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      const note = await StickyNoteWidget.openNoteFromWidget(noteId);
+      if (note) {
+        return note;
+      }
+    } catch (error) {
+      console.error('Error opening note from widget:', error);
+    }
+  }
+  // Not in the native store yet, e.g. before the legacy notes have been migrated
+  return getNote(noteId);
+};
+
+/**
+ * Set how many notes a widget shows
+ * @param appWidgetId ID of the widget, as returned by getWidgetIds
+ * @param slotCount Number of rows, pinned notes first
+ */
+export const setWidgetSlotCount = async (appWidgetId: number, slotCount: number): Promise<boolean> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.setWidgetSlotCount(appWidgetId, slotCount);
+    } catch (error) {
+      console.error('Error setting widget slot count:', error);
+    }
+  }
+  return false;
+};
+
+export type WidgetSource = 'pinnedAndRecent' | 'pinned' | 'recent' | 'search';
+
+export interface WidgetConfig {
+  source: WidgetSource;
+  slotCount: number;
+  query: string | null;
+}
+
+/**
+ * Set where a widget's notes come from. Widgets with the same configuration share one
+ * precomputed list.
+ * @param appWidgetId ID of the widget, as returned by getWidgetIds
+ * @param config Source, number of rows, and the query for 'search' widgets
+ */
+export const setWidgetConfig = async (appWidgetId: number, config: WidgetConfig): Promise<boolean> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.setWidgetConfig(
+        appWidgetId,
+        config.source,
+        config.slotCount,
+        config.query,
+      );
+    } catch (error) {
+      console.error('Error setting widget config:', error);
+    }
+  }
+  return false;
+};
+
+/**
+ * Get where a widget's notes come from
+ * @param appWidgetId ID of the widget, as returned by getWidgetIds
+ */
+export const getWidgetConfig = async (appWidgetId: number): Promise<WidgetConfig | null> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.getWidgetConfig(appWidgetId);
+    } catch (error) {
+      console.error('Error getting widget config:', error);
+    }
+  }
+  return null;
+};
+
+/**
+ * Tune how widget refreshes are coalesced
+ * @param debounceMs Quiet time after the last request before refreshing
+ * @param maxLatencyMs Longest a request may wait during a continuous burst
+ */
+export const configureWidgetUpdates = async (debounceMs: number, maxLatencyMs: number): Promise<boolean> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.configureWidgetUpdates(debounceMs, maxLatencyMs);
+    } catch (error) {
+      console.error('Error configuring widget updates:', error);
+    }
+  }
+  return false;
+};
+
+/**
+ * Get how many widget refreshes were requested and how many actually ran
+ */
+export const getWidgetUpdateStats = async (): Promise<{ requested: number; executed: number } | null> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.getWidgetUpdateStats();
+    } catch (error) {
+      console.error('Error getting widget update stats:', error);
+    }
+  }
+  return null;
+};
+
+export interface WidgetLatency {
+  count: number;
+  meanMs: number;
+  p50Ms: number;
+  p99Ms: number;
+  maxMs: number;
+}
+
+export interface WidgetMetrics {
+  latencies: {
+    storageRead: WidgetLatency;
+    parse: WidgetLatency;
+    select: WidgetLatency;
+    bind: WidgetLatency;
+    updateToRender: WidgetLatency;
+  };
+  counters: {
+    refreshesRequested: number;
+    refreshesExecuted: number;
+    snapshotsBuilt: number;
+    snapshotsWritten: number;
+    rowsRendered: number;
+    rowsReused: number;
+  };
+}
+
+/**
+ * Get latency percentiles and counters for each stage of a widget refresh
+ */
+export const getWidgetMetrics = async (): Promise<WidgetMetrics | null> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.getWidgetMetrics();
+    } catch (error) {
+      console.error('Error getting widget metrics:', error);
+    }
+  }
+  return null;
+};
+
+/**
+ * Clear the widget metrics, e.g. before measuring a specific interaction
+ */
+export const resetWidgetMetrics = async (): Promise<boolean> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.resetWidgetMetrics();
+    } catch (error) {
+      console.error('Error resetting widget metrics:', error);
+    }
+  }
+  return false;
+};
+
+export interface MaintenanceReport {
+  lastRunAt: number;
+  durationMs: number;
+  bytesReclaimed: number;
+  completed: boolean;
+  failures: number;
+  // False for a database created before it could be compacted a bit at a time
+  compactable: boolean;
+}
+
+/**
+ * Get what the last background storage maintenance run reclaimed and how long it took
+ */
+export const getMaintenanceReport = async (): Promise<MaintenanceReport | null> => {
+  if (Platform.OS === 'android' && StickyNoteWidget) {
+    try {
+      return await StickyNoteWidget.getMaintenanceReport();
+    } catch (error) {
+      console.error('Error getting maintenance report:', error);
+    }
+  }
+  return null;
+};
+
+/**
+ * Request a widget refresh. Calls made close together result in a single refresh.
  */
 export const updateWidget = async (): Promise<void> => {
   if (Platform.OS === 'android' && StickyNoteWidget) {